@@ -0,0 +1,221 @@
+// code by jph
+package lcm.lcm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** decouples a subscriber from the provider thread: messages are copied into a
+ * bounded ring buffer and delivered to the subscriber by a dedicated worker
+ * thread.
+ * 
+ * The byte arrays of the ring buffer are reused, so that in steady state no
+ * memory is allocated per message. */
+/* package */ class AsyncDelivery implements LCMSubscriber {
+  private static class Slot {
+    String channel;
+    byte[] data = new byte[0];
+    int length;
+  }
+
+  private final LCMSubscriber lcsub;
+  private final DeliveryPolicy deliveryPolicy;
+  private final Slot[] slots;
+  /** channel to queued slot, only used for policy KEEP_LATEST */
+  private final Map<String, Slot> pending = new HashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  /** signaled when the queue is empty and no message is being delivered */
+  private final Condition idle = lock.newCondition();
+  private final Thread thread;
+  private LCM lcm;
+  /** index of oldest message */
+  private int head = 0;
+  private int size = 0;
+  /** true while the subscriber processes a message */
+  private boolean delivering = false;
+  private long drops = 0;
+  private boolean closed = false;
+
+  /** @param lcsub
+   * @param capacity of queue, strictly positive
+   * @param deliveryPolicy
+   * @param threadFactory creates the worker thread */
+  AsyncDelivery(LCMSubscriber lcsub, int capacity, DeliveryPolicy deliveryPolicy, ThreadFactory threadFactory) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity=" + capacity);
+    this.lcsub = Objects.requireNonNull(lcsub);
+    this.deliveryPolicy = Objects.requireNonNull(deliveryPolicy);
+    slots = new Slot[capacity];
+    for (int index = 0; index < capacity; ++index)
+      slots[index] = new Slot();
+    thread = threadFactory.newThread(this::run);
+    thread.start();
+  }
+
+  @Override
+  public void messageReceived(LCM lcm, String channel, LCMDataInputStream ins) {
+    byte[] buffer = ins.getBuffer();
+    int offset = ins.getBufferOffset();
+    int length = ins.available();
+    lock.lock();
+    try {
+      this.lcm = lcm;
+      if (deliveryPolicy.equals(DeliveryPolicy.KEEP_LATEST)) {
+        Slot slot = pending.get(channel);
+        if (Objects.nonNull(slot)) {
+          copy(slot, channel, buffer, offset, length);
+          ++drops;
+          return;
+        }
+      }
+      if (size == slots.length)
+        switch (deliveryPolicy) {
+        case BLOCK:
+          while (size == slots.length && !closed)
+            notFull.awaitUninterruptibly();
+          break;
+        case DROP_NEWEST:
+          ++drops;
+          return;
+        case DROP_OLDEST:
+        case KEEP_LATEST:
+          pending.remove(slots[head].channel);
+          head = (head + 1) % slots.length;
+          --size;
+          ++drops;
+          break;
+        }
+      if (closed)
+        return;
+      Slot slot = slots[(head + size) % slots.length];
+      copy(slot, channel, buffer, offset, length);
+      ++size;
+      if (deliveryPolicy.equals(DeliveryPolicy.KEEP_LATEST))
+        pending.put(channel, slot);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void copy(Slot slot, String channel, byte[] buffer, int offset, int length) {
+    if (slot.data.length < length)
+      slot.data = new byte[length];
+    System.arraycopy(buffer, offset, slot.data, 0, length);
+    slot.channel = channel;
+    slot.length = length;
+  }
+
+  private void run() {
+    byte[] data = new byte[0];
+    LCMDataInputStream ins = new LCMDataInputStream(data);
+    while (true) {
+      String channel;
+      int length;
+      LCM _lcm;
+      lock.lock();
+      try {
+        while (size == 0 && !closed)
+          notEmpty.awaitUninterruptibly();
+        if (closed)
+          return;
+        Slot slot = slots[head];
+        // exchange arrays so that the slot can be refilled during delivery
+        byte[] swap = slot.data;
+        slot.data = data;
+        data = swap;
+        channel = slot.channel;
+        length = slot.length;
+        _lcm = lcm;
+        if (deliveryPolicy.equals(DeliveryPolicy.KEEP_LATEST))
+          pending.remove(channel);
+        head = (head + 1) % slots.length;
+        --size;
+        delivering = true;
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      try {
+        ins.reset(data, 0, length);
+        lcsub.messageReceived(_lcm, channel, ins);
+      } catch (Exception exception) {
+        exception.printStackTrace();
+      }
+      lock.lock();
+      try {
+        delivering = false;
+        if (size == 0)
+          idle.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** blocks until the subscriber has processed all queued messages
+   *
+   * @throws InterruptedException */
+  void awaitIdle() throws InterruptedException {
+    lock.lock();
+    try {
+      while ((0 < size || delivering) && !closed)
+        idle.await();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** blocks until the queue has room for a message, so that the next message
+   * on the given channel is neither dropped nor replaces a queued message
+   *
+   * @param channel of next message
+   * @throws InterruptedException */
+  void awaitCapacity(String channel) throws InterruptedException {
+    lock.lock();
+    try {
+      while ((size == slots.length || pending.containsKey(channel)) && !closed)
+        notFull.await();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return number of messages waiting for delivery */
+  int queueDepth() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return number of messages discarded because the queue was full */
+  long dropCount() {
+    lock.lock();
+    try {
+      return drops;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** discards pending messages and terminates the worker thread */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      idle.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** write pipeline of {@link TCPProvider}
+ *
+ * Publishers encode frames of the tcpq: protocol directly into a bounded
+ * buffer. A writer thread swaps the filled buffer with an empty one and
+ * passes all frames to the socket in a single write. A batch is written once
+ * it reaches the batch size, or once the oldest frame in the batch has waited
+ * for the maximum latency. While a batch is written, the next batch
+ * accumulates.
+ *
+ * When the buffer is full, publishers wait so that no message is lost while
+ * the connection is up. While there is no connection, frames are discarded,
+ * and the subscriptions are sent again after reconnecting. */
+/* package */ class BatchWriter {
+  static final int DEFAULT_CAPACITY = 1 << 20;
+  static final int DEFAULT_BATCH = 65536;
+
+  private final ReentrantLock reentrantLock = new ReentrantLock();
+  private final Condition notEmpty = reentrantLock.newCondition();
+  private final Condition notFull = reentrantLock.newCondition();
+  private final int batch;
+  private final long maxLatencyNanos;
+  private final WriterThread writerThread = new WriterThread();
+  /** buffer to which publishers append, guarded by reentrantLock */
+  private byte[] active;
+  private int size = 0;
+  /** time at which the first frame was appended to the active buffer */
+  private long first;
+  /** buffer that is written by the writer thread */
+  private byte[] writing;
+  /** stream of the current connection, or null, guarded by reentrantLock */
+  private OutputStream outputStream = null;
+  private boolean closed = false;
+  // statistics
+  private volatile long frameCount = 0;
+  private volatile long byteCount = 0;
+  private volatile long writeCount = 0;
+
+  /** @param capacity of buffer in bytes, publishers wait when the buffer is
+   * full
+   * @param batch number of bytes that trigger a write
+   * @param maxLatency_us maximum time in microseconds that a frame waits for
+   * more frames to fill the batch, 0 to write as soon as the writer is
+   * available */
+  BatchWriter(int capacity, int batch, int maxLatency_us) {
+    if (capacity <= 0 || batch <= 0 || maxLatency_us < 0)
+      throw new IllegalArgumentException("capacity=" + capacity + " batch=" + batch + " latency=" + maxLatency_us);
+    active = new byte[capacity];
+    writing = new byte[capacity];
+    this.batch = Math.min(batch, capacity);
+    maxLatencyNanos = maxLatency_us * 1_000L;
+    writerThread.start();
+  }
+
+  /** frames are written to given stream from now on
+   *
+   * @param outputStream of new connection */
+  void connect(OutputStream outputStream) {
+    reentrantLock.lock();
+    try {
+      size = 0;
+      this.outputStream = outputStream;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /** frames are discarded until the next connection */
+  void disconnect() {
+    reentrantLock.lock();
+    try {
+      size = 0;
+      outputStream = null;
+      notFull.signalAll();
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /** appends a frame, blocks while the buffer is full
+   *
+   * @param type of message
+   * @param channel
+   * @param data payload of a publish message, or null for subscriptions
+   * @param offset
+   * @param length
+   * @return false if the frame was discarded because there is no connection
+   * @throws InterruptedException */
+  boolean append(int type, String channel, byte data[], int offset, int length) throws InterruptedException {
+    int channel_length = channel.length();
+    int frame_size = 8 + channel_length + (Objects.isNull(data) ? 0 : 4 + length);
+    reentrantLock.lock();
+    try {
+      while (Objects.nonNull(outputStream) && active.length - size < frame_size)
+        if (active.length < frame_size && size == 0) {
+          // frame is larger than the buffer
+          active = new byte[frame_size];
+        } else
+          notFull.await();
+      if (Objects.isNull(outputStream))
+        return false;
+      if (size == 0)
+        first = System.nanoTime();
+      size = putInt(type, size);
+      size = putInt(channel_length, size);
+      for (int index = 0; index < channel_length; ++index)
+        active[size++] = (byte) channel.charAt(index);
+      if (Objects.nonNull(data)) {
+        size = putInt(length, size);
+        System.arraycopy(data, offset, active, size, length);
+        size += length;
+      }
+      ++frameCount;
+      notEmpty.signal();
+      return true;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  private int putInt(int value, int index) {
+    active[index++] = (byte) (value >>> 24);
+    active[index++] = (byte) (value >>> 16);
+    active[index++] = (byte) (value >>> 8);
+    active[index++] = (byte) value;
+    return index;
+  }
+
+  /** terminates the writer thread, frames that have not been written are
+   * discarded */
+  void close() {
+    reentrantLock.lock();
+    try {
+      closed = true;
+      outputStream = null;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      reentrantLock.unlock();
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException ex) {
+      // ---
+    }
+  }
+
+  /** @return number of frames appended */
+  long getFrameCount() {
+    return frameCount;
+  }
+
+  /** @return number of bytes written to the socket */
+  long getByteCount() {
+    return byteCount;
+  }
+
+  /** @return number of writes to the socket, the ratio of frames to writes
+   * indicates the effectiveness of batching */
+  long getWriteCount() {
+    return writeCount;
+  }
+
+  private class WriterThread extends Thread {
+    WriterThread() {
+      setDaemon(true);
+      setName("LCM-TCP-writer");
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        OutputStream stream;
+        int length;
+        reentrantLock.lock();
+        try {
+          while (!closed) {
+            if (0 < size) {
+              long remaining = first + maxLatencyNanos - System.nanoTime();
+              if (batch <= size || remaining <= 0)
+                break;
+              notEmpty.awaitNanos(remaining);
+            } else
+              notEmpty.await();
+          }
+          if (closed)
+            return;
+          // swap buffers, publishers continue to append to the empty buffer
+          byte[] swap = writing;
+          if (swap.length < active.length) // the active buffer has grown
+            swap = new byte[active.length];
+          writing = active;
+          active = swap;
+          length = size;
+          size = 0;
+          stream = outputStream;
+          notFull.signalAll();
+        } catch (InterruptedException ex) {
+          return;
+        } finally {
+          reentrantLock.unlock();
+        }
+        try {
+          stream.write(writing, 0, length);
+          byteCount += length;
+          ++writeCount;
+        } catch (IOException ex) {
+          // the reader of the connection detects the failure and reconnects
+          disconnect(stream);
+        }
+      }
+    }
+  }
+
+  /** @param stream that failed */
+  private void disconnect(OutputStream stream) {
+    reentrantLock.lock();
+    try {
+      if (outputStream == stream)
+        disconnect();
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,21 @@
+// code by jph
+package lcm.lcm;
+
+/** policy of an asynchronous subscription when the queue of messages that
+ * await delivery to the subscriber is full
+ * 
+ * @see LCM#subscribe(String, LCMSubscriber, int, DeliveryPolicy) */
+public enum DeliveryPolicy {
+  /** the provider thread waits until the subscriber has consumed a message.
+   * No message is lost, but a slow subscriber stalls the provider. */
+  BLOCK,
+  /** the oldest message in the queue is discarded */
+  DROP_OLDEST,
+  /** the message that does not fit into the queue is discarded */
+  DROP_NEWEST,
+  /** the queue holds at most one message per channel, a new message replaces
+   * the message of the same channel that is still waiting. If the queue is full
+   * with messages of other channels, the oldest message is discarded. */
+  KEEP_LATEST,
+  ;
+}
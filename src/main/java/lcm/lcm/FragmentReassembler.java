@@ -0,0 +1,271 @@
+// code by jph
+package lcm.lcm;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+import lcm.util.ChannelNameCache;
+
+/** reassembly of fragmented udpm messages
+ *
+ * Messages in reassembly are identified by sender and sequence number, so
+ * that the fragments of several large messages published concurrently by one
+ * process may interleave. Fragments may arrive in any order.
+ *
+ * Resources are bounded by
+ * <ul>
+ * <li>the maximum number of messages in reassembly per sender: when exceeded,
+ * the oldest message of the sender is dropped,
+ * <li>a timeout after which a message with missing fragments expires. The
+ * timeout is measured from the last fragment received for the message, so
+ * that a large message whose transmission is paced over a long duration does
+ * not expire while its fragments keep arriving,
+ * <li>a cap on the total number of bytes in reassembly: when exceeded, the
+ * oldest messages are dropped.
+ * </ul>
+ *
+ * All functions except the getters of the counters are invoked by the reader
+ * thread of the provider. */
+public class FragmentReassembler {
+  static final int DEFAULT_IN_FLIGHT = 4;
+  static final int DEFAULT_TIMEOUT_MS = 1000;
+  static final long DEFAULT_MEMORY = 64L << 20;
+  private static final int FRAGMENT_BUFFER_POOL_SIZE = 4;
+
+  /** buffer for the reassembly of a fragmented message. Instances are
+   * recycled together with their arrays. */
+  private static class FragmentBuffer {
+    SocketAddress socketAddress;
+    /** null until the first fragment is received */
+    String channel;
+    int msgSeqNumber;
+    int data_size;
+    int fragments_in_msg;
+    int fragments_remaining;
+    byte[] data = new byte[0];
+    boolean frag_received[] = new boolean[0];
+    /** time of creation in nanoseconds */
+    long nanos;
+    /** time of the last fragment received in nanoseconds */
+    long lastNanos;
+
+    void init(SocketAddress socketAddress, int msgSeqNumber, int data_size, int fragments_in_msg, long nanos) {
+      this.socketAddress = socketAddress;
+      this.channel = null;
+      this.msgSeqNumber = msgSeqNumber;
+      this.data_size = data_size;
+      this.fragments_in_msg = fragments_in_msg;
+      this.fragments_remaining = fragments_in_msg;
+      this.nanos = nanos;
+      this.lastNanos = nanos;
+      if (data.length < data_size)
+        data = new byte[data_size];
+      if (frag_received.length < fragments_in_msg)
+        frag_received = new boolean[fragments_in_msg];
+      else
+        Arrays.fill(frag_received, 0, fragments_in_msg, false);
+    }
+  }
+
+  // ---
+  private final LCM lcm;
+  private final ChannelNameCache channelNameCache;
+  private final int maxInFlight;
+  private final long timeoutNanos;
+  private final long maxMemory;
+  /** messages in reassembly per sender, oldest first */
+  private final Map<SocketAddress, Deque<FragmentBuffer>> senders = new HashMap<>();
+  /** recycled fragment buffers */
+  private final Deque<FragmentBuffer> fragmentBufferPool = new ArrayDeque<>();
+  private long memory = 0;
+  private long lastSweep = System.nanoTime();
+  /** counters are only modified by the reader thread */
+  private volatile long completed = 0;
+  private volatile long expired = 0;
+  private volatile long dropped = 0;
+
+  /** @param lcm
+   * @param channelNameCache
+   * @param maxInFlight maximum number of messages in reassembly per sender
+   * @param timeout_ms after the last fragment received for an incomplete
+   * message, after which the message is discarded
+   * @param maxMemory maximum number of bytes in reassembly */
+  FragmentReassembler(LCM lcm, ChannelNameCache channelNameCache, int maxInFlight, int timeout_ms, long maxMemory) {
+    if (maxInFlight <= 0)
+      throw new IllegalArgumentException("maxInFlight=" + maxInFlight);
+    this.lcm = lcm;
+    this.channelNameCache = channelNameCache;
+    this.maxInFlight = maxInFlight;
+    this.timeoutNanos = timeout_ms * 1_000_000L;
+    this.maxMemory = maxMemory;
+  }
+
+  /** @param socketAddress of sender
+   * @param buffer
+   * @param offset of datagram that starts with MAGIC_LONG
+   * @param end of datagram */
+  void handleFragment(SocketAddress socketAddress, byte[] buffer, int offset, int end) {
+    if (end - offset < 20) {
+      System.err.println("LC: dropping invalid fragment");
+      return;
+    }
+    int msgSeqNumber = UDPMulticastReceiver.readInt(buffer, offset + 4);
+    int msg_size = UDPMulticastReceiver.readInt(buffer, offset + 8);
+    int fragment_offset = UDPMulticastReceiver.readInt(buffer, offset + 12);
+    int fragment_id = UDPMulticastReceiver.readShort(buffer, offset + 16);
+    int fragments_in_msg = UDPMulticastReceiver.readShort(buffer, offset + 18);
+    if (msg_size < 0 || fragment_offset < 0 || fragments_in_msg <= fragment_id) {
+      System.err.println("LC: dropping invalid fragment");
+      return;
+    }
+    long nanos = System.nanoTime();
+    if (timeoutNanos < nanos - lastSweep)
+      sweep(nanos);
+    Deque<FragmentBuffer> deque = senders.get(socketAddress);
+    FragmentBuffer fragmentBuffer = find(deque, msgSeqNumber);
+    if (Objects.nonNull(fragmentBuffer) && //
+        (fragmentBuffer.data_size != msg_size || fragmentBuffer.fragments_in_msg != fragments_in_msg)) {
+      // sequence number was reused for a different message
+      remove(deque, fragmentBuffer);
+      ++dropped;
+      fragmentBuffer = null;
+    }
+    if (Objects.isNull(fragmentBuffer)) {
+      if (maxMemory < msg_size) {
+        if (0 == fragment_id) // count message only once
+          ++dropped;
+        return;
+      }
+      while (maxMemory < memory + msg_size)
+        removeOldest();
+      // removal of the last message of a sender also removes the deque
+      deque = senders.get(socketAddress);
+      if (Objects.nonNull(deque) && deque.size() == maxInFlight) {
+        remove(deque, deque.peekFirst());
+        ++dropped;
+        deque = senders.get(socketAddress);
+      }
+      if (Objects.isNull(deque)) {
+        deque = new ArrayDeque<>(maxInFlight);
+        senders.put(socketAddress, deque);
+      }
+      fragmentBuffer = fragmentBufferPool.isEmpty() //
+          ? new FragmentBuffer()
+          : fragmentBufferPool.pop();
+      fragmentBuffer.init(socketAddress, msgSeqNumber, msg_size, fragments_in_msg, nanos);
+      deque.addLast(fragmentBuffer);
+      memory += msg_size;
+    }
+    int data_start = offset + 20;
+    if (0 == fragment_id) {
+      // extract channel name
+      int channel_end = UDPMulticastReceiver.indexOfZero(buffer, data_start, end);
+      if (channel_end < 0) {
+        System.err.println("LC: dropping invalid fragment");
+        remove(deque, fragmentBuffer);
+        ++dropped;
+        return;
+      }
+      fragmentBuffer.channel = channelNameCache.get(buffer, data_start, channel_end - data_start);
+      data_start = channel_end + 1;
+    }
+    fragmentBuffer.lastNanos = nanos;
+    int frag_size = end - data_start;
+    // sum in long so that a crafted offset does not overflow the check
+    if (fragmentBuffer.data_size < (long) fragment_offset + frag_size) {
+      System.err.println("LC: dropping invalid fragment");
+      remove(deque, fragmentBuffer);
+      ++dropped;
+      return;
+    }
+    if (!fragmentBuffer.frag_received[fragment_id]) {
+      fragmentBuffer.frag_received[fragment_id] = true;
+      // the payload is copied directly from the datagram buffer
+      System.arraycopy(buffer, data_start, fragmentBuffer.data, fragment_offset, frag_size);
+      --fragmentBuffer.fragments_remaining;
+    }
+    if (0 == fragmentBuffer.fragments_remaining) {
+      ++completed;
+      // delivery is synchronous, therefore the buffer can be recycled afterwards
+      lcm.receiveMessage(fragmentBuffer.channel, fragmentBuffer.data, 0, fragmentBuffer.data_size);
+      remove(deque, fragmentBuffer);
+    }
+  }
+
+  private static FragmentBuffer find(Deque<FragmentBuffer> deque, int msgSeqNumber) {
+    if (Objects.nonNull(deque))
+      for (FragmentBuffer fragmentBuffer : deque)
+        if (fragmentBuffer.msgSeqNumber == msgSeqNumber)
+          return fragmentBuffer;
+    return null;
+  }
+
+  private void remove(Deque<FragmentBuffer> deque, FragmentBuffer fragmentBuffer) {
+    deque.remove(fragmentBuffer);
+    if (deque.isEmpty())
+      senders.remove(fragmentBuffer.socketAddress);
+    recycle(fragmentBuffer);
+  }
+
+  private void recycle(FragmentBuffer fragmentBuffer) {
+    memory -= fragmentBuffer.data_size;
+    fragmentBuffer.socketAddress = null;
+    fragmentBuffer.channel = null;
+    if (fragmentBufferPool.size() < FRAGMENT_BUFFER_POOL_SIZE && fragmentBuffer.data.length <= maxMemory / FRAGMENT_BUFFER_POOL_SIZE)
+      fragmentBufferPool.push(fragmentBuffer);
+  }
+
+  /** drops the message in reassembly that was created first */
+  private void removeOldest() {
+    Deque<FragmentBuffer> oldest = null;
+    for (Deque<FragmentBuffer> deque : senders.values())
+      if (Objects.isNull(oldest) || deque.peekFirst().nanos - oldest.peekFirst().nanos < 0)
+        oldest = deque;
+    remove(oldest, oldest.peekFirst());
+    ++dropped;
+  }
+
+  /** discards messages that have not received a fragment within the timeout */
+  private void sweep(long nanos) {
+    lastSweep = nanos;
+    Iterator<Deque<FragmentBuffer>> iterator = senders.values().iterator();
+    while (iterator.hasNext()) {
+      Deque<FragmentBuffer> deque = iterator.next();
+      // the deque is ordered by creation, not by the last fragment received
+      Iterator<FragmentBuffer> fragmentBuffers = deque.iterator();
+      while (fragmentBuffers.hasNext()) {
+        FragmentBuffer fragmentBuffer = fragmentBuffers.next();
+        if (timeoutNanos < nanos - fragmentBuffer.lastNanos) {
+          fragmentBuffers.remove();
+          recycle(fragmentBuffer);
+          ++expired;
+        }
+      }
+      if (deque.isEmpty())
+        iterator.remove();
+    }
+  }
+
+  /** @return number of messages that were reassembled and delivered */
+  public long getCompletedCount() {
+    return completed;
+  }
+
+  /** @return number of incomplete messages discarded because no fragment
+   * was received within the timeout */
+  public long getExpiredCount() {
+    return expired;
+  }
+
+  /** @return number of incomplete messages discarded because of the limits on
+   * messages per sender and memory, or because of invalid fragments */
+  public long getDroppedCount() {
+    return dropped;
+  }
+}
@@ -4,19 +4,41 @@ package lcm.lcm;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.LongSupplier;
+
+import lcm.util.SubscriptionIndex;
 
 /** Lightweight Communications and Marshalling Java implementation */
 public class LCM {
-  // subscriptions objects is used for synchronization
-  private final List<SubscriptionRecord> subscriptions = new ArrayList<>();
-  private final List<Provider> providers = new ArrayList<>();
-  private final Map<String, List<SubscriptionRecord>> subscriptionsMap = new HashMap<>();
-  private boolean closed = false;
+  /** guards modifications of subscriptions and subscriptionsMap */
+  private final Object subscriptionsLock = new Object();
+  /** immutable snapshot, replaced on every change */
+  private volatile List<SubscriptionRecord> subscriptions = Collections.emptyList();
+  /** immutable snapshot of channel to matching subscribers, replaced on every
+   * change. Provider threads read the snapshot without locking. */
+  private volatile Map<String, List<SubscriptionRecord>> subscriptionsMap = Collections.emptyMap();
+  /** index of the regexes of all subscriptions, guarded by subscriptionsLock */
+  private final SubscriptionIndex<SubscriptionRecord> subscriptionIndex = new SubscriptionIndex<>();
+  /** channels in subscriptionsMap per subscription, guarded by
+   * subscriptionsLock, so that unsubscribe only updates the affected
+   * channels */
+  private final Map<SubscriptionRecord, List<String>> channelsMap = new HashMap<>();
+  private final List<Provider> providers = new CopyOnWriteArrayList<>();
+  private volatile boolean closed = false;
+  /** time of the log during deterministic replay, or null */
+  private volatile LongSupplier clock = null;
   private static LCM singleton;
-  private final LCMDataOutputStream encodeBuffer = new LCMDataOutputStream(new byte[1024]);
+  /** encode buffer per publishing thread, so that publishers do not have to
+   * synchronize */
+  private final ThreadLocal<LCMDataOutputStream> encodeBuffer = //
+      ThreadLocal.withInitial(() -> new LCMDataOutputStream(new byte[1024]));
 
   /** Create a new LCM object, connecting to one or more URLs. If no URL is
    * specified, the environment variable LCM_DEFAULT_URL is used. If that
@@ -40,13 +62,17 @@ public class LCM {
       URLParser up = new URLParser(url);
       String protocol = up.get("protocol");
       if (protocol.equals("udpm"))
-        providers.add(new UDPMulticastProvider(this, up));
+        providers.add(up.get("impl", "").equals("nio") //
+            ? new UDPMulticastNioProvider(this, up)
+            : new UDPMulticastProvider(this, up));
       else if (protocol.equals("tcpq"))
         providers.add(new TCPProvider(this, up));
       else if (protocol.equals("file"))
         providers.add(new LogFileProvider(this, up));
       else if (protocol.equals("memq"))
         providers.add(new MemqProvider(this, up));
+      else if (protocol.equals("shm"))
+        providers.add(new SharedMemoryProvider(this, up));
       else
         System.err.println("LCM: Unknown URL protocol: " + protocol);
     }
@@ -75,13 +101,14 @@ public class LCM {
 
   /** Publish an LCM-defined type on a channel. If more than one URL was
    * specified, the message will be sent on each. **/
-  public synchronized void publish(String channel, LCMEncodable e) {
+  public void publish(String channel, LCMEncodable e) {
     if (closed)
       throw new IllegalStateException();
     try {
-      encodeBuffer.reset();
-      e.encode(encodeBuffer);
-      publish(channel, encodeBuffer.getBuffer(), 0, encodeBuffer.size());
+      LCMDataOutputStream lcmDataOutputStream = encodeBuffer.get();
+      lcmDataOutputStream.reset();
+      e.encode(lcmDataOutputStream);
+      publish(channel, lcmDataOutputStream.getBuffer(), 0, lcmDataOutputStream.size());
     } catch (IOException ex) {
       System.err.println("LC publish fail: " + ex);
     }
@@ -90,7 +117,7 @@ public class LCM {
   /** Publish raw data on a channel, bypassing the LCM type specification. If
    * more than one URL was specified when the LCM object was created, the
    * message will be sent on each. **/
-  public synchronized void publish(String channel, byte[] data, int offset, int length) {
+  public void publish(String channel, byte[] data, int offset, int length) {
     if (closed)
       throw new IllegalStateException();
     for (Provider p : providers)
@@ -102,18 +129,68 @@ public class LCM {
    * 
    * @return subscription record that allows to conveniently unsubscribe */
   public SubscriptionRecord subscribe(String regex, LCMSubscriber sub) {
+    return subscribe(new SubscriptionRecord(regex, sub));
+  }
+
+  /** Subscribe to all channels whose name matches the regular expression.
+   * Messages are not delivered on the thread of the provider, but are queued
+   * and passed to the subscriber by a dedicated worker thread. A slow
+   * subscriber thereby does not stall the reception of messages.
+   * 
+   * @param regex
+   * @param sub
+   * @param capacity maximum number of messages that await delivery
+   * @param deliveryPolicy when the queue is full
+   * @return subscription record that provides queue depth and drop count */
+  public SubscriptionRecord subscribe(String regex, LCMSubscriber sub, int capacity, DeliveryPolicy deliveryPolicy) {
+    return subscribe(regex, sub, capacity, deliveryPolicy, runnable -> {
+      Thread thread = new Thread(runnable, "LCM-" + regex);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Subscribe with asynchronous delivery where the worker thread is created
+   * by the given factory. For instance, on a Java 21 runtime the factory
+   * Thread.ofVirtual().factory() results in a virtual thread per subscriber.
+   * 
+   * @param regex
+   * @param sub
+   * @param capacity maximum number of messages that await delivery
+   * @param deliveryPolicy when the queue is full
+   * @param threadFactory
+   * @return subscription record that provides queue depth and drop count */
+  public SubscriptionRecord subscribe( //
+      String regex, LCMSubscriber sub, int capacity, DeliveryPolicy deliveryPolicy, ThreadFactory threadFactory) {
     if (closed)
       throw new IllegalStateException();
-    final SubscriptionRecord srec = new SubscriptionRecord(regex, sub);
+    return subscribe(new SubscriptionRecord(regex, new AsyncDelivery(sub, capacity, deliveryPolicy, threadFactory)));
+  }
+
+  private SubscriptionRecord subscribe(SubscriptionRecord srec) {
+    if (closed)
+      throw new IllegalStateException();
+    String regex = srec.regex;
     synchronized (this) {
       for (Provider provider : providers)
         provider.subscribe(regex);
     }
-    synchronized (subscriptions) {
-      subscriptions.add(srec);
-      for (String channel : subscriptionsMap.keySet())
-        if (srec.matches(channel))
-          subscriptionsMap.get(channel).add(srec);
+    synchronized (subscriptionsLock) {
+      List<SubscriptionRecord> list = new ArrayList<>(subscriptions);
+      list.add(srec);
+      subscriptionIndex.add(regex, srec);
+      List<String> channels = new ArrayList<>();
+      Map<String, List<SubscriptionRecord>> map = new HashMap<>(subscriptionsMap);
+      for (Map.Entry<String, List<SubscriptionRecord>> entry : map.entrySet())
+        if (srec.matches(entry.getKey())) {
+          List<SubscriptionRecord> srecs = new ArrayList<>(entry.getValue());
+          srecs.add(srec);
+          entry.setValue(Collections.unmodifiableList(srecs));
+          channels.add(entry.getKey());
+        }
+      channelsMap.put(srec, channels);
+      subscriptions = Collections.unmodifiableList(list);
+      subscriptionsMap = map;
     }
     return srec;
   }
@@ -124,51 +201,125 @@ public class LCM {
   public void unsubscribe(SubscriptionRecord srec) {
     if (closed)
       throw new IllegalStateException();
-    synchronized (subscriptions) {
-      // Find and remove subscriber from list
-      boolean removed = subscriptions.remove(srec);
-      if (!removed)
-        new RuntimeException(srec.regex + " not removed").printStackTrace();
-      // Find and remove subscriber from map
-      for (String channel : subscriptionsMap.keySet())
-        // TODO remove channel as key, if value collection is empty
-        subscriptionsMap.get(channel).remove(srec);
-    }
+    if (!remove(Collections.singleton(srec)))
+      new RuntimeException(srec.regex + " not removed").printStackTrace();
   }
 
   public void unsubscribeAll(Collection<SubscriptionRecord> collection) {
     if (closed)
       throw new IllegalStateException();
-    synchronized (subscriptions) {
+    remove(collection);
+  }
+
+  /** @param collection
+   * @return true if all subscriptions in given collection were removed */
+  private boolean remove(Collection<SubscriptionRecord> collection) {
+    synchronized (subscriptionsLock) {
       // Find and remove subscriber from list
-      subscriptions.removeAll(collection);
-      // Find and remove subscriber from map
-      for (String channel : subscriptionsMap.keySet())
-        subscriptionsMap.get(channel).removeAll(collection);
+      List<SubscriptionRecord> list = new ArrayList<>(subscriptions);
+      boolean removed = true;
+      Map<String, List<SubscriptionRecord>> map = new HashMap<>(subscriptionsMap);
+      for (SubscriptionRecord srec : collection)
+        if (list.remove(srec)) {
+          subscriptionIndex.remove(srec.regex, srec);
+          // Find and remove subscriber from map
+          // channels without subscribers are kept with an empty list so that
+          // the matching is not repeated for every message
+          for (String channel : channelsMap.remove(srec)) {
+            List<SubscriptionRecord> srecs = new ArrayList<>(map.get(channel));
+            srecs.remove(srec);
+            map.put(channel, Collections.unmodifiableList(srecs));
+          }
+          srec.close();
+        } else
+          removed = false;
+      subscriptions = Collections.unmodifiableList(list);
+      subscriptionsMap = map;
+      return removed;
     }
   }
 
   /** Not for use by end users. Provider back ends call this method when they
    * receive a message. The subscribers that match the channel name are
-   * synchronously notified. */
+   * synchronously notified.
+   * 
+   * Delivery works on an immutable snapshot of the subscriptions and does not
+   * hold any lock, so that several providers may deliver concurrently. */
   public void receiveMessage(String channel, byte data[], int offset, int length) {
     if (closed)
       throw new IllegalStateException();
-    synchronized (subscriptions) {
+    List<SubscriptionRecord> srecs = subscriptionsMap.get(channel);
+    if (srecs == null)
+      srecs = addChannel(channel);
+    for (SubscriptionRecord srec : srecs)
+      srec.deliver(this, channel, data, offset, length);
+  }
+
+  /** must build the list of subscribers for a channel not seen before
+   * 
+   * @param channel
+   * @return unmodifiable list of subscribers that match given channel */
+  private List<SubscriptionRecord> addChannel(String channel) {
+    synchronized (subscriptionsLock) {
       List<SubscriptionRecord> srecs = subscriptionsMap.get(channel);
-      if (srecs == null) {
-        // must build this list!
-        srecs = new ArrayList<>();
-        subscriptionsMap.put(channel, srecs);
-        for (SubscriptionRecord srec : subscriptions)
-          if (srec.matches(channel))
-            srecs.add(srec);
-      }
+      if (srecs != null) // another thread has added the channel in the meantime
+        return srecs;
+      srecs = Collections.unmodifiableList(subscriptionIndex.match(channel));
       for (SubscriptionRecord srec : srecs)
-        srec.lcsub.messageReceived(this, channel, new LCMDataInputStream(data, offset, length));
+        channelsMap.get(srec).add(channel);
+      Map<String, List<SubscriptionRecord>> map = new HashMap<>(subscriptionsMap);
+      map.put(channel, srecs);
+      subscriptionsMap = map;
+      return srecs;
     }
   }
 
+  /** During a deterministic replay of a log, see {@link LogFileProvider}, the
+   * time is the time of the message that is dispatched, so that subscribers
+   * do not depend on the speed of the replay. Otherwise the time is the wall
+   * clock.
+   * 
+   * function not part of the original LCM API
+   * 
+   * @return time in microseconds since the epoch */
+  public long getUtime() {
+    LongSupplier clock = this.clock;
+    return Objects.isNull(clock) //
+        ? System.currentTimeMillis() * 1000
+        : clock.getAsLong();
+  }
+
+  /** @param clock that provides the time of the log, or null for the wall
+   * clock */
+  /* package */ void setClock(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** Blocks until all asynchronous subscribers have processed all messages in
+   * their queues. Synchronous subscribers have processed a message when
+   * {@link #receiveMessage(String, byte[], int, int)} returns.
+   * 
+   * function not part of the original LCM API
+   * 
+   * @throws InterruptedException */
+  public void awaitDelivery() throws InterruptedException {
+    for (SubscriptionRecord srec : subscriptions)
+      srec.awaitIdle();
+  }
+
+  /** Blocks until the queues of all asynchronous subscribers that match the
+   * channel accept a message without loss.
+   * 
+   * @param channel
+   * @throws InterruptedException */
+  /* package */ void awaitCapacity(String channel) throws InterruptedException {
+    List<SubscriptionRecord> srecs = subscriptionsMap.get(channel);
+    if (srecs == null)
+      srecs = addChannel(channel);
+    for (SubscriptionRecord srec : srecs)
+      srec.awaitCapacity(channel);
+  }
+
   /** A convenience function that subscribes to all LCM channels. */
   public synchronized void subscribeAll(LCMSubscriber sub) {
     subscribe(".*", sub);
@@ -181,9 +332,12 @@ public class LCM {
     // TODO by Jen Check when should close and when should unsubscribe
     if (closed)
       throw new IllegalStateException();
-    synchronized (subscriptions) {
-      subscriptions.clear();
-      subscriptionsMap.clear();
+    synchronized (subscriptionsLock) {
+      subscriptions.forEach(SubscriptionRecord::close);
+      subscriptions = Collections.emptyList();
+      subscriptionsMap = Collections.emptyMap();
+      subscriptionIndex.clear();
+      channelsMap.clear();
     }
     synchronized (this) {
       providers.forEach(Provider::close);
@@ -42,6 +42,15 @@ public final class LCMDataInputStream implements DataInput {
     pos = startpos;
   }
 
+  /** Reuses the stream for a different buffer, or region of the buffer, so that
+   * no new stream needs to be allocated per message. **/
+  public void reset(byte buf[], int offset, int len) {
+    this.buf = buf;
+    this.pos = offset;
+    this.startpos = offset;
+    this.endpos = offset + len + 1;
+  }
+
   @Override
   public boolean readBoolean() throws IOException {
     needInput(1);
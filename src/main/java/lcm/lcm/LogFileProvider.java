@@ -1,14 +1,74 @@
 // code by lcm
 package lcm.lcm;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
 
+import lcm.logging.AsyncLogWriter;
+import lcm.logging.BlockLogWriter;
 import lcm.logging.Log;
+import lcm.logging.LogReader;
+import lcm.logging.LogReaders;
+import lcm.logging.ReplayScheduler;
+import lcm.logging.SegmentedLogWriter;
 
+/** LCM provider for the file: URL
+ *
+ * In read mode, the path is a log file, a block-compressed log file, a
+ * zipped log file, or the manifest of a segmented log, for instance
+ * file:///data/shift.lcm.manifest
+ *
+ * Several paths separated by commas are replayed as one log in the order of
+ * time, for instance file:///data/lidar.lcm,/data/imu.lcm so that the
+ * events of all logs are paced by one clock.
+ *
+ * URL options of read mode:
+ * <ul>
+ * <li>replay: "realtime" (default) dispatches the events at the deadlines
+ * computed by a {@link ReplayScheduler} from the time of the events and the
+ * speed. "lockstep" dispatches the next event only after all subscribers,
+ * also the asynchronous ones, have processed the current event. "flow"
+ * dispatches as fast as the slowest subscriber consumes, the queues of the
+ * asynchronous subscribers do not drop messages.
+ * </ul>
+ * In the modes lockstep and flow the replay is deterministic, and
+ * {@link LCM#getUtime()} returns the time of the event that was dispatched
+ * last, instead of the wall clock.
+ *
+ * In write mode, for instance file:///tmp/out.lcm?mode=w, messages are
+ * recorded by an {@link AsyncLogWriter} so that publishers do not wait for
+ * the disk.
+ *
+ * URL options of write mode:
+ * <ul>
+ * <li>backlog: maximum number of bytes that wait to be written, for instance
+ * 64M, further messages are dropped
+ * <li>fsync: interval in milliseconds in which the file is synced to disk, 0
+ * to leave the sync to the operating system
+ * <li>segsize: maximum size of a segment, for instance 1G
+ * <li>segtime: maximum duration of a segment in seconds
+ * <li>compress: "deflate" to record a block-compressed log
+ * <li>block: number of uncompressed bytes of a compressed block, for
+ * instance 256K
+ * <li>level: level of compression from 1 (fastest) to 9 (smallest)
+ * </ul>
+ * When segsize or segtime is given, the messages are recorded by a
+ * {@link SegmentedLogWriter}. When compress is given, the messages are
+ * recorded by a {@link BlockLogWriter}. */
 public class LogFileProvider implements Provider {
+  private enum Replay {
+    REALTIME, LOCKSTEP, FLOW;
+  }
+
   private final LCM lcm;
-  private Log log;
-  private double speed; // how fast do we play? <=0 for "as fast as possible"
+  private LogReader log;
+  private AsyncLogWriter asyncLogWriter;
+  private final ReplayScheduler replayScheduler;
+  private final Replay replay;
+  /** time of the event that was dispatched last */
+  private volatile long replayUtime = 0;
+  private final CountDownLatch finished = new CountDownLatch(1);
   /** how many seconds to delay before starting to play? (crude race-condition hack) */
   private double delay;
   private boolean verbose; // report actual speed periodically
@@ -21,17 +81,39 @@ public class LogFileProvider implements Provider {
   public LogFileProvider(LCM lcm, URLParser up) throws IOException {
     this.lcm = lcm;
     String logPath = up.get("network", "");
-    speed = up.get("speed", 1.0);
+    // how fast do we play? <=0 for "as fast as possible"
+    replayScheduler = new ReplayScheduler(up.get("speed", 1.0));
+    replay = Replay.valueOf(up.get("replay", "realtime").toUpperCase());
     delay = up.get("delay", 0.5);
     verbose = up.get("verbose", false);
     skip = up.get("skip", 0.0); // skip this fraction of the log file.
     writemode = up.get("mode", "r").equals("w");
     if (writemode) {
-      log = new Log(logPath, "rw");
+      long capacity = up.getSize("backlog", AsyncLogWriter.DEFAULT_CAPACITY);
+      int commitInterval_ms = up.get("fsync", AsyncLogWriter.DEFAULT_COMMIT_INTERVAL_MS);
+      long segmentSize = up.getSize("segsize", 0);
+      int segmentDuration_s = up.get("segtime", 0);
+      String compress = up.get("compress", "");
+      boolean segmented = 0 < segmentSize || 0 < segmentDuration_s;
+      if (compress.equals("deflate")) {
+        if (segmented)
+          throw new IllegalArgumentException("compress cannot be combined with segsize or segtime");
+        asyncLogWriter = new BlockLogWriter(logPath, //
+            (int) up.getSize("block", BlockLogWriter.DEFAULT_BLOCK_SIZE), //
+            up.get("level", 1), capacity, commitInterval_ms);
+      } else {
+        if (!compress.isEmpty())
+          throw new IllegalArgumentException("compress=" + compress);
+        asyncLogWriter = segmented //
+            ? new SegmentedLogWriter(logPath, segmentSize, segmentDuration_s, capacity, commitInterval_ms)
+            : new AsyncLogWriter(logPath, capacity, commitInterval_ms);
+      }
       nanotime_start = System.nanoTime();
       utime_start = System.currentTimeMillis() * 1000;
     } else {
-      log = new Log(logPath, "r");
+      log = LogReaders.open(logPath);
+      if (!replay.equals(Replay.REALTIME))
+        lcm.setClock(() -> replayUtime);
       reader = new ReaderThread();
       reader.start();
     }
@@ -40,24 +122,39 @@ public class LogFileProvider implements Provider {
   private boolean publishWarned = false;
 
   @Override
-  public synchronized void publish(String channel, byte data[], int offset, int length) {
+  public void publish(String channel, byte data[], int offset, int length) {
     if (!writemode) {
       if (publishWarned)
         return;
       System.err.println("LogFileProvider opened in read mode, no publishing allowed.");
       publishWarned = true;
+      return;
     }
-    Log.Event event = new Log.Event();
-    event.utime = utime_start + (System.nanoTime() - nanotime_start) / 1000;
-    event.eventNumber = 0;
-    event.data = new byte[length];
-    System.arraycopy(data, offset, event.data, 0, length);
-    event.channel = channel;
-    try {
-      log.write(event);
-    } catch (IOException ex) {
-      System.err.println("ex: " + ex);
-    }
+    long utime = utime_start + (System.nanoTime() - nanotime_start) / 1000;
+    asyncLogWriter.write(utime, channel, data, offset, length);
+  }
+
+  /** @return scheduler that paces the replay in read mode */
+  public ReplayScheduler getReplayScheduler() {
+    return replayScheduler;
+  }
+
+  /** @param speed of replay, the change takes effect without a jump in time,
+   * <=0 for "as fast as possible" */
+  public void setSpeed(double speed) {
+    replayScheduler.setSpeed(speed);
+  }
+
+  /** blocks until all events of the log are dispatched in read mode
+   *
+   * @throws InterruptedException */
+  public void awaitEnd() throws InterruptedException {
+    finished.await();
+  }
+
+  /** @return writer of the log file in write mode, or null in read mode */
+  public AsyncLogWriter getAsyncLogWriter() {
+    return asyncLogWriter;
   }
 
   @Override
@@ -82,7 +179,10 @@ public class LogFileProvider implements Provider {
     }
     reader = null;
     try {
-      log.close();
+      if (writemode)
+        asyncLogWriter.close();
+      else
+        log.close();
     } catch (IOException ex) {
       // ---
     }
@@ -100,8 +200,12 @@ public class LogFileProvider implements Provider {
         runEx();
       } catch (InterruptedException ex) {
         // ---
+      } catch (EOFException ex) {
+        // end of log
       } catch (IOException ex) {
         ex.printStackTrace();
+      } finally {
+        finished.countDown();
       }
     }
 
@@ -110,41 +214,38 @@ public class LogFileProvider implements Provider {
       while (lcm.getNumSubscriptions() == 0)
         Thread.sleep(10);
       Thread.sleep((int) (delay * 1000));
-      long lastLocalUtime = System.nanoTime() / 1000;
-      long lastEventUtime = -1;
-      double delayAccumulator = 0; // how long do we need to delay in real time?
-      double verboseAccumulator = 0;
+      long verboseLastNanos = System.nanoTime();
       long verboseLastEventUtime = -1;
+      // reused for every event, the payload is copied by asynchronous subscribers
+      Log.Event ev = new Log.Event();
       while (true) {
-        Log.Event ev = log.readNext();
-        // how much time elapsed when the log was recorded?
-        // we have to wait some fraction of the time...
-        if (lastEventUtime > 0) {
-          double dt = (ev.utime - lastEventUtime) / 1000000.0;
-          if (dt > 0 && speed > 0)
-            delayAccumulator += dt / speed;
+        ev = log.readNext(ev);
+        switch (replay) {
+        case REALTIME:
+          // wait until the deadline of the event
+          replayScheduler.await(ev.utime);
+          break;
+        case FLOW:
+          lcm.awaitCapacity(ev.channel);
+          break;
+        default:
+          break;
         }
-        lastEventUtime = ev.utime;
-        // subtract any clock time that has elapsed.
-        long localUtime = System.nanoTime() / 1000;
-        double dt = (localUtime - lastLocalUtime) / 1000000.0;
-        lastLocalUtime = localUtime;
-        delayAccumulator -= dt;
-        verboseAccumulator += dt;
+        replayUtime = ev.utime;
         // spit out some info at 1Hz
-        if (verboseAccumulator > 1.0 && verbose) {
-          double eventDt = (lastEventUtime - verboseLastEventUtime) / 1000000.0;
-          verboseLastEventUtime = lastEventUtime;
-          System.err.printf("LogFile: rate = %8.3f, position = %8.3f %%\n", eventDt / verboseAccumulator, log.getPositionFraction() * 100.0);
-          verboseAccumulator = 0;
-        }
-        // sleep if necessary.
-        if (delayAccumulator > 0.001) {
-          int ms = (int) (delayAccumulator * 1000);
-          Thread.sleep(ms);
+        long nanos = System.nanoTime();
+        if (verbose && nanos - verboseLastNanos > 1_000_000_000L) {
+          if (0 <= verboseLastEventUtime)
+            System.err.printf("LogFile: rate = %8.3f, position = %8.3f %%, lateness p50 = %d us, p99 = %d us\n", //
+                (ev.utime - verboseLastEventUtime) * 1e3 / (nanos - verboseLastNanos), log.getPositionFraction() * 100.0, //
+                replayScheduler.getLatenessQuantile_us(0.5), replayScheduler.getLatenessQuantile_us(0.99));
+          verboseLastNanos = nanos;
+          verboseLastEventUtime = ev.utime;
         }
         // dispatch the message
-        lcm.receiveMessage(ev.channel, ev.data, 0, ev.data.length);
+        lcm.receiveMessage(ev.channel, ev.data, 0, ev.getLength());
+        if (replay.equals(Replay.LOCKSTEP))
+          lcm.awaitDelivery();
       }
     }
   }
@@ -0,0 +1,325 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/** LCM provider for the shm: URL, for instance shm://planner?size=64M
+ *
+ * Messages are exchanged between the processes on the same host through a
+ * ring buffer in a memory mapped file. The file is located in /dev/shm if
+ * available, otherwise in the directory for temporary files. Every message
+ * is framed like a datagram of the udpm: protocol that carries a message
+ * without fragmentation.
+ *
+ * Publishers of all processes are serialized by a lock on the file. A lock on
+ * a file is held on behalf of the entire process, and the attempt to acquire
+ * an overlapping lock within the same process fails. Therefore, publishers
+ * within a process, also those of different LCM instances, are serialized by
+ * a monitor per file before acquiring the lock on the file. A publisher first
+ * advances the claim cursor, then writes the record, and finally advances
+ * the write cursor. Readers never block publishers: each reader keeps its own
+ * position, and after copying a record checks the claim cursor to detect
+ * whether the record was overwritten in the meantime. Messages that were
+ * overwritten before they were read are lost, as with udpm:.
+ *
+ * The reader thread spins, then yields, then parks for increasing durations
+ * while no message is available.
+ *
+ * URL options:
+ * <ul>
+ * <li>size: capacity of ring buffer, for instance 65536, 512K, or 64M. The
+ * option only applies to the process that creates the file.
+ * <li>parkmax: maximum duration in microseconds that an idle reader parks
+ * </ul> */
+public class SharedMemoryProvider implements Provider {
+  static final int MAGIC_SHM = 0x4c435348; // ascii of "LCSH"
+  private static final int VERSION = 1;
+  private static final long DEFAULT_SIZE = 16L << 20;
+  private static final int DEFAULT_PARK_MAX_US = 1000;
+  private static final int SPINS = 1000;
+  private static final int YIELDS = 100;
+  /** record that pads the ring up to its end */
+  private static final int PADDING = -1;
+  // layout of header
+  private static final int OFFSET_MAGIC = 0;
+  private static final int OFFSET_VERSION = 4;
+  private static final int OFFSET_CAPACITY = 8;
+  private static final int OFFSET_CLAIM = 16;
+  private static final int OFFSET_WRITE = 24;
+  private static final int OFFSET_SEQUENCE = 32;
+  private static final int HEADER_SIZE = 64;
+  /** monitor per canonical path of file, shared by all providers of the
+   * process */
+  private static final Map<String, Object> MONITORS = new ConcurrentHashMap<>();
+
+  /** @param length
+   * @return length rounded up to a multiple of 8 so that the length fields of
+   * records are aligned */
+  private static int align(int length) {
+    return (length + 7) & ~7;
+  }
+
+  // ---
+  private final UDPMulticastReceiver udpMulticastReceiver;
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel fileChannel;
+  /** guards the lock on the file within the process */
+  private final Object monitor;
+  private final MappedByteBuffer mappedByteBuffer;
+  /** view of mappedByteBuffer used by publishers, guarded by monitor */
+  private final ByteBuffer writeBuffer;
+  private final long capacity;
+  private final long parkMaxNanos;
+  private ReaderThread readerThread;
+  /** Java 8 does not provide fences, instead a volatile write after and a
+   * volatile read before accessing the mapped buffer order the access to the
+   * cursors and the records */
+  private volatile int fence;
+  /** only modified by the reader thread */
+  private volatile long overrunCount = 0;
+
+  public SharedMemoryProvider(LCM lcm, URLParser up) throws IOException {
+    udpMulticastReceiver = new UDPMulticastReceiver(lcm, up);
+    File directory = new File("/dev/shm");
+    if (!directory.isDirectory())
+      directory = new File(System.getProperty("java.io.tmpdir"));
+    file = new File(directory, "lcm-" + up.get("network", "default"));
+    long size = up.getSize("size", DEFAULT_SIZE) & ~7L;
+    if (size < 1024 || Integer.MAX_VALUE - HEADER_SIZE < size)
+      throw new IllegalArgumentException("size=" + size);
+    parkMaxNanos = up.get("parkmax", DEFAULT_PARK_MAX_US) * 1_000L;
+    monitor = MONITORS.computeIfAbsent(file.getCanonicalPath(), key -> new Object());
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    fileChannel = randomAccessFile.getChannel();
+    synchronized (monitor) {
+      FileLock fileLock = fileChannel.lock();
+      try {
+        if (randomAccessFile.length() < HEADER_SIZE || readInt(OFFSET_MAGIC) != MAGIC_SHM) {
+          // the file is new or was not initialized
+          randomAccessFile.setLength(0);
+          randomAccessFile.setLength(HEADER_SIZE + size);
+          ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+          header.putInt(OFFSET_MAGIC, MAGIC_SHM);
+          header.putInt(OFFSET_VERSION, VERSION);
+          header.putLong(OFFSET_CAPACITY, size);
+          fileChannel.write(header, 0);
+        } else //
+        if (readInt(OFFSET_VERSION) != VERSION) {
+          close();
+          throw new IOException("LCM: version mismatch of " + file);
+        }
+        capacity = readLong(OFFSET_CAPACITY);
+      } finally {
+        // closing the channel already released the lock
+        if (fileLock.isValid())
+          fileLock.release();
+      }
+    }
+    if (capacity != size)
+      System.err.println("LCM: " + file + " has existing capacity " + capacity);
+    mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+    writeBuffer = mappedByteBuffer.duplicate();
+  }
+
+  /** orders the preceding writes to the mapped buffer before the subsequent
+   * writes */
+  private void release() {
+    fence = 0;
+  }
+
+  /** orders the preceding reads from the mapped buffer before the subsequent
+   * reads
+   * 
+   * @return value that is not used */
+  private int acquire() {
+    return fence;
+  }
+
+  private int readInt(int position) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+    fileChannel.read(byteBuffer, position);
+    return byteBuffer.getInt(0);
+  }
+
+  private long readLong(int position) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(8);
+    fileChannel.read(byteBuffer, position);
+    return byteBuffer.getLong(0);
+  }
+
+  @Override
+  public void publish(String channel, byte data[], int offset, int length) {
+    int channel_length = channel.length();
+    // length field, magic, sequence number, channel, zero, and payload
+    int frame_size = 8 + channel_length + 1 + length;
+    int record_size = align(4 + frame_size);
+    if (capacity / 2 < record_size) {
+      System.err.println("LCM: message too large for " + file);
+      return;
+    }
+    try {
+      synchronized (monitor) {
+        FileLock fileLock = fileChannel.lock(0, HEADER_SIZE, false);
+        try {
+          long write = mappedByteBuffer.getLong(OFFSET_WRITE);
+          int physical = (int) (write % capacity);
+          long claim = write + record_size;
+          if (capacity < physical + record_size) // record does not fit until end
+            claim += capacity - physical;
+          mappedByteBuffer.putLong(OFFSET_CLAIM, claim);
+          release();
+          if (capacity < physical + record_size) {
+            mappedByteBuffer.putInt(HEADER_SIZE + physical, PADDING);
+            physical = 0;
+          }
+          int sequence = mappedByteBuffer.getInt(OFFSET_SEQUENCE);
+          mappedByteBuffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+          writeBuffer.clear();
+          writeBuffer.position(HEADER_SIZE + physical);
+          writeBuffer.putInt(frame_size);
+          writeBuffer.putInt(UDPMulticastProvider.MAGIC_SHORT);
+          writeBuffer.putInt(sequence);
+          for (int index = 0; index < channel_length; ++index)
+            writeBuffer.put((byte) channel.charAt(index));
+          writeBuffer.put((byte) 0);
+          writeBuffer.put(data, offset, length);
+          release();
+          mappedByteBuffer.putLong(OFFSET_WRITE, claim);
+        } finally {
+          fileLock.release();
+        }
+      }
+    } catch (Exception ex) {
+      System.err.println("ex: " + ex);
+    }
+  }
+
+  @Override
+  public synchronized void subscribe(String channel) {
+    if (Objects.isNull(readerThread)) {
+      // only messages published after the first subscription are received
+      readerThread = new ReaderThread(mappedByteBuffer.getLong(OFFSET_WRITE));
+      readerThread.start();
+    }
+  }
+
+  @Override
+  public void unsubscribe(String channel) {
+    // deliberately empty
+  }
+
+  @Override
+  public synchronized void close() {
+    if (Objects.nonNull(readerThread)) {
+      readerThread.interrupt();
+      try {
+        readerThread.join();
+      } catch (InterruptedException ex) {
+        // ---
+      }
+    }
+    readerThread = null;
+    try {
+      randomAccessFile.close();
+    } catch (IOException ex) {
+      // ---
+    }
+  }
+
+  /** @return number of times the reader was overtaken by publishers and lost
+   * messages */
+  public long getOverrunCount() {
+    return overrunCount;
+  }
+
+  class ReaderThread extends Thread {
+    private final ByteBuffer readBuffer = mappedByteBuffer.duplicate();
+    private byte[] bytes = new byte[65536];
+    private long position;
+    private int idle = 0;
+
+    ReaderThread(long position) {
+      this.position = position;
+      setDaemon(true);
+      setName("LCM-SHM");
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted())
+        if (!poll())
+          idle();
+    }
+
+    /** @return true if a record was read */
+    private boolean poll() {
+      long write = mappedByteBuffer.getLong(OFFSET_WRITE);
+      acquire();
+      if (write == position)
+        return false;
+      idle = 0;
+      if (capacity < write - position) {
+        overrun(write);
+        return true;
+      }
+      int physical = (int) (position % capacity);
+      int frame_size = mappedByteBuffer.getInt(HEADER_SIZE + physical);
+      if (frame_size == PADDING) {
+        if (isOverwritten())
+          overrun(write);
+        else
+          position += capacity - physical;
+        return true;
+      }
+      if (frame_size < 0 || capacity - physical - 4 < frame_size) {
+        overrun(write);
+        return true;
+      }
+      if (bytes.length < frame_size)
+        bytes = new byte[frame_size];
+      readBuffer.clear();
+      readBuffer.position(HEADER_SIZE + physical + 4);
+      readBuffer.get(bytes, 0, frame_size);
+      if (isOverwritten()) {
+        overrun(write);
+        return true;
+      }
+      position += align(4 + frame_size);
+      udpMulticastReceiver.handlePacket(bytes, 0, frame_size, null);
+      return true;
+    }
+
+    /** @return true if the record at the position of the reader may have been
+     * overwritten by a publisher while being read */
+    private boolean isOverwritten() {
+      acquire();
+      return capacity < mappedByteBuffer.getLong(OFFSET_CLAIM) - position;
+    }
+
+    private void overrun(long write) {
+      ++overrunCount;
+      position = write;
+    }
+
+    private void idle() {
+      ++idle;
+      if (idle < SPINS)
+        return;
+      if (idle < SPINS + YIELDS)
+        Thread.yield();
+      else
+        LockSupport.parkNanos(Math.min(parkMaxNanos, 1_000L << Math.min(20, idle - SPINS - YIELDS)));
+    }
+  }
+}
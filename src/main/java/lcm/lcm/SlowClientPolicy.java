@@ -0,0 +1,14 @@
+// code by jph
+package lcm.lcm;
+
+/** policy of the {@link TCPService} hub when the queue of messages that await
+ * transmission to a client is full, because the client does not read fast
+ * enough. In either case, the other clients are not affected. */
+public enum SlowClientPolicy {
+  /** the connection to the client is closed. The client reconnects and
+   * subscribes again, messages in between are lost. */
+  DISCONNECT,
+  /** the message that does not fit into the queue is discarded */
+  DROP,
+  ;
+}
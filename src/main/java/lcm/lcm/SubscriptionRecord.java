@@ -1,7 +1,10 @@
 // code adapted by jph
 package lcm.lcm;
 
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import lcm.util.SubscriptionIndex;
 
 /** the application layer obtains an instance of {@link SubscriptionRecord}
  * when subscribing.
@@ -10,15 +13,74 @@ import java.util.regex.Pattern;
 public class SubscriptionRecord {
   final String regex;
   final LCMSubscriber lcsub;
-  private final Pattern pat;
+  private final Predicate<String> predicate;
+  /** stream is reset and reused for every delivery */
+  private final LCMDataInputStream ins = new LCMDataInputStream(new byte[0]);
+  private final AtomicBoolean insInUse = new AtomicBoolean();
 
   public SubscriptionRecord(String regex, LCMSubscriber lcsub) {
     this.regex = regex;
     this.lcsub = lcsub;
-    pat = Pattern.compile(regex);
+    predicate = SubscriptionIndex.predicate(regex);
   }
 
   boolean matches(String channel) {
-    return pat.matcher(channel).matches();
+    return predicate.test(channel);
+  }
+
+  /** passes message to subscriber
+   * 
+   * @param lcm
+   * @param channel
+   * @param data
+   * @param offset
+   * @param length */
+  void deliver(LCM lcm, String channel, byte data[], int offset, int length) {
+    if (insInUse.compareAndSet(false, true))
+      try {
+        ins.reset(data, offset, length);
+        lcsub.messageReceived(lcm, channel, ins);
+      } finally {
+        insInUse.set(false);
+      }
+    else // concurrent delivery by several providers, or reentrant delivery
+      lcsub.messageReceived(lcm, channel, new LCMDataInputStream(data, offset, length));
+  }
+
+  /** @return number of messages that await delivery to the subscriber, always
+   * 0 for a synchronous subscription */
+  public int getQueueDepth() {
+    return lcsub instanceof AsyncDelivery //
+        ? ((AsyncDelivery) lcsub).queueDepth()
+        : 0;
+  }
+
+  /** @return number of messages that were discarded according to the
+   * {@link DeliveryPolicy}, always 0 for a synchronous subscription */
+  public long getDropCount() {
+    return lcsub instanceof AsyncDelivery //
+        ? ((AsyncDelivery) lcsub).dropCount()
+        : 0;
+  }
+
+  /** blocks until an asynchronous subscriber has processed all queued
+   * messages, returns immediately for a synchronous subscription */
+  void awaitIdle() throws InterruptedException {
+    if (lcsub instanceof AsyncDelivery)
+      ((AsyncDelivery) lcsub).awaitIdle();
+  }
+
+  /** blocks until the queue of an asynchronous subscription accepts a message
+   * on the given channel without loss, returns immediately for a synchronous
+   * subscription */
+  void awaitCapacity(String channel) throws InterruptedException {
+    if (lcsub instanceof AsyncDelivery)
+      ((AsyncDelivery) lcsub).awaitCapacity(channel);
+  }
+
+  /** terminates the worker thread of an asynchronous subscription */
+  void close() {
+    if (lcsub instanceof AsyncDelivery)
+      ((AsyncDelivery) lcsub).close();
   }
-}
\ No newline at end of file
+}
@@ -2,12 +2,10 @@
 package lcm.lcm;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.HashSet;
@@ -20,7 +18,17 @@ import java.util.Set;
  * The tcpq:// protocol is NOT suitable for real-time or high-bandwidth traffic.
  * It is specifically designed for playing back a log file in a post-processing
  * context (i.e., play back the log as fast as possible, but without dropping
- * anything). **/
+ * anything).
+ *
+ * Messages are encoded into a bounded buffer and written to the hub in
+ * batches by a {@link BatchWriter}. URL options:
+ * <ul>
+ * <li>txbuf: capacity of the buffer in bytes, publishers wait while the
+ * buffer is full
+ * <li>batch: number of bytes that trigger a write
+ * <li>latency: maximum time in microseconds that a message waits for more
+ * messages to fill a batch, 0 by default
+ * </ul> **/
 public class TCPProvider implements Provider {
   public static final int DEFAULT_PORT = 7700;
   public static final String DEFAULT_NETWORK = "127.0.0.1:7700";
@@ -38,6 +46,7 @@ public class TCPProvider implements Provider {
   private int inetPort;
   private TCPThread tcp;
   private final Set<String> subscriptions = new HashSet<>();
+  private final BatchWriter batchWriter;
 
   public TCPProvider(LCM lcm, URLParser up) throws IOException {
     this.lcm = lcm;
@@ -52,30 +61,26 @@ public class TCPProvider implements Provider {
       System.err.println("TCPProvider: Don't know how to parse " + up.get("network", DEFAULT_NETWORK));
       throw new RuntimeException();
     }
+    batchWriter = new BatchWriter( //
+        up.get("txbuf", BatchWriter.DEFAULT_CAPACITY), //
+        up.get("batch", BatchWriter.DEFAULT_BATCH), //
+        up.get("latency", 0));
     tcp = new TCPThread();
     tcp.start();
   }
 
-  /** Publish a message synchronously. However, if the server is not available,
-   * it will return immediately. **/
+  /** Publish a message asynchronously. The message is queued for the writer
+   * thread, the function blocks while the queue is full. However, if the
+   * server is not available, it will return immediately. **/
   @Override
-  public synchronized void publish(String channel, byte data[], int offset, int length) {
+  public void publish(String channel, byte data[], int offset, int length) {
     try {
-      publishEx(channel, data, offset, length);
+      batchWriter.append(MESSAGE_TYPE_PUBLISH, channel, data, offset, length);
     } catch (Exception ex) {
       System.err.println("TCPProvider ex: " + ex);
     }
   }
 
-  byte[] stringToBytes(String s) {
-    try {
-      return s.getBytes("US-ASCII");
-    } catch (UnsupportedEncodingException ex) {
-      System.err.println("lcm.TCPProvider: Bad channel name" + s);
-      throw new RuntimeException("Don't know how to recover from this");
-    }
-  }
-
   /* private void sockWriteAndFlush(byte[] b) { // try to send message on
    * socket. If the socket is not // connected, we'll simply fail. The
    * tcpthread is // responsible for maintaining a connection to the hub.
@@ -103,6 +108,7 @@ public class TCPProvider implements Provider {
       } catch (InterruptedException ex) {
         // ---
       }
+      batchWriter.close();
     }
     tcp = null;
   }
@@ -115,64 +121,32 @@ public class TCPProvider implements Provider {
     }
   }
 
-  void publishEx(String channel, byte data[], int offset, int length) throws Exception {
-    byte[] channel_bytes = stringToBytes(channel);
-    // int payload_size = channel_bytes.length + length; // jph comment line because unused
-    ByteArrayOutputStream bouts = new ByteArrayOutputStream(length + channel.length() + 32);
-    DataOutputStream outs = new DataOutputStream(bouts);
-    outs.writeInt(MESSAGE_TYPE_PUBLISH);
-    outs.writeInt(channel_bytes.length);
-    outs.write(channel_bytes, 0, channel_bytes.length);
-    outs.writeInt(length);
-    outs.write(data, offset, length);
-    tcp.write(bouts.toByteArray());
-  }
-
   // synchronize on writes and to changes in subscription state.
   class TCPThread extends Thread {
     Socket sock;
     DataInputStream ins;
     OutputStream outs;
-    boolean exit = false;
+    volatile boolean exit = false;
     int serverVersion;
 
     TCPThread() {
     }
 
-    synchronized void write(byte b[]) throws IOException {
-      // if our connection is dead or not yet up, we just drop
-      // this message. (subscribes will be setup again when the
-      // connection comes back up).
-      if (outs == null)
-        return;
-      outs.write(b);
-      outs.flush();
-    }
-
-    synchronized void sendSubscribe(String channel) {
-      byte channel_bytes[] = stringToBytes(channel);
+    // if our connection is dead or not yet up, the batch writer drops
+    // the message. (subscribes will be setup again when the
+    // connection comes back up).
+    void sendSubscribe(String channel) {
       try {
-        ByteArrayOutputStream bouts = new ByteArrayOutputStream(channel.length() + 8);
-        DataOutputStream outs = new DataOutputStream(bouts);
-        outs.writeInt(MESSAGE_TYPE_SUBSCRIBE);
-        outs.writeInt(channel_bytes.length);
-        outs.write(channel_bytes, 0, channel_bytes.length);
-        write(bouts.toByteArray());
-      } catch (IOException ex) {
+        batchWriter.append(MESSAGE_TYPE_SUBSCRIBE, channel, null, 0, 0);
+      } catch (InterruptedException ex) {
         System.out.println("ex: " + ex);
       }
     }
 
-    synchronized void sendUnsubscribe(String channel) {
-      byte channel_bytes[] = stringToBytes(channel);
+    void sendUnsubscribe(String channel) {
       try {
-        ByteArrayOutputStream bouts = new ByteArrayOutputStream(channel.length() + 8);
-        DataOutputStream outs = new DataOutputStream(bouts);
-        outs.writeInt(MESSAGE_TYPE_UNSUBSCRIBE);
-        outs.writeInt(channel_bytes.length);
-        outs.write(channel_bytes, 0, channel_bytes.length);
-        write(bouts.toByteArray());
-      } catch (IOException ex) {
+        batchWriter.append(MESSAGE_TYPE_UNSUBSCRIBE, channel, null, 0, 0);
+      } catch (InterruptedException ex) {
         // ---
       }
     }
@@ -198,6 +172,7 @@ public class TCPProvider implements Provider {
               continue;
             }
             serverVersion = ins.readInt();
+            batchWriter.connect(outs);
           } catch (IOException ex) {
             System.err.println("lcm.TCPProvider: Unable to connect to " + inetAddr + ":" + inetPort);
             safeSleep(500);
@@ -225,17 +200,20 @@ public class TCPProvider implements Provider {
           }
         } catch (IOException ex) {
           // exit read loop so we'll create a new connection.
+          batchWriter.disconnect();
         }
       }
     }
 
     void close() {
+      // exit is set before the socket is closed, otherwise the thread may
+      // reconnect and block in the read loop
+      exit = true;
       try {
         sock.close();
       } catch (IOException ex) {
         // ---
       }
-      exit = true;
     }
 
     OutputStream getOutputStream() {
@@ -1,33 +1,72 @@
 // code by lcm
 package lcm.lcm;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-// TODO class does not have a conventional close/stop function!
+import lcm.util.ChannelNameCache;
+import lcm.util.SubscriptionIndex;
+
+/** hub of the tcpq: protocol that relays the messages published by a client
+ * to all clients with a matching subscription, see {@link TCPProvider}.
+ *
+ * The hub runs on one or several event loops, each with a {@link Selector}.
+ * Every client is served by one loop. Messages to a client are queued and
+ * sent with gathering writes, so that all messages that were queued in the
+ * meantime are sent by a single system call. The queue of each client is
+ * bounded, and a client that does not keep up is treated according to the
+ * {@link SlowClientPolicy}. Publishers and other clients never wait for a
+ * slow client. A message is always accepted into an empty queue, so that a
+ * message larger than the capacity of the queue is still relayed.
+ *
+ * A client that sends a message with a channel longer than
+ * {@link #MAX_CHANNEL_LENGTH} or a payload larger than
+ * {@link #MAX_DATA_LENGTH} is disconnected. */
 public class TCPService {
-  private final ServerSocket serverSocket;
-  private final AcceptThread acceptThread;
-  private final List<ClientThread> clients = new ArrayList<>();
-  private final ReadWriteLock clients_lock = new ReentrantReadWriteLock();
-  private int bytesCount = 0;
+  public static final int DEFAULT_QUEUE_CAPACITY = 4 << 20;
+  private static final int READ_BUFFER_SIZE = 65536;
+  /** maximum number of buffers per gathering write */
+  private static final int GATHER = 64;
+  private static final int HEADER_SIZE = 8;
+  /** maximum length of channel names and subscription patterns */
+  public static final int MAX_CHANNEL_LENGTH = 255;
+  /** maximum length of the payload of a message */
+  public static final int MAX_DATA_LENGTH = 64 << 20;
 
-  public TCPService(int port) throws IOException {
-    serverSocket = new ServerSocket(port);
-    // sock.setReuseAddress(true);
-    // sock.setLoopbackMode(false); // true *disables* loopback
-    acceptThread = new AcceptThread();
-    acceptThread.start();
+  /** prints throughput statistics every second until interrupted
+   *
+   * @param args with optional port */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 //
+        ? Integer.parseInt(args[0])
+        : TCPProvider.DEFAULT_PORT;
+    TCPService tcpService = new TCPService(port);
     long inittime = System.currentTimeMillis();
     long starttime = System.currentTimeMillis();
+    long bytesCount = 0;
     while (!Thread.interrupted()) {
       try {
         Thread.sleep(1000);
@@ -37,170 +76,473 @@ public class TCPService {
       long endtime = System.currentTimeMillis();
       double dt = (endtime - starttime) / 1000.0;
       starttime = endtime;
-      System.out.printf("%10.3f : %10.1f kB/s, %d clients\n", (endtime - inittime) / 1000.0, bytesCount / 1024.0 / dt, clients.size());
-      bytesCount = 0;
+      long bytes = tcpService.getBytesCount() - bytesCount;
+      bytesCount += bytes;
+      System.out.printf("%10.3f : %10.1f kB/s, %d clients\n", (endtime - inittime) / 1000.0, bytes / 1024.0 / dt, tcpService.getClientCount());
     }
     // interrupt signal received
-    closeResources();
+    tcpService.close();
+  }
+
+  // ---
+  private final ServerSocketChannel serverSocketChannel;
+  private final Loop[] loops;
+  private final int queueCapacity;
+  private final SlowClientPolicy slowClientPolicy;
+  private final List<Client> clients = new CopyOnWriteArrayList<>();
+  /** only accessed by the thread of the first loop */
+  private int nextLoop = 0;
+  private final AtomicLong bytesCount = new AtomicLong();
+  private final AtomicLong dropCount = new AtomicLong();
+  private final AtomicLong disconnectCount = new AtomicLong();
+  /** guards subscriptionIndex and modifications of clientsMap */
+  private final Object subscriptionsLock = new Object();
+  /** subscriptions of all clients */
+  private final SubscriptionIndex<Client> subscriptionIndex = new SubscriptionIndex<>();
+  /** immutable snapshot of channel to subscribed clients, replaced on every
+   * change */
+  private volatile Map<String, List<Client>> clientsMap = Collections.emptyMap();
+
+  /** hub with a single event loop, and slow clients are disconnected
+   *
+   * @param port
+   * @throws IOException */
+  public TCPService(int port) throws IOException {
+    this(port, 1, DEFAULT_QUEUE_CAPACITY, SlowClientPolicy.DISCONNECT);
   }
 
-  private void closeResources() throws IOException {
-    acceptThread.interrupt();
-    serverSocket.close();
-    synchronized (clients) {
-      for (ClientThread clientThread : clients) {
-        clientThread.closeResources();
+  /** @param port
+   * @param threads number of event loops
+   * @param queueCapacity maximum number of bytes queued per client
+   * @param slowClientPolicy when the queue of a client is full
+   * @throws IOException */
+  public TCPService(int port, int threads, int queueCapacity, SlowClientPolicy slowClientPolicy) throws IOException {
+    if (threads <= 0 || queueCapacity <= 0)
+      throw new IllegalArgumentException("threads=" + threads + " queueCapacity=" + queueCapacity);
+    this.queueCapacity = queueCapacity;
+    this.slowClientPolicy = Objects.requireNonNull(slowClientPolicy);
+    serverSocketChannel = ServerSocketChannel.open();
+    serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    serverSocketChannel.bind(new InetSocketAddress(port));
+    serverSocketChannel.configureBlocking(false);
+    loops = new Loop[threads];
+    for (int index = 0; index < threads; ++index)
+      loops[index] = new Loop(index);
+    serverSocketChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    for (Loop loop : loops)
+      loop.start();
+  }
+
+  /** closes all connections and terminates the event loops */
+  public void close() {
+    for (Loop loop : loops) {
+      loop.interrupt();
+      loop.selector.wakeup();
+    }
+    for (Loop loop : loops)
+      try {
+        loop.join();
+      } catch (InterruptedException ex) {
+        // ---
       }
+    try {
+      serverSocketChannel.close();
+    } catch (IOException ex) {
+      // ---
     }
+    for (Client client : clients)
+      client.close();
+    for (Loop loop : loops)
+      try {
+        loop.selector.close();
+      } catch (IOException ex) {
+        // ---
+      }
   }
 
+  /** sends a message to all subscribed clients
+   *
+   * @param channel
+   * @param data */
   public void relay(byte channel[], byte data[]) {
-    // synchronously send to all clients.
-    String chanstr = new String(channel);
-    try {
-      clients_lock.readLock().lock();
-      for (ClientThread client : clients) {
-        client.send(chanstr, channel, data);
+    ByteBuffer frame = ByteBuffer.allocate(12 + channel.length + data.length);
+    frame.putInt(TCPProvider.MESSAGE_TYPE_PUBLISH);
+    frame.putInt(channel.length);
+    frame.put(channel);
+    frame.putInt(data.length);
+    frame.put(data);
+    frame.flip();
+    relay(new String(channel, StandardCharsets.US_ASCII), frame);
+  }
+
+  /** @param channel
+   * @param frame encoded publish message that is not modified afterwards */
+  private void relay(String channel, ByteBuffer frame) {
+    List<Client> list = clientsMap.get(channel);
+    if (list == null)
+      list = addChannel(channel);
+    for (Client client : list)
+      client.enqueue(frame);
+  }
+
+  /** @param channel not seen before
+   * @return unmodifiable list of clients subscribed to given channel, each
+   * client is listed once */
+  private List<Client> addChannel(String channel) {
+    synchronized (subscriptionsLock) {
+      List<Client> list = clientsMap.get(channel);
+      if (list != null) // another thread has added the channel in the meantime
+        return list;
+      list = Collections.unmodifiableList( //
+          subscriptionIndex.match(channel).stream().distinct().collect(Collectors.toList()));
+      Map<String, List<Client>> map = new HashMap<>(clientsMap);
+      map.put(channel, list);
+      clientsMap = map;
+      return list;
+    }
+  }
+
+  private void subscribe(Client client, String regex) {
+    Predicate<String> predicate = SubscriptionIndex.predicate(regex);
+    synchronized (subscriptionsLock) {
+      subscriptionIndex.add(regex, client);
+      Map<String, List<Client>> map = new HashMap<>(clientsMap);
+      for (Map.Entry<String, List<Client>> entry : map.entrySet())
+        if (!entry.getValue().contains(client) && predicate.test(entry.getKey())) {
+          List<Client> list = new ArrayList<>(entry.getValue());
+          list.add(client);
+          entry.setValue(Collections.unmodifiableList(list));
+        }
+      clientsMap = map;
+    }
+  }
+
+  private void unsubscribe(Client client, String regex) {
+    synchronized (subscriptionsLock) {
+      if (subscriptionIndex.remove(regex, client)) {
+        // the client may still be subscribed to the channels by another regex,
+        // therefore the affected channels are matched again when next relayed
+        Map<String, List<Client>> map = new HashMap<>(clientsMap);
+        map.values().removeIf(list -> list.contains(client));
+        clientsMap = map;
       }
-    } finally {
-      clients_lock.readLock().unlock();
     }
   }
 
-  class AcceptThread extends Thread {
-    @Override
-    public void run() {
-      while (!Thread.interrupted()) {
-        try {
-          Socket clientSock = serverSocket.accept();
-          ClientThread client = new ClientThread(clientSock);
-          client.start();
-          try {
-            clients_lock.writeLock().lock();
-            clients.add(client);
-          } finally {
-            clients_lock.writeLock().unlock();
+  private void unsubscribeAll(Client client) {
+    synchronized (subscriptionsLock) {
+      if (0 < subscriptionIndex.removeAll(client)) {
+        Map<String, List<Client>> map = new HashMap<>(clientsMap);
+        for (Map.Entry<String, List<Client>> entry : map.entrySet())
+          if (entry.getValue().contains(client)) {
+            List<Client> list = new ArrayList<>(entry.getValue());
+            list.remove(client);
+            entry.setValue(Collections.unmodifiableList(list));
           }
-        } catch (IOException ex) {
-          // ---
-        }
+        clientsMap = map;
       }
     }
   }
 
-  class ClientThread extends Thread {
-    Socket socket;
-    DataInputStream dataInputStream;
-    DataOutputStream dataOutputStream;
+  /** @return port on which the hub accepts connections, useful when the hub
+   * was created with port 0 */
+  public int getPort() {
+    return serverSocketChannel.socket().getLocalPort();
+  }
 
-    class SubscriptionRecord {
-      String regex;
-      Pattern pattern;
+  /** @return number of connected clients */
+  public int getClientCount() {
+    return clients.size();
+  }
 
-      SubscriptionRecord(String regex) {
-        this.regex = regex;
-        this.pattern = Pattern.compile(regex);
-      }
-    }
+  /** @return number of bytes of channel names and payloads published by
+   * clients */
+  public long getBytesCount() {
+    return bytesCount.get();
+  }
+
+  /** @return number of messages not sent to a client because its queue was
+   * full, see {@link SlowClientPolicy#DROP} */
+  public long getDropCount() {
+    return dropCount.get();
+  }
+
+  /** @return number of clients disconnected because their queue was full, see
+   * {@link SlowClientPolicy#DISCONNECT} */
+  public long getDisconnectCount() {
+    return disconnectCount.get();
+  }
 
-    private final List<SubscriptionRecord> subscriptions = new ArrayList<>();
-    private final ReadWriteLock subscriptions_lock = new ReentrantReadWriteLock();
+  /** event loop that accepts connections, reads messages from its clients,
+   * and writes the queued messages to its clients */
+  private class Loop extends Thread {
+    final Selector selector;
+    /** tasks submitted by other threads, or by this thread while handling
+     * selected keys */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** channel names of messages read by this loop */
+    private final ChannelNameCache channelNameCache = new ChannelNameCache();
 
-    public ClientThread(Socket socket) throws IOException {
-      this.socket = socket;
-      dataInputStream = new DataInputStream(socket.getInputStream());
-      dataOutputStream = new DataOutputStream(socket.getOutputStream());
-      dataOutputStream.writeInt(TCPProvider.MAGIC_SERVER);
-      dataOutputStream.writeInt(TCPProvider.VERSION);
+    Loop(int index) throws IOException {
+      selector = Selector.open();
+      setDaemon(true);
+      setName("LCM-TCPService-" + index);
+    }
+
+    void execute(Runnable runnable) {
+      tasks.add(runnable);
+      if (Thread.currentThread() != this)
+        selector.wakeup();
     }
 
     @Override
     public void run() {
-      ///////////////////////
-      // read messages until something bad happens.
-      try {
-        while (true) {
-          int type = dataInputStream.readInt();
-          if (type == TCPProvider.MESSAGE_TYPE_PUBLISH) {
-            int channellen = dataInputStream.readInt();
-            byte channel[] = new byte[channellen];
-            dataInputStream.readFully(channel);
-            int datalen = dataInputStream.readInt();
-            byte data[] = new byte[datalen];
-            dataInputStream.readFully(data);
-            TCPService.this.relay(channel, data);
-            bytesCount += channellen + datalen + 8;
-          } else if (type == TCPProvider.MESSAGE_TYPE_SUBSCRIBE) {
-            int channellen = dataInputStream.readInt();
-            byte channel[] = new byte[channellen];
-            dataInputStream.readFully(channel);
-            try {
-              subscriptions_lock.writeLock().lock();
-              subscriptions.add(new SubscriptionRecord(new String(channel)));
-            } finally {
-              subscriptions_lock.writeLock().unlock();
-            }
-          } else if (type == TCPProvider.MESSAGE_TYPE_UNSUBSCRIBE) {
-            int channellen = dataInputStream.readInt();
-            byte channel[] = new byte[channellen];
-            dataInputStream.readFully(channel);
-            String re = new String(channel);
-            try {
-              subscriptions_lock.writeLock().lock();
-              for (int i = 0, n = subscriptions.size(); i < n; i++) {
-                if (subscriptions.get(i).regex.equals(re)) {
-                  subscriptions.remove(i);
-                  break;
-                }
+      while (!isInterrupted()) {
+        try {
+          if (tasks.isEmpty())
+            selector.select();
+          else
+            selector.selectNow();
+          Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+          while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+            if (!selectionKey.isValid())
+              continue;
+            if (selectionKey.isAcceptable())
+              accept();
+            else {
+              Client client = (Client) selectionKey.attachment();
+              try {
+                if (selectionKey.isReadable())
+                  client.read();
+                if (selectionKey.isValid() && selectionKey.isWritable())
+                  client.flush();
+              } catch (RuntimeException ex) {
+                // a single client does not terminate the loop
+                System.err.println("ex: " + ex);
+                client.close();
               }
-            } finally {
-              subscriptions_lock.writeLock().unlock();
             }
           }
+          // messages queued while reading are flushed once per iteration
+          Runnable runnable;
+          while (Objects.nonNull(runnable = tasks.poll()))
+            runnable.run();
+        } catch (IOException ex) {
+          if (!selector.isOpen())
+            return;
+          System.err.println("ex: " + ex);
         }
-      } catch (IOException ex) {
-        // ---
       }
-      ///////////////////////
-      // Something bad happened, close this connection.
+    }
+
+    private void accept() throws IOException {
+      SocketChannel socketChannel = serverSocketChannel.accept();
+      if (Objects.isNull(socketChannel))
+        return;
+      socketChannel.configureBlocking(false);
+      socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      Loop loop = loops[nextLoop];
+      nextLoop = (nextLoop + 1) % loops.length;
+      Client client = new Client(socketChannel, loop);
+      clients.add(client);
+      loop.execute(client::register);
+    }
+  }
+
+  /** connection to a client, the reading is performed by the loop of the
+   * client, messages are queued by the loops of all clients */
+  private class Client {
+    private final SocketChannel socketChannel;
+    private final Loop loop;
+    private SelectionKey selectionKey;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private boolean handshake = false;
+    /** guarded by this */
+    private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+    private int queued = 0;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    Client(SocketChannel socketChannel, Loop loop) {
+      this.socketChannel = socketChannel;
+      this.loop = loop;
+      ByteBuffer byteBuffer = ByteBuffer.allocate(HEADER_SIZE);
+      byteBuffer.putInt(TCPProvider.MAGIC_SERVER);
+      byteBuffer.putInt(TCPProvider.VERSION);
+      byteBuffer.flip();
+      queue.add(byteBuffer);
+      queued = HEADER_SIZE;
+    }
+
+    /** invoked by the loop of the client */
+    void register() {
       try {
-        closeResources();
+        selectionKey = socketChannel.register(loop.selector, SelectionKey.OP_READ, this);
+        flush();
       } catch (IOException ex) {
-        // ---
+        close();
       }
+    }
+
+    /** invoked by the loop of the client */
+    void read() {
       try {
-        clients_lock.writeLock().lock();
-        clients.remove(this);
-      } finally {
-        clients_lock.writeLock().unlock();
+        if (socketChannel.read(readBuffer) < 0) {
+          close();
+          return;
+        }
+      } catch (IOException ex) {
+        close();
+        return;
+      }
+      readBuffer.flip();
+      int required = parse();
+      readBuffer.compact();
+      if (readBuffer.capacity() < required) {
+        // message does not fit into the read buffer
+        ByteBuffer byteBuffer = ByteBuffer.allocate(required);
+        readBuffer.flip();
+        byteBuffer.put(readBuffer);
+        readBuffer = byteBuffer;
       }
     }
 
-    public void closeResources() throws IOException {
-      socket.close();
+    /** handles all complete messages in the read buffer
+     *
+     * @return number of bytes required for the next message */
+    private int parse() {
+      byte[] array = readBuffer.array();
+      while (!closed) {
+        int position = readBuffer.position();
+        int available = readBuffer.remaining();
+        if (available < HEADER_SIZE)
+          return HEADER_SIZE;
+        if (!handshake) {
+          if (readBuffer.getInt(position) != TCPProvider.MAGIC_CLIENT) {
+            close();
+            return 0;
+          }
+          handshake = true;
+          readBuffer.position(position + HEADER_SIZE);
+          continue;
+        }
+        int type = readBuffer.getInt(position);
+        int channellen = readBuffer.getInt(position + 4);
+        if (channellen < 0 || MAX_CHANNEL_LENGTH < channellen) {
+          close();
+          return 0;
+        }
+        int length = HEADER_SIZE + channellen;
+        if (type == TCPProvider.MESSAGE_TYPE_PUBLISH) {
+          if (available < length + 4)
+            return length + 4;
+          int datalen = readBuffer.getInt(position + length);
+          if (datalen < 0 || MAX_DATA_LENGTH < datalen) {
+            close();
+            return 0;
+          }
+          length += 4 + datalen;
+          if (available < length)
+            return length;
+          String channel = loop.channelNameCache.get(array, position + HEADER_SIZE, channellen);
+          ByteBuffer frame = ByteBuffer.allocate(length);
+          frame.put(array, position, length);
+          frame.flip();
+          relay(channel, frame);
+          bytesCount.addAndGet(channellen + datalen + 8);
+        } else {
+          if (available < length)
+            return length;
+          String regex = new String(array, position + HEADER_SIZE, channellen, StandardCharsets.US_ASCII);
+          if (type == TCPProvider.MESSAGE_TYPE_SUBSCRIBE)
+            subscribe(this, regex);
+          else //
+          if (type == TCPProvider.MESSAGE_TYPE_UNSUBSCRIBE)
+            unsubscribe(this, regex);
+        }
+        readBuffer.position(position + length);
+      }
+      return 0;
     }
 
-    public void send(String chanstr, byte channel[], byte data[]) {
+    /** invoked by the loop of any client
+     *
+     * @param frame */
+    synchronized void enqueue(ByteBuffer frame) {
+      if (closed)
+        return;
+      // the policy only applies to a backlog
+      if (0 < queued && queueCapacity < queued + frame.remaining()) {
+        switch (slowClientPolicy) {
+        case DROP:
+          dropCount.incrementAndGet();
+          return;
+        case DISCONNECT:
+          disconnectCount.incrementAndGet();
+          closed = true;
+          loop.execute(this::close);
+          return;
+        }
+      }
+      // every client sends from its own view of the shared frame
+      queue.add(frame.duplicate());
+      queued += frame.remaining();
+      if (!flushScheduled) {
+        flushScheduled = true;
+        loop.execute(this::flush);
+      }
+    }
+
+    /** sends as many queued messages as the socket accepts, invoked by the
+     * loop of the client */
+    synchronized void flush() {
+      flushScheduled = false;
+      if (Objects.isNull(selectionKey) || !selectionKey.isValid())
+        return;
       try {
-        subscriptions_lock.readLock().lock();
-        for (SubscriptionRecord sr : subscriptions) {
-          if (sr.pattern.matcher(chanstr).matches()) {
-            synchronized (dataOutputStream) {
-              dataOutputStream.writeInt(TCPProvider.MESSAGE_TYPE_PUBLISH);
-              dataOutputStream.writeInt(channel.length);
-              dataOutputStream.write(channel);
-              dataOutputStream.writeInt(data.length);
-              dataOutputStream.write(data);
-              dataOutputStream.flush();
-              return;
-            }
+        while (!queue.isEmpty()) {
+          int count = 0;
+          for (ByteBuffer byteBuffer : queue) {
+            gather[count++] = byteBuffer;
+            if (count == GATHER)
+              break;
           }
+          long written = socketChannel.write(gather, 0, count);
+          queued -= written;
+          while (!queue.isEmpty() && !queue.peekFirst().hasRemaining())
+            queue.pollFirst();
+          if (gather[count - 1].hasRemaining())
+            break; // socket buffer is full
         }
       } catch (IOException ex) {
-        // ---
+        close();
+        return;
       } finally {
-        subscriptions_lock.readLock().unlock();
+        Arrays.fill(gather, null);
+      }
+      selectionKey.interestOps(queue.isEmpty() //
+          ? SelectionKey.OP_READ
+          : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    void close() {
+      synchronized (this) {
+        closed = true;
+        queue.clear();
+        queued = 0;
+      }
+      if (Objects.nonNull(selectionKey))
+        selectionKey.cancel();
+      try {
+        socketChannel.close();
+      } catch (IOException ex) {
+        // ---
       }
+      if (clients.remove(this))
+        unsubscribeAll(this);
     }
   }
 }
@@ -0,0 +1,139 @@
+// code by jph
+package lcm.lcm;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/** pacing of the datagrams sent by {@link UDPMulticastPublisher}
+ *
+ * Without pacing, the fragments of a large message are sent back-to-back and
+ * may overrun the socket buffers of receivers and the queues of switches, so
+ * that entire messages are lost.
+ *
+ * The pacer implements a token bucket: every datagram reserves transmission
+ * time in proportion to its size. A datagram that is not a priority datagram
+ * waits until its reservation is due. Additionally, consecutive fragments of
+ * a message are separated by a minimum gap.
+ *
+ * Datagrams on priority channels are sent immediately. They consume tokens
+ * nonetheless so that bulk traffic that is waiting in other threads yields to
+ * them and the configured rate is maintained on average.
+ *
+ * The pacer is thread-safe. Only the reservation is synchronized, the waiting
+ * happens outside of the lock. */
+public class TransmitPacer {
+  /** allows a burst of one maximum size datagram after idle periods */
+  static final long DEFAULT_BURST = 65536;
+
+  // ---
+  private final long rate;
+  private final long gapNanos;
+  private final long burstNanos;
+  private final Pattern priority;
+  /** time at which the next reservation starts */
+  private long next = System.nanoTime();
+  private final long created = System.nanoTime();
+  private final LongAdder datagrams = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+
+  /** @param rate in bytes per second, 0 for unlimited
+   * @param gap_us minimum gap between the fragments of a message in
+   * microseconds
+   * @param burst number of bytes that may be sent without delay after idle
+   * periods
+   * @param priority regex of channels that are not delayed, or null */
+  TransmitPacer(long rate, int gap_us, long burst, String priority) {
+    if (rate < 0 || gap_us < 0 || burst < 0)
+      throw new IllegalArgumentException("rate=" + rate + " gap=" + gap_us + " burst=" + burst);
+    this.rate = rate;
+    gapNanos = gap_us * 1_000L;
+    burstNanos = 0 < rate ? nanos(burst) : 0;
+    this.priority = Objects.isNull(priority) ? null : Pattern.compile(priority);
+  }
+
+  /** @return true if pacing is configured, false if datagrams are sent
+   * without delay */
+  boolean isPacing() {
+    return 0 < rate || 0 < gapNanos;
+  }
+
+  /** @param channel
+   * @return true if datagrams on given channel are sent without delay */
+  boolean isPriority(String channel) {
+    return Objects.nonNull(priority) && priority.matcher(channel).matches();
+  }
+
+  /** blocks the calling thread until the datagram may be sent
+   *
+   * @param length of datagram in bytes
+   * @param isPriority
+   * @param previous time in nanoseconds at which the previous fragment of the
+   * same message was sent, or 0 for the first datagram of a message
+   * @return time in nanoseconds at which the datagram is sent */
+  long acquire(int length, boolean isPriority, long previous) {
+    long now = System.nanoTime();
+    long due = now;
+    if (0 < rate)
+      synchronized (this) {
+        // unused capacity of idle periods is limited to the burst
+        if (next - (now - burstNanos) < 0)
+          next = now - burstNanos;
+        due = next;
+        next += nanos(length);
+      }
+    if (isPriority)
+      due = now;
+    else //
+    if (previous != 0 && due - (previous + gapNanos) < 0)
+      due = previous + gapNanos;
+    if (now - due < 0) {
+      park(due);
+      throttled.add(System.nanoTime() - now);
+      now = System.nanoTime();
+    }
+    return now;
+  }
+
+  /** records a datagram that was sent
+   *
+   * @param length of datagram in bytes */
+  void sent(int length) {
+    datagrams.increment();
+    bytes.add(length);
+  }
+
+  private long nanos(long length) {
+    return length * 1_000_000_000L / rate;
+  }
+
+  private static void park(long due) {
+    long remaining;
+    while (0 < (remaining = due - System.nanoTime()))
+      LockSupport.parkNanos(remaining);
+  }
+
+  /** @return number of datagrams sent */
+  public long getDatagramCount() {
+    return datagrams.sum();
+  }
+
+  /** @return number of bytes sent including datagram headers */
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  /** @return total time in nanoseconds that publishing threads were delayed
+   * by the pacer */
+  public long getThrottledNanos() {
+    return throttled.sum();
+  }
+
+  /** @return average number of bytes sent per second since creation */
+  public double getSendRate() {
+    long nanos = System.nanoTime() - created;
+    return 0 < nanos ? getByteCount() * 1e9 / nanos : 0;
+  }
+}
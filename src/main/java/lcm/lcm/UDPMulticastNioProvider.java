@@ -0,0 +1,244 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/** LCM provider for the udpm: URL with option impl=nio, for instance
+ * udpm://239.255.76.67:7667?ttl=0&impl=nio
+ *
+ * The provider is wire compatible with {@link UDPMulticastProvider} but is
+ * built on {@link DatagramChannel}. The reader thread waits for the channel to
+ * become readable and then drains all pending datagrams into a batch of heap
+ * buffers before dispatching them. The array of each buffer is passed to the
+ * receiver without a further copy.
+ *
+ * Further URL options:
+ * <ul>
+ * <li>rcvbuf: size of socket receive buffer in bytes, 0 for system default
+ * <li>batch: maximum number of datagrams received per batch
+ * <li>iface: name of network interface, for instance "lo". Without the
+ * option, the group is joined on the interface through which the system routes
+ * the group, and datagrams are sent through the default multicast interface
+ * of the system, as with {@link UDPMulticastProvider}.
+ * </ul>
+ * The options for pacing are described in {@link UDPMulticastPublisher}. */
+public class UDPMulticastNioProvider implements Provider {
+  private static final int DATAGRAM_SIZE = 65536;
+  private static final int DEFAULT_BATCH = 32;
+  static {
+    System.setProperty("java.net.preferIPv4Stack", "true");
+  }
+  // ---
+  private final UDPMulticastReceiver udpMulticastReceiver;
+  private final UDPMulticastPublisher udpMulticastPublisher;
+  private final DatagramChannel datagramChannel;
+  private final Selector selector;
+  private final int batch;
+  private ReaderThread readerThread;
+  /** only modified by the reader thread */
+  private volatile long packetCount = 0;
+  private volatile long batchCount = 0;
+
+  public UDPMulticastNioProvider(LCM lcm, URLParser up) throws IOException {
+    udpMulticastReceiver = new UDPMulticastReceiver(lcm, up);
+    String addrport[] = up.get("network", UDPMulticastProvider.DEFAULT_NETWORK).split(":");
+    InetAddress inetAddr = InetAddress.getByName(addrport[0]);
+    InetSocketAddress inetSocketAddress = new InetSocketAddress(inetAddr, Integer.valueOf(addrport[1]));
+    batch = up.get("batch", DEFAULT_BATCH);
+    int ttl = up.get("ttl", UDPMulticastProvider.DEFAULT_TTL);
+    String iface = up.get("iface", null);
+    NetworkInterface networkInterface = Objects.isNull(iface) //
+        ? route(inetSocketAddress)
+        : networkInterface(iface);
+    datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+    datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    int rcvbuf = up.get("rcvbuf", 0);
+    if (0 < rcvbuf) {
+      datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, rcvbuf);
+      int actual = datagramChannel.getOption(StandardSocketOptions.SO_RCVBUF);
+      if (actual < rcvbuf)
+        System.err.println("LCM: SO_RCVBUF limited to " + actual + " bytes by the system");
+    }
+    datagramChannel.bind(new InetSocketAddress(inetSocketAddress.getPort()));
+    try {
+      datagramChannel.join(inetAddr, networkInterface);
+    } catch (IOException exception) {
+      System.out.println(TroubleShooter.joinGroup());
+      System.out.flush();
+      datagramChannel.close();
+      throw exception;
+    }
+    datagramChannel.configureBlocking(false);
+    selector = Selector.open();
+    datagramChannel.register(selector, SelectionKey.OP_READ);
+    // the outgoing interface is only pinned when specified explicitly
+    udpMulticastPublisher = new UDPMulticastPublisher(inetSocketAddress, ttl, //
+        Objects.isNull(iface) ? null : networkInterface, up);
+  }
+
+  /** @param name of network interface
+   * @return interface with given name
+   * @throws IOException */
+  private static NetworkInterface networkInterface(String name) throws IOException {
+    NetworkInterface networkInterface = NetworkInterface.getByName(name);
+    if (Objects.isNull(networkInterface))
+      throw new IOException("LCM: unknown network interface " + name);
+    return networkInterface;
+  }
+
+  /** {@link java.net.MulticastSocket#joinGroup(InetAddress)} lets the system
+   * choose the interface by the route to the group. The interface of that
+   * route is determined by the local address of a socket connected to the
+   * group, which does not send any datagram.
+   *
+   * @param inetSocketAddress of group
+   * @return interface through which the system routes the group
+   * @throws IOException if the system has no route to the group */
+  private static NetworkInterface route(InetSocketAddress inetSocketAddress) throws IOException {
+    try (DatagramSocket datagramSocket = new DatagramSocket()) {
+      datagramSocket.connect(inetSocketAddress);
+      InetAddress inetAddress = datagramSocket.getLocalAddress();
+      NetworkInterface networkInterface = inetAddress.isAnyLocalAddress() //
+          ? null
+          : NetworkInterface.getByInetAddress(inetAddress);
+      if (Objects.isNull(networkInterface))
+        throw new IOException("LCM: no route to " + inetSocketAddress.getAddress() + ", specify option iface");
+      return networkInterface;
+    }
+  }
+
+  /** Publishing does not require synchronization, see
+   * {@link UDPMulticastPublisher} */
+  @Override
+  public void publish(String channel, byte data[], int offset, int length) {
+    try {
+      udpMulticastPublisher.publish(channel, data, offset, length);
+    } catch (Exception ex) {
+      System.err.println("ex: " + ex);
+    }
+  }
+
+  @Override
+  public synchronized void subscribe(String channel) {
+    if (Objects.isNull(readerThread)) {
+      readerThread = new ReaderThread();
+      readerThread.start();
+    }
+  }
+
+  @Override
+  public void unsubscribe(String channel) {
+    // deliberately empty
+  }
+
+  @Override
+  public synchronized void close() {
+    if (Objects.nonNull(readerThread)) {
+      readerThread.interrupt();
+      selector.wakeup();
+      try {
+        readerThread.join();
+      } catch (InterruptedException ex) {
+        // ---
+      }
+    }
+    readerThread = null;
+    try {
+      selector.close();
+      datagramChannel.close();
+      udpMulticastPublisher.close();
+    } catch (IOException ex) {
+      // ---
+    }
+  }
+
+  /** @return statistics of the pacing of published datagrams */
+  public TransmitPacer getTransmitPacer() {
+    return udpMulticastPublisher.transmitPacer;
+  }
+
+  /** @return statistics of the reassembly of fragmented messages */
+  public FragmentReassembler getFragmentReassembler() {
+    return udpMulticastReceiver.fragmentReassembler;
+  }
+
+  /** @return number of datagrams received */
+  public long getPacketCount() {
+    return packetCount;
+  }
+
+  /** @return number of batches of datagrams received, the ratio of packets to
+   * batches indicates how many datagrams are dispatched per wakeup */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  class ReaderThread extends Thread {
+    private final ByteBuffer[] byteBuffers = new ByteBuffer[batch];
+    private final SocketAddress[] socketAddresses = new SocketAddress[batch];
+
+    ReaderThread() {
+      setDaemon(true);
+      setName("LCM-UDP-NIO");
+      for (int index = 0; index < batch; ++index)
+        byteBuffers[index] = ByteBuffer.allocate(DATAGRAM_SIZE);
+    }
+
+    @Override
+    public void run() {
+      int[] index = new int[1];
+      Supplier<SocketAddress> sender = () -> socketAddresses[index[0]];
+      while (!isInterrupted()) {
+        try {
+          selector.select();
+          selector.selectedKeys().clear();
+          int count;
+          // drain all pending datagrams
+          do {
+            count = 0;
+            while (count < batch) {
+              ByteBuffer byteBuffer = byteBuffers[count];
+              byteBuffer.clear();
+              SocketAddress socketAddress = datagramChannel.receive(byteBuffer);
+              if (Objects.isNull(socketAddress))
+                break;
+              socketAddresses[count] = socketAddress;
+              ++count;
+            }
+            for (index[0] = 0; index[0] < count; ++index[0]) {
+              ByteBuffer byteBuffer = byteBuffers[index[0]];
+              try {
+                udpMulticastReceiver.handlePacket(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.position(), sender);
+              } catch (RuntimeException ex) {
+                // an invalid datagram does not terminate the reception
+                System.err.println("ex: " + ex);
+              }
+            }
+            if (0 < count) {
+              packetCount += count;
+              ++batchCount;
+            }
+          } while (count == batch);
+        } catch (ClosedChannelException ex) {
+          return;
+        } catch (IOException ex) {
+          System.err.println("ex: " + ex);
+        }
+      }
+    }
+  }
+}
@@ -1,16 +1,14 @@
 // code by lcm
 package lcm.lcm;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.SocketAddress;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /** LCM provider for the udpm: URL. All messages are broadcast over a
  * pre-arranged UDP multicast address. Subscription operations are a no-op,
@@ -20,11 +18,11 @@ import java.util.Objects;
  * to transmit messages more than once when there are multiple subscribers.
  * Since it uses UDP, it is lossy. **/
 public class UDPMulticastProvider implements Provider {
-  private static final String DEFAULT_NETWORK = "239.255.76.67:7667";
-  private static final int DEFAULT_TTL = 0;
-  private static final int MAGIC_SHORT = 0x4c433032; // ascii of "LC02"
-  private static final int MAGIC_LONG = 0x4c433033; // ascii of "LC03"
-  private static final int FRAGMENTATION_THRESHOLD = 64000;
+  static final String DEFAULT_NETWORK = "239.255.76.67:7667";
+  static final int DEFAULT_TTL = 0;
+  static final int MAGIC_SHORT = 0x4c433032; // ascii of "LC02"
+  static final int MAGIC_LONG = 0x4c433033; // ascii of "LC03"
+  static final int FRAGMENTATION_THRESHOLD = 64000;
   static {
     System.setProperty("java.net.preferIPv4Stack", "true");
     System.err.println("LCM: Disabling IPV6 support");
@@ -32,14 +30,13 @@ public class UDPMulticastProvider implements Provider {
   // ---
   private MulticastSocket multicastSocket;
   private ReaderThread readerThread;
-  private Map<SocketAddress, FragmentBuffer> fragBufs = new HashMap<>();
-  private final LCM lcm;
+  private final UDPMulticastReceiver udpMulticastReceiver;
+  private final UDPMulticastPublisher udpMulticastPublisher;
   private final InetAddress inetAddr;
   private final int inetPort;
-  private int msgSeqNumber = 0;
 
   public UDPMulticastProvider(LCM lcm, URLParser up) throws IOException {
-    this.lcm = lcm;
+    udpMulticastReceiver = new UDPMulticastReceiver(lcm, up);
     String addrport[] = up.get("network", DEFAULT_NETWORK).split(":");
     inetAddr = InetAddress.getByName(addrport[0]);
     inetPort = Integer.valueOf(addrport[1]);
@@ -53,7 +50,6 @@ public class UDPMulticastProvider implements Provider {
       System.err.println("LCM: TTL set to > 1... That's almost never correct!");
     else
       System.err.println("LCM: TTL set to 1.");
-    multicastSocket.setTimeToLive(up.get("ttl", DEFAULT_TTL));
     try {
       multicastSocket.joinGroup(inetAddr);
     } catch (Exception exception) {
@@ -61,12 +57,15 @@ public class UDPMulticastProvider implements Provider {
       System.out.flush();
       throw exception;
     }
+    udpMulticastPublisher = new UDPMulticastPublisher(new InetSocketAddress(inetAddr, inetPort), ttl, null, up);
   }
 
+  /** Publishing does not require synchronization, see
+   * {@link UDPMulticastPublisher} */
   @Override
-  public synchronized void publish(String channel, byte data[], int offset, int length) {
+  public void publish(String channel, byte data[], int offset, int length) {
     try {
-      publishEx(channel, data, offset, length);
+      udpMulticastPublisher.publish(channel, data, offset, length);
     } catch (Exception ex) {
       System.err.println("ex: " + ex);
     }
@@ -98,84 +97,17 @@ public class UDPMulticastProvider implements Provider {
     readerThread = null;
     multicastSocket.close();
     multicastSocket = null;
-    fragBufs = null;
+    udpMulticastPublisher.close();
   }
 
-  void publishEx(String channel, byte data[], int offset, int length) throws Exception {
-    byte[] channel_bytes = channel.getBytes("US-ASCII");
-    int payload_size = channel_bytes.length + length;
-    if (payload_size <= FRAGMENTATION_THRESHOLD) {
-      LCMDataOutputStream outs = new LCMDataOutputStream(length + channel.length() + 32);
-      outs.writeInt(MAGIC_SHORT);
-      outs.writeInt(msgSeqNumber);
-      outs.writeStringZ(channel);
-      outs.write(data, offset, length);
-      multicastSocket.send(new DatagramPacket(outs.getBuffer(), 0, outs.size(), inetAddr, inetPort));
-    } else {
-      int nfragments = payload_size / FRAGMENTATION_THRESHOLD;
-      if (payload_size % FRAGMENTATION_THRESHOLD > 0)
-        nfragments++;
-      if (nfragments > 65535) {
-        System.err.println("LC error: too much data for a single message");
-        return;
-      }
-      // first fragment is special. insert channel before data
-      ByteArrayOutputStream bouts = new ByteArrayOutputStream(10 + FRAGMENTATION_THRESHOLD);
-      DataOutputStream outs = new DataOutputStream(bouts);
-      int fragment_offset = 0;
-      int frag_no = 0;
-      outs.writeInt(MAGIC_LONG);
-      outs.writeInt(msgSeqNumber);
-      outs.writeInt(length);
-      outs.writeInt(fragment_offset);
-      outs.writeShort(frag_no);
-      outs.writeShort(nfragments);
-      outs.write(channel_bytes, 0, channel_bytes.length);
-      outs.writeByte(0);
-      int firstfrag_datasize = FRAGMENTATION_THRESHOLD - (channel_bytes.length + 1);
-      outs.write(data, offset, firstfrag_datasize);
-      byte[] b = bouts.toByteArray();
-      multicastSocket.send(new DatagramPacket(b, 0, b.length, inetAddr, inetPort));
-      fragment_offset += firstfrag_datasize;
-      for (frag_no = 1; frag_no < nfragments; frag_no++) {
-        bouts = new ByteArrayOutputStream(10 + FRAGMENTATION_THRESHOLD);
-        outs = new DataOutputStream(bouts);
-        outs.writeInt(MAGIC_LONG);
-        outs.writeInt(msgSeqNumber);
-        outs.writeInt(length);
-        outs.writeInt(fragment_offset);
-        outs.writeShort(frag_no);
-        outs.writeShort(nfragments);
-        int fraglen = java.lang.Math.min(FRAGMENTATION_THRESHOLD, length - fragment_offset);
-        outs.write(data, offset + fragment_offset, fraglen);
-        b = bouts.toByteArray();
-        multicastSocket.send(new DatagramPacket(b, 0, b.length, inetAddr, inetPort));
-        fragment_offset += fraglen;
-      }
-    }
-    ++msgSeqNumber;
+  /** @return statistics of the pacing of published datagrams */
+  public TransmitPacer getTransmitPacer() {
+    return udpMulticastPublisher.transmitPacer;
   }
 
-  class FragmentBuffer {
-    final SocketAddress socketAddress;
-    final String channel;
-    final int msgSeqNumber;
-    final int data_size;
-    int fragments_remaining;
-    final byte[] data;
-    final boolean frag_received[];
-
-    FragmentBuffer( //
-        SocketAddress socketAddress, String channel, //
-        int msgSeqNumber, int data_size, int fragments_remaining) {
-      this.socketAddress = socketAddress;
-      this.channel = channel;
-      this.msgSeqNumber = msgSeqNumber;
-      this.data_size = data_size;
-      this.fragments_remaining = fragments_remaining;
-      this.data = new byte[data_size];
-      this.frag_received = new boolean[fragments_remaining];
-    }
+  /** @return statistics of the reassembly of fragmented messages */
+  public FragmentReassembler getFragmentReassembler() {
+    return udpMulticastReceiver.fragmentReassembler;
   }
 
   class ReaderThread extends Thread {
@@ -186,14 +118,21 @@ public class UDPMulticastProvider implements Provider {
 
     @Override
     public void run() {
+      // the packet and its buffer are reused for every datagram
       DatagramPacket datagramPacket = new DatagramPacket(new byte[65536], 65536);
+      Supplier<SocketAddress> sender = datagramPacket::getSocketAddress;
       while (!isInterrupted()) {
         try {
+          datagramPacket.setLength(65536);
           multicastSocket.receive(datagramPacket);
-          handlePacket(datagramPacket);
+          udpMulticastReceiver.handlePacket( //
+              datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength(), sender);
         } catch (IOException ex) {
           System.err.println("ex: " + ex);
           continue;
+        } catch (RuntimeException ex) {
+          // an invalid datagram does not terminate the reception
+          System.err.println("ex: " + ex);
         }
       }
     }
@@ -203,76 +142,5 @@ public class UDPMulticastProvider implements Provider {
       super.interrupt();
       multicastSocket.close();
     }
-
-    void handleShortMessage(DatagramPacket datagramPacket, LCMDataInputStream ins) throws IOException {
-      @SuppressWarnings("unused")
-      int msgSeqNumber = ins.readInt();
-      String channel = ins.readStringZ();
-      lcm.receiveMessage(channel, ins.getBuffer(), ins.getBufferOffset(), ins.available());
-    }
-
-    void handleFragment(DatagramPacket datagramPacket, LCMDataInputStream ins) throws IOException {
-      int msgSeqNumber = ins.readInt();
-      int msg_size = ins.readInt(); // & 0xffffffff;
-      int fragment_offset = ins.readInt(); // & 0xffffffff;
-      int fragment_id = ins.readShort() & 0xffff;
-      int fragments_in_msg = ins.readShort() & 0xffff;
-      // read entire packet payload
-      byte payload[] = new byte[ins.available()];
-      ins.readFully(payload);
-      // if (0 < ins.available())
-      // System.err.println("Unread data! " + ins.available());
-      int data_start = 0;
-      int frag_size = payload.length;
-      SocketAddress socketAddress = datagramPacket.getSocketAddress();
-      FragmentBuffer fragmentBuffer = fragBufs.get(socketAddress);
-      // TODO arrangement of conditions not nice
-      if (fragmentBuffer != null && //
-          ((fragmentBuffer.msgSeqNumber != msgSeqNumber) || (fragmentBuffer.data_size != msg_size))) {
-        fragBufs.remove(fragmentBuffer.socketAddress);
-        fragmentBuffer = null;
-      }
-      if (Objects.isNull(fragmentBuffer))
-        if (0 == fragment_id) {
-          // extract channel name
-          int channel_len = 0;
-          for (; channel_len < payload.length; ++channel_len)
-            if (0 == payload[channel_len])
-              break;
-          data_start = channel_len + 1;
-          frag_size -= channel_len + 1;
-          String channel = new String(payload, 0, channel_len, "US-ASCII");
-          fragmentBuffer = new FragmentBuffer(socketAddress, channel, msgSeqNumber, msg_size, fragments_in_msg);
-          fragBufs.put(fragmentBuffer.socketAddress, fragmentBuffer);
-        } else
-          return;
-      // ---
-      if (fragmentBuffer.data_size < fragment_offset + frag_size) {
-        System.err.println("LC: dropping invalid fragment");
-        fragBufs.remove(fragmentBuffer.socketAddress);
-        return;
-      }
-      if (!fragmentBuffer.frag_received[fragment_id]) {
-        fragmentBuffer.frag_received[fragment_id] = true;
-        System.arraycopy(payload, data_start, fragmentBuffer.data, fragment_offset, frag_size);
-        --fragmentBuffer.fragments_remaining;
-      }
-      if (0 == fragmentBuffer.fragments_remaining) {
-        lcm.receiveMessage(fragmentBuffer.channel, fragmentBuffer.data, 0, fragmentBuffer.data_size);
-        fragBufs.remove(fragmentBuffer.socketAddress);
-      }
-    }
-
-    void handlePacket(DatagramPacket datagramPacket) throws IOException {
-      LCMDataInputStream ins = new LCMDataInputStream(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
-      int magic = ins.readInt();
-      if (magic == MAGIC_SHORT) {
-        handleShortMessage(datagramPacket, ins);
-      } else if (magic == MAGIC_LONG) {
-        handleFragment(datagramPacket, ins);
-      } else {
-        System.err.println("bad magic: " + Integer.toHexString(magic));
-      }
-    }
   }
 }
@@ -0,0 +1,158 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** encodes messages in the format of the udpm protocol and sends the
+ * datagrams to the multicast group.
+ *
+ * The header of a datagram is written into a buffer that is reused by the
+ * publishing thread. The header and a slice of the payload are sent with a
+ * gathering write so that the payload is not copied into an intermediate
+ * array. The payload is wrapped once per message, and the thread local state
+ * does not retain the array of the caller after the message was sent. Apart
+ * from the thread local state, no memory is allocated per fragment.
+ *
+ * The publisher is thread-safe without locking: threads that publish on
+ * different channels only contend for the duration of the system call that
+ * sends a datagram.
+ *
+ * The publisher is shared by {@link UDPMulticastProvider} and
+ * {@link UDPMulticastNioProvider}.
+ *
+ * URL options that configure the {@link TransmitPacer} are
+ * <ul>
+ * <li>txrate: maximum rate in bytes per second, 0 for unlimited
+ * <li>txgap: minimum gap between fragments in microseconds
+ * <li>txburst: number of bytes sent without delay after idle periods
+ * <li>txprio: regex of channels that are sent without delay
+ * </ul> */
+/* package */ class UDPMulticastPublisher {
+  /** magic, sequence number, message size, fragment offset, fragment number,
+   * and number of fragments */
+  static final int FRAGMENT_HEADER_SIZE = 20;
+
+  /** state of a publishing thread */
+  private static class State {
+    ByteBuffer header = ByteBuffer.allocateDirect(FRAGMENT_HEADER_SIZE + 256);
+    final ByteBuffer[] byteBuffers = new ByteBuffer[2];
+
+    /** @param channel
+     * @return header buffer with sufficient capacity for given channel */
+    ByteBuffer header(String channel) {
+      int capacity = FRAGMENT_HEADER_SIZE + channel.length() + 1;
+      if (header.capacity() < capacity)
+        header = ByteBuffer.allocateDirect(capacity);
+      header.clear();
+      return header;
+    }
+  }
+
+  // ---
+  private final DatagramChannel datagramChannel;
+  private final AtomicInteger msgSeqNumber = new AtomicInteger();
+  private final ThreadLocal<State> threadLocal = ThreadLocal.withInitial(State::new);
+  final TransmitPacer transmitPacer;
+
+  /** @param inetSocketAddress of multicast group
+   * @param ttl
+   * @param networkInterface for outgoing datagrams, or null for the system
+   * default
+   * @param up with options for pacing
+   * @throws IOException */
+  UDPMulticastPublisher(InetSocketAddress inetSocketAddress, int ttl, NetworkInterface networkInterface, URLParser up) throws IOException {
+    transmitPacer = new TransmitPacer( //
+        up.get("txrate", 0L), //
+        up.get("txgap", 0), //
+        up.get("txburst", TransmitPacer.DEFAULT_BURST), //
+        up.get("txprio", null));
+    datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+    datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+    datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+    if (Objects.nonNull(networkInterface))
+      datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+    datagramChannel.connect(inetSocketAddress);
+  }
+
+  void publish(String channel, byte data[], int offset, int length) throws IOException {
+    State state = threadLocal.get();
+    ByteBuffer header = state.header(channel);
+    ByteBuffer payload = ByteBuffer.wrap(data);
+    ByteBuffer[] byteBuffers = state.byteBuffers;
+    byteBuffers[0] = header;
+    byteBuffers[1] = payload;
+    try {
+      int channel_length = channel.length();
+      int payload_size = channel_length + length;
+      boolean isPacing = transmitPacer.isPacing();
+      boolean isPriority = isPacing && transmitPacer.isPriority(channel);
+      if (payload_size <= UDPMulticastProvider.FRAGMENTATION_THRESHOLD) {
+        header.putInt(UDPMulticastProvider.MAGIC_SHORT);
+        header.putInt(msgSeqNumber.getAndIncrement());
+        putStringZ(header, channel);
+        header.flip();
+        payload.position(offset).limit(offset + length);
+        if (isPacing)
+          transmitPacer.acquire(header.remaining() + length, isPriority, 0);
+        transmitPacer.sent((int) datagramChannel.write(byteBuffers));
+      } else {
+        int nfragments = payload_size / UDPMulticastProvider.FRAGMENTATION_THRESHOLD;
+        if (payload_size % UDPMulticastProvider.FRAGMENTATION_THRESHOLD > 0)
+          nfragments++;
+        if (nfragments > 65535) {
+          System.err.println("LC error: too much data for a single message");
+          return;
+        }
+        int sequence = msgSeqNumber.getAndIncrement();
+        int fragment_offset = 0;
+        long previous = 0;
+        for (int frag_no = 0; frag_no < nfragments; ++frag_no) {
+          header.clear();
+          header.putInt(UDPMulticastProvider.MAGIC_LONG);
+          header.putInt(sequence);
+          header.putInt(length);
+          header.putInt(fragment_offset);
+          header.putShort((short) frag_no);
+          header.putShort((short) nfragments);
+          int fraglen = Math.min(UDPMulticastProvider.FRAGMENTATION_THRESHOLD, length - fragment_offset);
+          if (frag_no == 0) {
+            // first fragment is special. insert channel before data
+            putStringZ(header, channel);
+            fraglen = UDPMulticastProvider.FRAGMENTATION_THRESHOLD - (channel_length + 1);
+          }
+          header.flip();
+          payload.limit(offset + fragment_offset + fraglen).position(offset + fragment_offset);
+          if (isPacing)
+            previous = transmitPacer.acquire(header.remaining() + fraglen, isPriority, previous);
+          transmitPacer.sent((int) datagramChannel.write(byteBuffers));
+          fragment_offset += fraglen;
+        }
+      }
+    } finally {
+      // the array of the caller is not retained
+      byteBuffers[1] = null;
+    }
+  }
+
+  private static void putStringZ(ByteBuffer byteBuffer, String string) {
+    for (int index = 0; index < string.length(); ++index)
+      byteBuffer.put((byte) string.charAt(index));
+    byteBuffer.put((byte) 0);
+  }
+
+  void close() {
+    try {
+      datagramChannel.close();
+    } catch (IOException ex) {
+      // ---
+    }
+  }
+}
@@ -0,0 +1,87 @@
+// code by lcm
+// extracted by jph
+package lcm.lcm;
+
+import java.net.SocketAddress;
+import java.util.function.Supplier;
+
+import lcm.util.ChannelNameCache;
+
+/** decodes the datagrams of the udpm: protocol, reassembles fragmented
+ * messages, and passes the messages to {@link LCM#receiveMessage}.
+ * 
+ * The receiver is shared by {@link UDPMulticastProvider} and
+ * {@link UDPMulticastNioProvider}. All functions are invoked by the single
+ * reader thread of the provider. */
+/* package */ class UDPMulticastReceiver {
+  // ---
+  private final LCM lcm;
+  private final ChannelNameCache channelNameCache = new ChannelNameCache();
+  final FragmentReassembler fragmentReassembler;
+
+  /** URL options that configure the {@link FragmentReassembler} are
+   * <ul>
+   * <li>fraginflight: maximum number of messages in reassembly per sender
+   * <li>fragtimeout: milliseconds after which an incomplete message expires
+   * <li>fragmemory: maximum number of bytes in reassembly
+   * </ul>
+   * 
+   * @param lcm
+   * @param up */
+  UDPMulticastReceiver(LCM lcm, URLParser up) {
+    this.lcm = lcm;
+    fragmentReassembler = new FragmentReassembler(lcm, channelNameCache, //
+        up.get("fraginflight", FragmentReassembler.DEFAULT_IN_FLIGHT), //
+        up.get("fragtimeout", FragmentReassembler.DEFAULT_TIMEOUT_MS), //
+        up.get("fragmemory", FragmentReassembler.DEFAULT_MEMORY));
+  }
+
+  /** @param buffer
+   * @param offset of datagram in buffer
+   * @param length of datagram
+   * @param sender of datagram, only queried for fragments */
+  void handlePacket(byte[] buffer, int offset, int length, Supplier<SocketAddress> sender) {
+    int end = offset + length;
+    if (length < 8) {
+      System.err.println("LC: dropping short datagram");
+      return;
+    }
+    int magic = readInt(buffer, offset);
+    if (magic == UDPMulticastProvider.MAGIC_SHORT) {
+      handleShortMessage(buffer, offset, end);
+    } else if (magic == UDPMulticastProvider.MAGIC_LONG) {
+      fragmentReassembler.handleFragment(sender.get(), buffer, offset, end);
+    } else {
+      System.err.println("bad magic: " + Integer.toHexString(magic));
+    }
+  }
+
+  private void handleShortMessage(byte[] buffer, int offset, int end) {
+    // skip magic and sequence number
+    int channel_start = offset + 8;
+    int channel_end = indexOfZero(buffer, channel_start, end);
+    if (channel_end < 0) {
+      System.err.println("LC: dropping message without channel");
+      return;
+    }
+    String channel = channelNameCache.get(buffer, channel_start, channel_end - channel_start);
+    lcm.receiveMessage(channel, buffer, channel_end + 1, end - channel_end - 1);
+  }
+
+  static int readInt(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) //
+        | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+  }
+
+  static int readShort(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+  }
+
+  /** @return index of first zero byte in given range, or -1 */
+  static int indexOfZero(byte[] buffer, int offset, int end) {
+    for (int index = offset; index < end; ++index)
+      if (buffer[index] == 0)
+        return index;
+    return -1;
+  }
+}
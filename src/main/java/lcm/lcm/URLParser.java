@@ -45,6 +45,13 @@ public class URLParser {
     return Integer.parseInt(v);
   }
 
+  public long get(String key, long def) {
+    String v = params.get(key);
+    if (v == null)
+      return def;
+    return Long.parseLong(v);
+  }
+
   public boolean get(String key, boolean def) {
     String v = params.get(key);
     if (v == null)
@@ -58,4 +65,25 @@ public class URLParser {
       return def;
     return Double.parseDouble(v);
   }
+
+  /** @param key
+   * @param def
+   * @return number of bytes given with an optional unit, for instance 65536,
+   * 512K, or 64M */
+  public long getSize(String key, long def) {
+    String v = params.get(key);
+    if (v == null)
+      return def;
+    return parseSize(v);
+  }
+
+  /** @param string for instance "65536", "512K", or "64M"
+   * @return number of bytes */
+  static long parseSize(String string) {
+    char unit = Character.toUpperCase(string.charAt(string.length() - 1));
+    int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+    return 0 == shift //
+        ? Long.parseLong(string)
+        : Long.parseLong(string.substring(0, string.length() - 1)) << shift;
+  }
 }
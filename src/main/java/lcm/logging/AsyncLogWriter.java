@@ -0,0 +1,338 @@
+// code by jph
+package lcm.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lcm.logging.Log.Event;
+
+/** writes events to a log file from a dedicated thread
+ *
+ * Publishers copy an event into a lock-free queue and return immediately,
+ * they never wait for the disk. When the events in the queue exceed the
+ * capacity, new events are dropped and counted.
+ *
+ * The writer thread assigns sequential event numbers, serializes the events
+ * into a large direct buffer, and writes the buffer via a {@link FileChannel}
+ * when the buffer is full or the queue is empty. The file is synced to disk
+ * once per commit interval, so that the cost of the sync is shared by all
+ * events written in the interval.
+ *
+ * @see SegmentedLogWriter */
+public class AsyncLogWriter implements AutoCloseable {
+  public static final long DEFAULT_CAPACITY = 64L << 20;
+  public static final int DEFAULT_COMMIT_INTERVAL_MS = 1000;
+  private static final int BUFFER_SIZE = 1 << 20;
+  /** magic, event number, utime, channel length, and data length */
+  private static final int HEADER_SIZE = 28;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  // ---
+  private final String path;
+  /** file that is written, only accessed by the writer thread after start */
+  private FileChannel fileChannel;
+  private final long capacity;
+  private final long commitNanos;
+  private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+  /** number of payload bytes in the queue */
+  private final AtomicLong backlogBytes = new AtomicLong();
+  private final AtomicLong backlogCount = new AtomicLong();
+  private final AtomicLong dropCount = new AtomicLong();
+  private final WriterThread writerThread = new WriterThread();
+  private ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private volatile boolean closed = false;
+  /** true while the writer thread parks on an empty queue */
+  private volatile boolean idle = false;
+  // statistics, only modified by the writer thread
+  private volatile long eventCount = 0;
+  private volatile long byteCount = 0;
+  private volatile long syncCount = 0;
+  private volatile double byteRate = 0;
+
+  /** @param path of log file, an existing file is truncated
+   * @param capacity maximum number of payload bytes that wait to be written,
+   * further events are dropped
+   * @param commitInterval_ms interval in milliseconds in which the file is
+   * synced to disk, or 0 to leave the sync to the operating system
+   * @throws IOException */
+  public AsyncLogWriter(String path, long capacity, int commitInterval_ms) throws IOException {
+    this(path, capacity, commitInterval_ms, open(path));
+    start();
+  }
+
+  /** the writer thread is started by {@link #start()}
+   *
+   * @param fileChannel to which the first event is written, or null if
+   * {@link #rollover(long, long, int)} provides the file for the first event */
+  /* package */ AsyncLogWriter(String path, long capacity, int commitInterval_ms, FileChannel fileChannel) {
+    if (capacity <= 0 || commitInterval_ms < 0)
+      throw new IllegalArgumentException("capacity=" + capacity + " commit=" + commitInterval_ms);
+    this.path = path;
+    this.capacity = capacity;
+    commitNanos = TimeUnit.MILLISECONDS.toNanos(commitInterval_ms);
+    this.fileChannel = fileChannel;
+  }
+
+  /* package */ final void start() {
+    writerThread.start();
+  }
+
+  /** @param path
+   * @return channel that writes the file at given path from the beginning
+   * @throws IOException */
+  /* package */ static FileChannel open(String path) throws IOException {
+    return FileChannel.open(Paths.get(path), //
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /** invoked by the writer thread before each event is serialized
+   *
+   * @param eventNumber of event
+   * @param utime of event
+   * @param size of serialized event in bytes
+   * @return file to which the event and the subsequent events are written, or
+   * null to continue with the current file
+   * @throws IOException */
+  /* package */ FileChannel rollover(long eventNumber, long utime, int size) throws IOException {
+    return null;
+  }
+
+  /** invoked by the writer thread to write serialized events to the file
+   *
+   * @param fileChannel
+   * @param byteBuffer contains one or more complete events
+   * @throws IOException */
+  /* package */ void write(FileChannel fileChannel, ByteBuffer byteBuffer) throws IOException {
+    while (byteBuffer.hasRemaining())
+      fileChannel.write(byteBuffer);
+  }
+
+  /** invoked by the writer thread before the file is synced to disk
+   *
+   * @param fileChannel
+   * @throws IOException */
+  /* package */ void commit(FileChannel fileChannel) throws IOException {
+    // ---
+  }
+
+  /** invoked by the writer thread before the file is closed
+   *
+   * @param fileChannel
+   * @throws IOException */
+  /* package */ void finish(FileChannel fileChannel) throws IOException {
+    // ---
+  }
+
+  /** @param path of log file, an existing file is truncated
+   * @throws IOException */
+  public AsyncLogWriter(String path) throws IOException {
+    this(path, DEFAULT_CAPACITY, DEFAULT_COMMIT_INTERVAL_MS);
+  }
+
+  /** @return the path to the log file */
+  public String getPath() {
+    return path;
+  }
+
+  /** queues an event, the payload is copied
+   *
+   * @param utime time of message receipt in microseconds since 00:00:00 UTC
+   * January 1, 1970
+   * @param channel
+   * @param data
+   * @param offset
+   * @param length
+   * @return false if the event was dropped because the queue is full or the
+   * writer is closed */
+  public boolean write(long utime, String channel, byte[] data, int offset, int length) {
+    if (closed) {
+      dropCount.incrementAndGet();
+      return false;
+    }
+    if (capacity < backlogBytes.addAndGet(length)) {
+      backlogBytes.addAndGet(-length);
+      dropCount.incrementAndGet();
+      return false;
+    }
+    Event event = new Event();
+    event.utime = utime;
+    event.channel = channel;
+    event.data = new byte[length];
+    System.arraycopy(data, offset, event.data, 0, length);
+    queue.add(event);
+    backlogCount.incrementAndGet();
+    if (idle)
+      LockSupport.unpark(writerThread);
+    return true;
+  }
+
+  /** writes the queued events, syncs the file to disk, and closes the file.
+   * Events that are written after close are dropped. */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join();
+    } catch (InterruptedException ex) {
+      // ---
+    }
+    // events that raced with close
+    Event event;
+    while (Objects.nonNull(event = queue.poll())) {
+      backlogCount.decrementAndGet();
+      backlogBytes.addAndGet(-event.getLength());
+      dropCount.incrementAndGet();
+    }
+    if (Objects.nonNull(fileChannel))
+      fileChannel.close();
+  }
+
+  /** @return number of events waiting to be written */
+  public long getBacklog() {
+    return backlogCount.get();
+  }
+
+  /** @return number of payload bytes waiting to be written */
+  public long getBacklogBytes() {
+    return backlogBytes.get();
+  }
+
+  /** @return number of events dropped because the queue was full */
+  public long getDropCount() {
+    return dropCount.get();
+  }
+
+  /** @return number of events written to the file */
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  /** @return number of bytes of the serialized events */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /** @return number of syncs to disk */
+  public long getSyncCount() {
+    return syncCount;
+  }
+
+  /** @return bytes per second written to the file, measured over the last
+   * second */
+  public double getByteRate() {
+    return byteRate;
+  }
+
+  private class WriterThread extends Thread {
+    private long rateNanos = System.nanoTime();
+    private long rateBytes = 0;
+    private long syncNanos = System.nanoTime();
+    private boolean dirty = false;
+
+    WriterThread() {
+      setDaemon(true);
+      setName("LCM-log-writer");
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          boolean stop = closed; // events queued before close are written
+          Event event;
+          while (Objects.nonNull(event = queue.poll()))
+            serialize(event);
+          writeBuffer();
+          long now = System.nanoTime();
+          if (0 < commitNanos && dirty && commitNanos <= now - syncNanos)
+            sync(now);
+          if (1_000_000_000L <= now - rateNanos) {
+            byteRate = (byteCount - rateBytes) * 1e9 / (now - rateNanos);
+            rateNanos = now;
+            rateBytes = byteCount;
+          }
+          if (stop)
+            break;
+          idle = true;
+          if (queue.isEmpty() && !closed)
+            LockSupport.parkNanos(0 < commitNanos && dirty //
+                ? Math.min(IDLE_NANOS, Math.max(0, syncNanos + commitNanos - now))
+                : IDLE_NANOS);
+          idle = false;
+        }
+        if (Objects.nonNull(fileChannel)) {
+          finish(fileChannel);
+          dirty = true;
+        }
+        if (0 < commitNanos && dirty)
+          sync(System.nanoTime());
+      } catch (IOException ex) {
+        System.err.println("ex: " + ex);
+        // the remaining events are dropped
+        closed = true;
+        dropCount.addAndGet(backlogCount.getAndSet(0));
+        queue.clear();
+      }
+    }
+
+    private void serialize(Event event) throws IOException {
+      byte[] channel = event.channel.getBytes();
+      int size = HEADER_SIZE + channel.length + event.getLength();
+      FileChannel next = rollover(eventCount, event.utime, size);
+      if (Objects.nonNull(next)) {
+        writeBuffer();
+        if (Objects.nonNull(fileChannel)) {
+          finish(fileChannel);
+          if (0 < commitNanos)
+            sync(System.nanoTime());
+          fileChannel.close();
+        }
+        fileChannel = next;
+      }
+      if (byteBuffer.remaining() < size) {
+        writeBuffer();
+        if (byteBuffer.capacity() < size) // event is larger than the buffer
+          byteBuffer = ByteBuffer.allocateDirect(size);
+      }
+      byteBuffer.putInt(Log.LOG_MAGIC);
+      byteBuffer.putLong(eventCount);
+      byteBuffer.putLong(event.utime);
+      byteBuffer.putInt(channel.length);
+      byteBuffer.putInt(event.getLength());
+      byteBuffer.put(channel);
+      byteBuffer.put(event.data, 0, event.getLength());
+      ++eventCount;
+      backlogCount.decrementAndGet();
+      backlogBytes.addAndGet(-event.getLength());
+    }
+
+    private void writeBuffer() throws IOException {
+      if (byteBuffer.position() == 0)
+        return;
+      byteBuffer.flip();
+      int length = byteBuffer.remaining();
+      write(fileChannel, byteBuffer);
+      byteBuffer.clear();
+      byteCount += length;
+      dirty = true;
+    }
+
+    private void sync(long now) throws IOException {
+      commit(fileChannel);
+      fileChannel.force(false);
+      ++syncCount;
+      syncNanos = now;
+      dirty = false;
+    }
+  }
+}
@@ -0,0 +1,391 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import lcm.logging.Log.Event;
+import lcm.util.ChannelNameCache;
+
+/** reads a block-compressed log written by {@link BlockLogWriter}
+ *
+ * The file consists of a header, a sequence of independently compressed
+ * blocks of events, and an index of the blocks followed by a trailer:
+ * <pre>
+ * int file magic, int version
+ * {int block magic, int compressed length, int length, int event count,
+ * long first event number, long first utime, int crc32, deflate data}*
+ * int index magic, int block count, {long offset, long first event number,
+ * long first utime, int event count}*
+ * long offset of index, int end magic
+ * </pre>
+ * The uncompressed content of a block is identical to the events of an
+ * uncompressed log file. A file without index, for instance while it is
+ * written or after a crash, is indexed by a scan of the block headers.
+ *
+ * The blocks that follow the current block are decompressed ahead in
+ * parallel. Seeks decompress a single block. */
+public class BlockLog implements LogReader {
+  static final int FILE_MAGIC = 0x4c43425a; // ascii of "LCBZ"
+  static final int VERSION = 1;
+  static final int FILE_HEADER_SIZE = 8;
+  static final int BLOCK_MAGIC = 0x4c43424b; // ascii of "LCBK"
+  static final int BLOCK_HEADER_SIZE = 36;
+  static final int INDEX_MAGIC = 0x4c434249; // ascii of "LCBI"
+  static final int INDEX_ENTRY_SIZE = 28;
+  static final int END_MAGIC = 0x4c434245; // ascii of "LCBE"
+  static final int TRAILER_SIZE = 12;
+  private static final int MAX_BLOCK_SIZE = 1 << 30;
+
+  /** @param fileChannel
+   * @return true if the file starts with the magic number of a block log
+   * @throws IOException */
+  static boolean isBlockLog(FileChannel fileChannel) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+    return fileChannel.read(byteBuffer, 0) == 4 && byteBuffer.getInt(0) == FILE_MAGIC;
+  }
+
+  // ---
+  private final String path;
+  private final FileChannel fileChannel;
+  private final long length;
+  // index of blocks
+  private long[] offsets = new long[16];
+  private long[] eventNumbers = new long[16];
+  private long[] utimes = new long[16];
+  private int[] counts = new int[16];
+  private int blocks = 0;
+  /** decompression ahead of the reader, or null */
+  private final ExecutorService executorService;
+  private final int ahead;
+  private final Deque<Future<byte[]>> futures = new ArrayDeque<>();
+  private final byte[] channelBytes = new byte[MappedLogReader.MAX_CHANNEL_LENGTH];
+  private final ChannelNameCache channelNameCache = new ChannelNameCache(1024, Charset.defaultCharset());
+  /** index of block of the first future */
+  private int next = 0;
+  // current block
+  private int index = -1;
+  private ByteBuffer block = null;
+
+  /** @param path
+   * @param threads number of threads that decompress blocks ahead of the
+   * reader, or 0 to decompress in the thread of the reader
+   * @throws IOException */
+  public BlockLog(String path, int threads) throws IOException {
+    this.path = path;
+    fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    length = fileChannel.size();
+    if (!isBlockLog(fileChannel) || readInt(4) != VERSION) {
+      fileChannel.close();
+      throw new IOException("not a block log: " + path);
+    }
+    if (!readIndex())
+      scanBlocks();
+    if (0 < threads) {
+      executorService = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "LCM-inflate");
+        thread.setDaemon(true);
+        return thread;
+      });
+      ahead = 2 * threads;
+    } else {
+      executorService = null;
+      ahead = 0;
+    }
+  }
+
+  /** @param path
+   * @throws IOException */
+  public BlockLog(String path) throws IOException {
+    this(path, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  private ByteBuffer read(long position, int size) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+    while (byteBuffer.hasRemaining())
+      if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0)
+        throw new EOFException();
+    byteBuffer.flip();
+    return byteBuffer;
+  }
+
+  private int readInt(long position) throws IOException {
+    return read(position, 4).getInt();
+  }
+
+  /** @return true if the index at the end of the file was read */
+  private boolean readIndex() throws IOException {
+    if (length < FILE_HEADER_SIZE + 8 + TRAILER_SIZE)
+      return false;
+    ByteBuffer trailer = read(length - TRAILER_SIZE, TRAILER_SIZE);
+    long position = trailer.getLong();
+    if (trailer.getInt() != END_MAGIC || position < FILE_HEADER_SIZE || length - TRAILER_SIZE - 8 < position)
+      return false;
+    ByteBuffer header = read(position, 8);
+    int count = header.getInt(4);
+    if (header.getInt(0) != INDEX_MAGIC || (length - TRAILER_SIZE - position - 8) != (long) count * INDEX_ENTRY_SIZE)
+      return false;
+    ByteBuffer byteBuffer = read(position + 8, count * INDEX_ENTRY_SIZE);
+    for (int block = 0; block < count; ++block)
+      addBlock(byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getInt());
+    return true;
+  }
+
+  /** indexes the blocks of a file without index, a truncated block at the
+   * end of the file is ignored */
+  private void scanBlocks() throws IOException {
+    long position = FILE_HEADER_SIZE;
+    while (position + BLOCK_HEADER_SIZE <= length) {
+      ByteBuffer header = read(position, BLOCK_HEADER_SIZE);
+      if (header.getInt(0) != BLOCK_MAGIC)
+        break;
+      long end = position + BLOCK_HEADER_SIZE + header.getInt(4);
+      if (length < end)
+        break;
+      addBlock(position, header.getLong(16), header.getLong(24), header.getInt(12));
+      position = end;
+    }
+  }
+
+  private void addBlock(long offset, long eventNumber, long utime, int count) {
+    if (blocks == offsets.length) {
+      offsets = Arrays.copyOf(offsets, blocks * 2);
+      eventNumbers = Arrays.copyOf(eventNumbers, blocks * 2);
+      utimes = Arrays.copyOf(utimes, blocks * 2);
+      counts = Arrays.copyOf(counts, blocks * 2);
+    }
+    offsets[blocks] = offset;
+    eventNumbers[blocks] = eventNumber;
+    utimes[blocks] = utime;
+    counts[blocks] = count;
+    ++blocks;
+  }
+
+  /** @param block index
+   * @return uncompressed content of block
+   * @throws IOException if the block is corrupt */
+  private byte[] inflate(int block) throws IOException {
+    ByteBuffer header = read(offsets[block], BLOCK_HEADER_SIZE);
+    int compressed = header.getInt(4);
+    int size = header.getInt(8);
+    if (header.getInt(0) != BLOCK_MAGIC || compressed < 0 || size < 0 || MAX_BLOCK_SIZE < size)
+      throw new IOException("corrupt block at " + offsets[block]);
+    ByteBuffer input = read(offsets[block] + BLOCK_HEADER_SIZE, compressed);
+    byte[] output = new byte[size];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(input.array(), 0, compressed);
+      int position = 0;
+      while (position < size && !inflater.finished()) {
+        int count = inflater.inflate(output, position, size - position);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        position += count;
+      }
+      if (position != size)
+        throw new IOException("corrupt block at " + offsets[block]);
+    } catch (DataFormatException ex) {
+      throw new IOException("corrupt block at " + offsets[block], ex);
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc32 = new CRC32();
+    crc32.update(output, 0, size);
+    if ((int) crc32.getValue() != header.getInt(32))
+      throw new IOException("checksum mismatch of block at " + offsets[block]);
+    return output;
+  }
+
+  /** makes the block with given index the current block */
+  private void load(int block) throws IOException {
+    if (Objects.isNull(executorService) || block != next || futures.isEmpty()) {
+      clearAhead();
+      this.block = ByteBuffer.wrap(inflate(block));
+    } else
+      try {
+        this.block = ByteBuffer.wrap(futures.removeFirst().get());
+      } catch (InterruptedException ex) {
+        throw new IOException(ex);
+      } catch (ExecutionException ex) {
+        throw ex.getCause() instanceof IOException //
+            ? (IOException) ex.getCause()
+            : new IOException(ex.getCause());
+      }
+    index = block;
+    next = block + 1;
+    if (Objects.nonNull(executorService))
+      for (int submit = next + futures.size(); futures.size() < ahead && submit < blocks; ++submit) {
+        int target = submit;
+        futures.addLast(executorService.submit(() -> inflate(target)));
+      }
+  }
+
+  private void clearAhead() {
+    for (Future<byte[]> future : futures)
+      future.cancel(false);
+    futures.clear();
+  }
+
+  @Override
+  public synchronized Event readNext() throws IOException {
+    return readNext(new Event());
+  }
+
+  @Override
+  public synchronized Event readNext(Event event) throws IOException {
+    while (Objects.isNull(block) || !block.hasRemaining()) {
+      if (index + 1 >= blocks)
+        throw new EOFException();
+      load(index + 1);
+    }
+    if (block.getInt() != Log.LOG_MAGIC)
+      throw new IOException("corrupt block at " + offsets[index]);
+    event.eventNumber = block.getLong();
+    event.utime = block.getLong();
+    int channellen = block.getInt();
+    int datalen = block.getInt();
+    if (channellen <= 0 || channellen >= channelBytes.length || datalen <= 0 || block.remaining() < channellen + datalen)
+      throw new IOException("corrupt block at " + offsets[index]);
+    block.get(channelBytes, 0, channellen);
+    event.channel = channelNameCache.get(channelBytes, 0, channellen);
+    block.get(event.reserve(datalen), 0, datalen);
+    return event;
+  }
+
+  /** @return position of the reader in the compressed file, interpolated
+   * within the current block */
+  @Override
+  public synchronized double getPositionFraction() {
+    if (Objects.isNull(block)) // before the block with index + 1
+      return (index + 1 < blocks ? offsets[index + 1] : length) / (double) length;
+    long end = index + 1 < blocks ? offsets[index + 1] : length;
+    double fraction = block.capacity() == 0 ? 1 : block.position() / (double) block.capacity();
+    return (offsets[index] + (end - offsets[index]) * fraction) / length;
+  }
+
+  @Override
+  public synchronized void seekPositionFraction(double frac) throws IOException {
+    long position = (long) (length * frac);
+    int block = Arrays.binarySearch(offsets, 0, blocks, position);
+    if (block < 0)
+      block = -block - 2;
+    if (block < 0) {
+      rewind(0);
+      return;
+    }
+    long end = block + 1 < blocks ? offsets[block + 1] : length;
+    load(block);
+    // the first event that starts at or after the interpolated position
+    int target = (int) (this.block.capacity() * ((position - offsets[block]) / (double) (end - offsets[block])));
+    while (this.block.hasRemaining() && this.block.position() < target)
+      skipEvent();
+  }
+
+  /** Seek to the first event with a time of message receipt greater or equal
+   * to the given time, so that the next invocation of {@link #readNext()}
+   * returns that event.
+   *
+   * @param utime
+   * @return false if there is no such event */
+  public synchronized boolean seekToUtime(long utime) throws IOException {
+    return seek(floor(utimes, utime), 12, utime);
+  }
+
+  /** Seek to the first event with an event number greater or equal to the
+   * given event number, so that the next invocation of {@link #readNext()}
+   * returns that event.
+   *
+   * @param eventNumber
+   * @return false if there is no such event */
+  public synchronized boolean seekToEventNumber(long eventNumber) throws IOException {
+    return seek(floor(eventNumbers, eventNumber), 4, eventNumber);
+  }
+
+  /** @param values of blocks
+   * @param value
+   * @return index of the last block with a value strictly less than given
+   * value, or 0 */
+  private int floor(long[] values, long value) {
+    int block = Arrays.binarySearch(values, 0, blocks, value);
+    if (block < 0)
+      block = -block - 1;
+    else // several blocks may begin with the same value
+      while (0 < block && values[block - 1] == value)
+        --block;
+    return Math.max(0, block - 1);
+  }
+
+  /** @param block from which to scan
+   * @param field offset of the value in the header of an event
+   * @param value
+   * @return true if an event with a value greater or equal to given value was
+   * found */
+  private boolean seek(int block, int field, long value) throws IOException {
+    rewind(block);
+    while (true) {
+      while (Objects.isNull(this.block) || !this.block.hasRemaining()) {
+        if (index + 1 >= blocks)
+          return false;
+        load(index + 1);
+      }
+      if (value <= this.block.getLong(this.block.position() + field))
+        return true;
+      skipEvent();
+    }
+  }
+
+  /** the next event is the first event of the block with given index */
+  private void rewind(int block) {
+    clearAhead();
+    index = block - 1;
+    next = block;
+    this.block = null;
+  }
+
+  private void skipEvent() {
+    int position = block.position();
+    block.position(position + MappedLogReader.HEADER_SIZE + block.getInt(position + 20) + block.getInt(position + 24));
+  }
+
+  /** @return number of blocks */
+  public int getBlockCount() {
+    return blocks;
+  }
+
+  /** @return number of events in all blocks */
+  public long getEventCount() {
+    long sum = 0;
+    for (int block = 0; block < blocks; ++block)
+      sum += counts[block];
+    return sum;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    clearAhead();
+    if (Objects.nonNull(executorService))
+      executorService.shutdownNow();
+    fileChannel.close();
+  }
+}
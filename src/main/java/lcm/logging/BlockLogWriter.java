@@ -0,0 +1,164 @@
+// code by jph
+package lcm.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** writes events to a block-compressed log that is read by {@link BlockLog}
+ *
+ * The writer thread collects the serialized events in a block, and compresses
+ * and appends the block once it reaches the block size. Incomplete blocks are
+ * written at every commit, so that at most the events of one commit interval
+ * are lost in a crash. The index of the blocks is appended when the writer is
+ * closed. */
+public class BlockLogWriter extends AsyncLogWriter {
+  public static final int DEFAULT_BLOCK_SIZE = 256 << 10;
+
+  // ---
+  private final int blockSize;
+  private final Deflater deflater;
+  private final CRC32 crc32 = new CRC32();
+  private final ByteBuffer header = ByteBuffer.allocate(BlockLog.BLOCK_HEADER_SIZE);
+  // state below is only accessed by the writer thread
+  private byte[] block;
+  private int size = 0;
+  private int count = 0;
+  private long firstEventNumber;
+  private long firstUtime;
+  private byte[] compressed;
+  /** offset of next block in file */
+  private long offset = 0;
+  private ByteBuffer index = ByteBuffer.allocate(64 * BlockLog.INDEX_ENTRY_SIZE);
+  private volatile long compressedByteCount = 0;
+
+  /** @param path of log file, an existing file is truncated
+   * @param blockSize number of uncompressed bytes of a block
+   * @param level of compression from 1 (fastest) to 9 (smallest)
+   * @param capacity see {@link AsyncLogWriter}
+   * @param commitInterval_ms see {@link AsyncLogWriter}
+   * @throws IOException */
+  public BlockLogWriter(String path, int blockSize, int level, long capacity, int commitInterval_ms) throws IOException {
+    super(path, capacity, commitInterval_ms, open(path));
+    if (blockSize <= 0 || level < 1 || 9 < level)
+      throw new IllegalArgumentException("block=" + blockSize + " level=" + level);
+    this.blockSize = blockSize;
+    deflater = new Deflater(level, true);
+    block = new byte[blockSize];
+    compressed = new byte[blockSize];
+    start();
+  }
+
+  /** @param path of log file, an existing file is truncated
+   * @throws IOException */
+  public BlockLogWriter(String path) throws IOException {
+    this(path, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED, DEFAULT_CAPACITY, DEFAULT_COMMIT_INTERVAL_MS);
+  }
+
+  @Override
+  /* package */ void write(FileChannel fileChannel, ByteBuffer byteBuffer) throws IOException {
+    while (byteBuffer.hasRemaining()) {
+      int position = byteBuffer.position();
+      int length = MappedLogReader.HEADER_SIZE + byteBuffer.getInt(position + 20) + byteBuffer.getInt(position + 24);
+      if (0 < size && blockSize < size + length)
+        writeBlock(fileChannel);
+      if (count == 0) {
+        firstEventNumber = byteBuffer.getLong(position + 4);
+        firstUtime = byteBuffer.getLong(position + 12);
+      }
+      if (block.length < size + length) // event is larger than a block
+        block = Arrays.copyOf(block, size + length);
+      byteBuffer.get(block, size, length);
+      size += length;
+      ++count;
+    }
+  }
+
+  @Override
+  /* package */ void commit(FileChannel fileChannel) throws IOException {
+    if (0 < size)
+      writeBlock(fileChannel);
+  }
+
+  @Override
+  /* package */ void finish(FileChannel fileChannel) throws IOException {
+    commit(fileChannel);
+    writeHeader(fileChannel);
+    long position = offset;
+    ByteBuffer trailer = ByteBuffer.allocate(8 + index.position() + BlockLog.TRAILER_SIZE);
+    trailer.putInt(BlockLog.INDEX_MAGIC);
+    trailer.putInt(index.position() / BlockLog.INDEX_ENTRY_SIZE);
+    index.flip();
+    trailer.put(index);
+    trailer.putLong(position);
+    trailer.putInt(BlockLog.END_MAGIC);
+    trailer.flip();
+    writeFully(fileChannel, trailer);
+    deflater.end();
+  }
+
+  /** writes the file header before the first block */
+  private void writeHeader(FileChannel fileChannel) throws IOException {
+    if (offset == 0) {
+      ByteBuffer byteBuffer = ByteBuffer.allocate(BlockLog.FILE_HEADER_SIZE);
+      byteBuffer.putInt(BlockLog.FILE_MAGIC);
+      byteBuffer.putInt(BlockLog.VERSION);
+      byteBuffer.flip();
+      writeFully(fileChannel, byteBuffer);
+    }
+  }
+
+  private void writeBlock(FileChannel fileChannel) throws IOException {
+    writeHeader(fileChannel);
+    deflater.reset();
+    deflater.setInput(block, 0, size);
+    deflater.finish();
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == compressed.length)
+        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+    crc32.reset();
+    crc32.update(block, 0, size);
+    header.clear();
+    header.putInt(BlockLog.BLOCK_MAGIC);
+    header.putInt(length);
+    header.putInt(size);
+    header.putInt(count);
+    header.putLong(firstEventNumber);
+    header.putLong(firstUtime);
+    header.putInt((int) crc32.getValue());
+    header.flip();
+    if (index.remaining() < BlockLog.INDEX_ENTRY_SIZE) {
+      ByteBuffer grow = ByteBuffer.allocate(2 * index.capacity());
+      index.flip();
+      index = grow.put(index);
+    }
+    index.putLong(offset);
+    index.putLong(firstEventNumber);
+    index.putLong(firstUtime);
+    index.putInt(count);
+    ByteBuffer[] byteBuffers = { header, ByteBuffer.wrap(compressed, 0, length) };
+    while (byteBuffers[1].hasRemaining())
+      fileChannel.write(byteBuffers);
+    offset += BlockLog.BLOCK_HEADER_SIZE + length;
+    compressedByteCount += BlockLog.BLOCK_HEADER_SIZE + length;
+    size = 0;
+    count = 0;
+  }
+
+  private void writeFully(FileChannel fileChannel, ByteBuffer byteBuffer) throws IOException {
+    offset += byteBuffer.remaining();
+    while (byteBuffer.hasRemaining())
+      fileChannel.write(byteBuffer);
+  }
+
+  /** @return number of bytes of the compressed blocks written to the file */
+  public long getCompressedByteCount() {
+    return compressedByteCount;
+  }
+}
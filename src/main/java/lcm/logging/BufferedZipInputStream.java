@@ -1,8 +1,14 @@
 package lcm.logging;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -11,29 +17,138 @@ import lcm.util.BufferedRandomAccessFile;
 /** Class for reading compressed input stream sequentially. Similar to
  * {@link BufferedRandomAccessFile} for {@link Log}, but for
  * {@link ZipLogEventReader}.
- * 
+ *
+ * A background thread inflates the stream ahead of the reader into a ring of
+ * large buffers. The reader decodes primitives directly from the current
+ * buffer, and only falls back to single bytes at the end of a buffer.
+ *
+ * The metrics indicate the bottleneck: when the reader stalls, the inflater
+ * is slower than the reader; when the inflater idles, all buffers are full
+ * and the read-ahead depth is sufficient.
+ *
  * @author anritter */
 public class BufferedZipInputStream {
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+  public static final int DEFAULT_DEPTH = 4;
+
+  private static class Chunk {
+    final byte[] array;
+    int length;
+
+    Chunk(int size) {
+      array = new byte[size];
+    }
+  }
+
+  /** marks the end of the stream */
+  private static final Chunk END = new Chunk(0);
+  // ---
   private final ZipInputStream zipInputStream;
+  private final long length;
+  /** number of compressed bytes read from the file */
+  private volatile long compressedCount = 0;
+  private final BlockingQueue<Chunk> free;
+  private final BlockingQueue<Chunk> full;
+  private final InflaterThread inflaterThread = new InflaterThread();
+  private volatile IOException exception = null;
+  // state of reader
+  private Chunk chunk = null;
+  private byte[] buffer = new byte[0];
+  private int position = 0;
+  private int limit = 0;
+  // metrics
+  private volatile long byteCount = 0;
+  private volatile long inflateNanos = 0;
+  private volatile long idleNanos = 0;
+  private long stallCount = 0;
+  private long stallNanos = 0;
 
   public BufferedZipInputStream(String path) throws IOException {
-    zipInputStream = new ZipInputStream(new FileInputStream(path));
+    this(path, DEFAULT_BUFFER_SIZE, DEFAULT_DEPTH);
+  }
+
+  /** @param path
+   * @param bufferSize number of bytes of each buffer
+   * @param depth number of buffers that are inflated ahead of the reader
+   * @throws IOException */
+  public BufferedZipInputStream(String path, int bufferSize, int depth) throws IOException {
+    if (bufferSize <= 0 || depth <= 0)
+      throw new IllegalArgumentException("bufferSize=" + bufferSize + " depth=" + depth);
+    length = new File(path).length();
+    zipInputStream = new ZipInputStream(new FilterInputStream(new FileInputStream(path)) {
+      @Override
+      public int read() throws IOException {
+        int value = super.read();
+        if (0 <= value)
+          ++compressedCount;
+        return value;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (0 < count)
+          compressedCount += count;
+        return count;
+      }
+    });
     ZipEntry zipEntry = null;
     while ((zipEntry = zipInputStream.getNextEntry()) != null)
       // entry name must be equal to file name of path
       if (path.endsWith(zipEntry.getName() + ".zip"))
         break;
+    // one buffer is held by the reader
+    free = new ArrayBlockingQueue<>(depth + 1);
+    full = new ArrayBlockingQueue<>(depth + 1);
+    for (int count = 0; count <= depth; ++count)
+      free.add(new Chunk(bufferSize));
+    inflaterThread.start();
   }
 
   public void close() throws IOException {
+    inflaterThread.interrupt();
+    try {
+      inflaterThread.join();
+    } catch (InterruptedException ex) {
+      // ---
+    }
     zipInputStream.close();
   }
 
-  public final int read() throws IOException {
-    int byteRead = zipInputStream.read();
-    if (byteRead == -1)
+  /** makes the next inflated buffer the current buffer
+   *
+   * @throws EOFException at the end of the stream */
+  private void fill() throws IOException {
+    if (Objects.nonNull(chunk))
+      free.add(chunk);
+    chunk = null;
+    Chunk next = full.poll();
+    if (Objects.isNull(next)) {
+      ++stallCount;
+      long tic = System.nanoTime();
+      try {
+        next = full.take();
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
+      stallNanos += System.nanoTime() - tic;
+    }
+    if (next == END) {
+      full.add(END); // subsequent reads also fail
+      if (Objects.nonNull(exception))
+        throw exception;
       throw new EOFException("EOF");
-    return byteRead & 0xff;
+    }
+    chunk = next;
+    buffer = next.array;
+    position = 0;
+    limit = next.length;
+  }
+
+  public final int read() throws IOException {
+    if (position == limit)
+      fill();
+    return buffer[position++] & 0xff;
   }
 
   public boolean readBoolean() throws IOException {
@@ -45,44 +160,83 @@ public class BufferedZipInputStream {
   }
 
   public short readShort() throws IOException {
-    short v = 0;
-    v |= (read() << 8);
-    v |= (read());
-    return v;
+    if (limit - position < 2) {
+      short v = 0;
+      v |= (read() << 8);
+      v |= (read());
+      return v;
+    }
+    int p = position;
+    position += 2;
+    return (short) ((buffer[p] << 8) | (buffer[p + 1] & 0xff));
   }
 
   public void readFully(byte[] b, int offset, int length) throws IOException {
-    int numRead = zipInputStream.read(b, offset, length);
-    if (numRead == -1)
-      throw new EOFException("EOF");
-    if (numRead != length) // happens. Read again remaining bytes.
-      readFully(b, offset + numRead, length - numRead);
+    while (0 < length) {
+      if (position == limit)
+        fill();
+      int thiscopy = Math.min(limit - position, length);
+      System.arraycopy(buffer, position, b, offset, thiscopy);
+      position += thiscopy;
+      offset += thiscopy;
+      length -= thiscopy;
+    }
   }
 
   public void readFully(byte[] b) throws IOException {
     readFully(b, 0, b.length);
   }
 
+  /** @param length number of bytes to skip, the bytes are decompressed but
+   * not copied
+   * @throws EOFException if the stream ends before */
+  public void skipFully(long length) throws IOException {
+    while (0 < length) {
+      if (position == limit)
+        fill();
+      int thisskip = (int) Math.min(limit - position, length);
+      position += thisskip;
+      length -= thisskip;
+    }
+  }
+
   public int readInt() throws IOException {
-    int v = 0;
-    v |= (read() << 24);
-    v |= (read() << 16);
-    v |= (read() << 8);
-    v |= (read());
-    return v;
+    if (limit - position < 4) {
+      int v = 0;
+      v |= (read() << 24);
+      v |= (read() << 16);
+      v |= (read() << 8);
+      v |= (read());
+      return v;
+    }
+    int p = position;
+    position += 4;
+    return decodeInt(p);
   }
 
   public long readLong() throws IOException {
-    long v = 0;
-    v |= (((long) read()) << 56);
-    v |= (((long) read()) << 48);
-    v |= (((long) read()) << 40);
-    v |= (((long) read()) << 32);
-    v |= (((long) read()) << 24);
-    v |= (((long) read()) << 16);
-    v |= (((long) read()) << 8);
-    v |= read();
-    return v;
+    if (limit - position < 8) {
+      long v = 0;
+      v |= (((long) read()) << 56);
+      v |= (((long) read()) << 48);
+      v |= (((long) read()) << 40);
+      v |= (((long) read()) << 32);
+      v |= (((long) read()) << 24);
+      v |= (((long) read()) << 16);
+      v |= (((long) read()) << 8);
+      v |= read();
+      return v;
+    }
+    int p = position;
+    position += 8;
+    return ((long) decodeInt(p) << 32) | (decodeInt(p + 4) & 0xffffffffL);
+  }
+
+  private int decodeInt(int p) {
+    return (buffer[p] << 24) //
+        | ((buffer[p + 1] & 0xff) << 16) //
+        | ((buffer[p + 2] & 0xff) << 8) //
+        | (buffer[p + 3] & 0xff);
   }
 
   public float readFloat() throws IOException {
@@ -92,4 +246,76 @@ public class BufferedZipInputStream {
   public double readDouble() throws IOException {
     return Double.longBitsToDouble(readLong());
   }
+
+  /** @return fraction of the compressed file that has been read by the
+   * inflater, which is slightly ahead of the reader */
+  public double getPositionFraction() {
+    return length == 0 ? 0 : compressedCount / (double) length;
+  }
+
+  /** @return number of bytes inflated so far */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /** @return bytes per second inflated while the inflater was busy */
+  public double getInflateRate() {
+    long nanos = inflateNanos;
+    return nanos == 0 ? 0 : byteCount * 1e9 / nanos;
+  }
+
+  /** @return number of times the reader waited for the inflater, may only be
+   * called by the thread that reads */
+  public long getStallCount() {
+    return stallCount;
+  }
+
+  /** @return total duration in nanoseconds the reader waited for the
+   * inflater, may only be called by the thread that reads */
+  public long getStallNanos() {
+    return stallNanos;
+  }
+
+  /** @return total duration in nanoseconds the inflater waited because all
+   * buffers were full */
+  public long getIdleNanos() {
+    return idleNanos;
+  }
+
+  private class InflaterThread extends Thread {
+    InflaterThread() {
+      setDaemon(true);
+      setName("LCM-zip-inflate");
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long tic = System.nanoTime();
+          Chunk next = free.take();
+          long toc = System.nanoTime();
+          idleNanos += toc - tic;
+          int length = 0;
+          int count = 0;
+          while (length < next.array.length && 0 <= (count = zipInputStream.read(next.array, length, next.array.length - length)))
+            length += count;
+          next.length = length;
+          byteCount += length;
+          inflateNanos += System.nanoTime() - toc;
+          if (0 < length)
+            full.put(next);
+          if (count < 0) {
+            full.put(END);
+            return;
+          }
+        }
+      } catch (InterruptedException ex) {
+        // ---
+      } catch (IOException ex) {
+        exception = ex;
+        full.add(END);
+      }
+    }
+  }
 }
@@ -1,20 +1,35 @@
 // code by lcm
 package lcm.logging;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.function.Predicate;
 
 import lcm.lcm.LCMDataOutputStream;
 import lcm.lcm.LCMEncodable;
 import lcm.util.BufferedRandomAccessFile;
+import lcm.util.ChannelNameCache;
 
 /** A class for reading and writing LCM log files. */
-public class Log implements AutoCloseable {
+public class Log implements LogReader {
   static final int LOG_MAGIC = 0xEDA1DA01;
   // ---
   private final BufferedRandomAccessFile raf;
   private final String path;
   /* Used to count the number of messages written so far. */
   long numMessagesWritten = 0;
+  /** offset of the magic number of the event read last */
+  private long eventOffset = 0;
+  /** index of the log file, built on demand */
+  private LogIndex logIndex = null;
+  /** length of the log file when the index was obtained */
+  private long logIndexLength = -1;
+  /** channel of events read by {@link #readNext(Predicate)} */
+  private final byte[] channelBytes = new byte[256];
+  /** channel names of events read by {@link #readNext(Event)} */
+  private final ChannelNameCache channelNameCache = new ChannelNameCache(1024, Charset.defaultCharset());
 
   /** Represents a single received LCM message. */
   public static class Event {
@@ -23,10 +38,40 @@ public class Log implements AutoCloseable {
     public long utime;
     /** Event number assigned to the message in the log file. */
     public long eventNumber;
-    /** Raw data bytes of the message body. */
+    /** Raw data bytes of the message body. An event that is reused by
+     * {@link LogReader#readNext(Event)} keeps the array of a previous larger
+     * message, so that only the first {@link #getLength()} bytes are valid. */
     public byte[] data;
     /** Channel on which the message was received. */
     public String channel;
+    /** array of data to which length applies */
+    private byte[] lengthData;
+    private int length;
+
+    /** @return number of valid bytes at the beginning of data as given to
+     * {@link #setData(byte[], int)}, or the length of the array if data was
+     * assigned directly */
+    public int getLength() {
+      return data == lengthData ? length : data.length;
+    }
+
+    /** @param data of message body
+     * @param length number of valid bytes at the beginning of data */
+    public void setData(byte[] data, int length) {
+      if (length < 0 || data.length < length)
+        throw new IllegalArgumentException("length=" + length);
+      this.data = data;
+      lengthData = data;
+      this.length = length;
+    }
+
+    /** @param length of the next message body
+     * @return data with a capacity of at least the given length, the array is
+     * only allocated when the current array is too small */
+    /* package */ byte[] reserve(int length) {
+      setData(Objects.isNull(data) || data.length < length ? new byte[length] : data, length);
+      return data;
+    }
   }
 
   /** Opens a log file for reading or writing.
@@ -38,13 +83,26 @@ public class Log implements AutoCloseable {
    * "rwd". See {@link java.io.RandomAccessFile#RandomAccessFile
    * RandomAccessFile} for more detail. */
   public Log(String path, String mode) throws IOException {
+    this(path, mode, BufferedRandomAccessFile.DEFAULT_BUFFER_SIZE);
+  }
+
+  /** Opens a log file for reading or writing.
+   *
+   * @param path
+   * the filename to open
+   * @param mode
+   * "r", "rw", "rws", or "rwd"
+   * @param bufferSize
+   * size of the buffer of the file in bytes, must be a power of two */
+  public Log(String path, String mode, int bufferSize) throws IOException {
     this.path = path;
-    raf = new BufferedRandomAccessFile(path, mode);
+    raf = new BufferedRandomAccessFile(path, mode, bufferSize);
   }
 
   /** Retrieves the path to the log file.
    * 
    * @return the path to the log file */
+  @Override
   public String getPath() {
     return path;
   }
@@ -58,15 +116,30 @@ public class Log implements AutoCloseable {
    *
    * @throws java.io.EOFException
    * if the end of the file has been reached. */
+  @Override
   public synchronized Event readNext() throws IOException {
+    return readNext(new Event());
+  }
+
+  /** Reads the next event in the log file into the given event. The payload
+   * array of the event is only replaced when it is too small, and the channel
+   * names are interned, so that a scan over the log with a single event does
+   * not allocate memory per event.
+   *
+   * @param event that is overwritten
+   * @return given event
+   * @throws java.io.EOFException
+   * if the end of the file has been reached. */
+  @Override
+  public synchronized Event readNext(Event event) throws IOException {
     int magic = 0;
-    Event event = new Event();
     int channellen = 0, datalen = 0;
     while (true) {
       int v = raf.readByte() & 0xff; // typically the cause of an exception at EOF
       magic = (magic << 8) | v;
       if (magic != LOG_MAGIC)
         continue;
+      eventOffset = raf.getFilePointer() - 4;
       event.eventNumber = raf.readLong();
       event.utime = raf.readLong();
       channellen = raf.readInt();
@@ -78,14 +151,52 @@ public class Log implements AutoCloseable {
       }
       break;
     }
-    byte bchannel[] = new byte[channellen];
-    event.data = new byte[datalen];
-    raf.readFully(bchannel);
-    event.channel = new String(bchannel);
-    raf.readFully(event.data);
+    raf.readFully(channelBytes, 0, channellen);
+    event.channel = channelNameCache.get(channelBytes, 0, channellen);
+    raf.readFully(event.reserve(datalen), 0, datalen);
     return event;
   }
 
+  /** Reads the next event on a channel that satisfies the given predicate.
+   * Only the header and the channel name of the other events are read, their
+   * payload is skipped by a seek.
+   *
+   * @param predicate for instance channels::contains
+   * @return next event with a channel accepted by given predicate
+   * @throws java.io.EOFException
+   * if the end of the file has been reached. */
+  public synchronized Event readNext(Predicate<String> predicate) throws IOException {
+    int magic = 0;
+    while (true) {
+      int v = raf.readByte() & 0xff; // typically the cause of an exception at EOF
+      magic = (magic << 8) | v;
+      if (magic != LOG_MAGIC)
+        continue;
+      eventOffset = raf.getFilePointer() - 4;
+      long eventNumber = raf.readLong();
+      long utime = raf.readLong();
+      int channellen = raf.readInt();
+      int datalen = raf.readInt();
+      if (channellen <= 0 || datalen <= 0 || channellen >= 256 || datalen >= 16 * 1024 * 1024) {
+        System.out.printf("Bad log event eventnumber = 0x%08x utime = 0x%08x channellen = 0x%08x datalen=0x%08x\n", eventNumber, utime, channellen, datalen);
+        continue;
+      }
+      raf.readFully(channelBytes, 0, channellen);
+      String channel = channelNameCache.get(channelBytes, 0, channellen);
+      if (predicate.test(channel)) {
+        Event event = new Event();
+        event.eventNumber = eventNumber;
+        event.utime = utime;
+        event.channel = channel;
+        raf.readFully(event.reserve(datalen), 0, datalen);
+        return event;
+      }
+      raf.seek(raf.getFilePointer() + datalen);
+      magic = 0;
+    }
+  }
+
+  @Override
   public synchronized double getPositionFraction() {
     return raf.getFilePointer() / ((double) raf.length());
   }
@@ -94,10 +205,95 @@ public class Log implements AutoCloseable {
    *
    * @param frac
    * a number in the range [0, 1) */
+  @Override
   public synchronized void seekPositionFraction(double frac) throws IOException {
     raf.seek((long) (raf.length() * frac));
   }
 
+  /** @return offset in the file at which the next event is searched */
+  public synchronized long getFilePointer() {
+    return raf.getFilePointer();
+  }
+
+  /** @param position offset in the file at which the next event is searched */
+  public synchronized void seek(long position) throws IOException {
+    raf.seek(position);
+  }
+
+  /** @return index of the log file, the index is extended when the log file
+   * has grown since the last invocation
+   * @throws IOException */
+  public synchronized LogIndex getIndex() throws IOException {
+    raf.flush();
+    long length = raf.length();
+    if (Objects.isNull(logIndex) || logIndexLength != length) {
+      logIndex = LogIndex.of(path);
+      logIndexLength = length;
+    }
+    return logIndex;
+  }
+
+  /** Seek to the first event with a time of message receipt greater or equal
+   * to the given time, so that the next invocation of {@link #readNext()}
+   * returns that event.
+   *
+   * @param utime in microseconds since 00:00:00 UTC January 1, 1970
+   * @return false if there is no such event, then the file pointer is at the
+   * end of the file */
+  public synchronized boolean seekToUtime(long utime) throws IOException {
+    raf.seek(getIndex().offsetBeforeUtime(utime));
+    try {
+      while (readNext().utime < utime)
+        ;
+    } catch (EOFException ex) {
+      return false;
+    }
+    raf.seek(eventOffset);
+    return true;
+  }
+
+  /** Seek to the first event with an event number greater or equal to the
+   * given event number, so that the next invocation of {@link #readNext()}
+   * returns that event.
+   *
+   * @param eventNumber
+   * @return false if there is no such event, then the file pointer is at the
+   * end of the file */
+  public synchronized boolean seekToEventNumber(long eventNumber) throws IOException {
+    raf.seek(getIndex().offsetBeforeEventNumber(eventNumber));
+    try {
+      while (readNext().eventNumber < eventNumber)
+        ;
+    } catch (EOFException ex) {
+      return false;
+    }
+    raf.seek(eventOffset);
+    return true;
+  }
+
+  /** Reads the next event on the given channel, and skips the events on other
+   * channels.
+   *
+   * @param channel
+   * @return next event on given channel, or null if there is no such event, then
+   * the file pointer is at the end of the file */
+  public synchronized Event nextOnChannel(String channel) throws IOException {
+    LogIndex index = getIndex();
+    long position = raf.getFilePointer();
+    long offset = index.nextOnChannel(channel, position);
+    // events that were appended after the index was built are scanned
+    raf.seek(offset < 0 ? Math.max(position, index.getIndexedLength()) : offset);
+    try {
+      while (true) {
+        Event event = readNext();
+        if (event.channel.equals(channel))
+          return event;
+      }
+    } catch (EOFException ex) {
+      return null;
+    }
+  }
+
   /** Writes an event to the log file. The user is responsible for filling in
    * the eventNumber field, which should be sequentially increasing integers
    * starting with 0. */
@@ -107,9 +303,9 @@ public class Log implements AutoCloseable {
     raf.writeLong(event.eventNumber);
     raf.writeLong(event.utime);
     raf.writeInt(channelb.length);
-    raf.writeInt(event.data.length);
+    raf.writeInt(event.getLength());
     raf.write(channelb, 0, channelb.length);
-    raf.write(event.data, 0, event.data.length);
+    raf.write(event.data, 0, event.getLength());
   }
 
   /** A convenience method for write. It internally manages the eventNumber
@@ -17,7 +17,7 @@ public class LogEventWriter {
   public void write(Event event) throws IOException {
     Event le = new Event();
     le.utime = event.utime;
-    le.data = event.data;
+    le.setData(event.data, event.getLength());
     le.channel = event.channel;
     le.eventNumber = ++count;
     log.write(le);
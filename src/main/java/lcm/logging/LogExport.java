@@ -0,0 +1,336 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** copies a region of a log to a new log file, restricted to channels that
+ * pass a filter and to a window of time
+ *
+ * For a plain log file, only the headers of the events are read. Consecutive
+ * accepted events form a run that is copied from file to file with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * without passing through the Java heap. When the events are renumbered,
+ * the header of an event is rewritten only if the number of the event in the
+ * source differs from the number in the export, so that an export from the
+ * beginning of an unfiltered log is still copied in runs.
+ *
+ * Other formats, for instance zipped, block-compressed, segmented, and merged
+ * logs, are decoded event by event into a reused {@link Log.Event}.
+ *
+ * The export runs on the calling thread, see {@link #call()}. The progress is
+ * reported to a listener at most every 1% of the region, so that a user
+ * interface may run the export on a background thread and update a progress
+ * bar asynchronously.
+ *
+ * <pre>
+ * java lcm.logging.LogExport [options] input output
+ * </pre> */
+public class LogExport implements Callable<Long> {
+  private static final int PROGRESS_STEPS = 100;
+
+  // ---
+  private final String source;
+  private final String target;
+  private Predicate<String> filter = channel -> true;
+  private double begin = 0;
+  private double end = 1;
+  private long utimeBegin = Long.MIN_VALUE;
+  private long utimeEnd = Long.MAX_VALUE;
+  private boolean renumber = false;
+  private DoubleConsumer progress = fraction -> {
+    // ---
+  };
+  private volatile boolean cancelled = false;
+  // statistics
+  private volatile long eventCount = 0;
+  private volatile long byteCount = 0;
+  private volatile long renumberCount = 0;
+  private volatile long runCount = 0;
+
+  /** @param source path of the log to export from, see
+   * {@link LogReaders#open(String)}
+   * @param target path of the log file to write, an existing file is
+   * truncated */
+  public LogExport(String source, String target) {
+    this.source = Objects.requireNonNull(source);
+    this.target = Objects.requireNonNull(target);
+  }
+
+  /** @param filter of channels that are exported
+   * @return this */
+  public LogExport setChannelFilter(Predicate<String> filter) {
+    this.filter = Objects.requireNonNull(filter);
+    return this;
+  }
+
+  /** @param begin position in the log as a fraction in the interval [0, 1]
+   * @param end position in the log as a fraction in the interval [0, 1]
+   * @return this */
+  public LogExport setRegion(double begin, double end) {
+    this.begin = begin;
+    this.end = end;
+    return this;
+  }
+
+  /** Events before the beginning of the window are skipped. The export ends
+   * at the first event after the end of the window, because the events of a
+   * log are recorded in the order of time.
+   *
+   * @param utimeBegin first time of the window in microseconds
+   * @param utimeEnd end of the window in microseconds, exclusive
+   * @return this */
+  public LogExport setTimeWindow(long utimeBegin, long utimeEnd) {
+    this.utimeBegin = utimeBegin;
+    this.utimeEnd = utimeEnd;
+    return this;
+  }
+
+  /** @param renumber whether the exported events are numbered 0, 1, 2, ...
+   * instead of keeping the numbers of the source
+   * @return this */
+  public LogExport setRenumber(boolean renumber) {
+    this.renumber = renumber;
+    return this;
+  }
+
+  /** @param progress is given the fraction of the region that has been
+   * exported, on the thread that runs the export
+   * @return this */
+  public LogExport setProgressListener(DoubleConsumer progress) {
+    this.progress = Objects.requireNonNull(progress);
+    return this;
+  }
+
+  /** requests the export to stop, the events that have been exported so far
+   * remain in the target file. May be called from any thread. */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /** @return number of events exported */
+  @Override
+  public Long call() throws IOException {
+    LogReader logReader = LogReaders.open(source);
+    if (logReader instanceof Log) {
+      logReader.close();
+      exportFile();
+    } else
+      try (LogReader _logReader = logReader) {
+        exportEvents(_logReader);
+      }
+    progress.accept(1);
+    return eventCount;
+  }
+
+  private boolean accept(String channel, long utime) {
+    return utimeBegin <= utime && filter.test(channel);
+  }
+
+  /** exports a plain log file in runs */
+  private void exportFile() throws IOException {
+    try (MappedLogReader mappedLogReader = new MappedLogReader(source);
+        FileChannel input = FileChannel.open(Paths.get(source), StandardOpenOption.READ);
+        FileChannel output = FileChannel.open(Paths.get(target), //
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long length = mappedLogReader.length();
+      long first = (long) (length * begin);
+      long last = (long) (length * end);
+      long step = Math.max(1, (last - first) / PROGRESS_STEPS);
+      long report = first + step;
+      mappedLogReader.seek(first);
+      ByteBuffer header = ByteBuffer.allocate(MappedLogReader.HEADER_SIZE);
+      ByteBuffer[] byteBuffers = new ByteBuffer[3];
+      long runBegin = 0;
+      long runEnd = 0;
+      while (!cancelled && mappedLogReader.getFilePointer() < last && mappedLogReader.advance()) {
+        long offset = mappedLogReader.getEventOffset();
+        if (last <= offset || utimeEnd <= mappedLogReader.getUtime())
+          break;
+        if (report <= offset) {
+          progress.accept((offset - first) / (double) (last - first));
+          report = offset + step;
+        }
+        if (!accept(mappedLogReader.getChannel(), mappedLogReader.getUtime()))
+          continue;
+        long next = mappedLogReader.getFilePointer();
+        if (renumber && mappedLogReader.getEventNumber() != eventCount) {
+          transfer(input, output, runBegin, runEnd);
+          runBegin = runEnd = next;
+          // rewrite header, and copy channel and payload as stored in the
+          // source, because the decoding of the channel is not reversible for
+          // every sequence of bytes
+          ByteBuffer channel = mappedLogReader.getChannelBytes();
+          ByteBuffer data = mappedLogReader.getData();
+          header.clear();
+          header.putInt(Log.LOG_MAGIC);
+          header.putLong(eventCount);
+          header.putLong(mappedLogReader.getUtime());
+          header.putInt(channel.remaining());
+          header.putInt(data.remaining());
+          header.flip();
+          byteBuffers[0] = header;
+          byteBuffers[1] = channel;
+          byteBuffers[2] = data;
+          while (data.hasRemaining())
+            byteCount += output.write(byteBuffers);
+          ++renumberCount;
+        } else //
+        if (offset == runEnd)
+          runEnd = next;
+        else {
+          transfer(input, output, runBegin, runEnd);
+          runBegin = offset;
+          runEnd = next;
+        }
+        ++eventCount;
+      }
+      transfer(input, output, runBegin, runEnd);
+    }
+  }
+
+  /** copies the bytes of a run of events from input to output */
+  private void transfer(FileChannel input, FileChannel output, long runBegin, long runEnd) throws IOException {
+    long position = runBegin;
+    while (position < runEnd)
+      position += input.transferTo(position, runEnd - position, output);
+    if (runBegin < runEnd) {
+      byteCount += runEnd - runBegin;
+      ++runCount;
+    }
+  }
+
+  /** exports a log in a format other than a plain log file */
+  private void exportEvents(LogReader logReader) throws IOException {
+    Files.deleteIfExists(Paths.get(target));
+    try (Log log = new Log(target, "rw")) {
+      logReader.seekPositionFraction(begin);
+      double report = begin + (end - begin) / PROGRESS_STEPS;
+      Log.Event event = new Log.Event();
+      try {
+        while (!cancelled) {
+          double fraction = logReader.getPositionFraction();
+          // the position of a reader with read-ahead may reach 1 before the
+          // last event, so that the end of the log is determined by EOF
+          if (end < 1 && end <= fraction)
+            break;
+          if (report <= fraction) {
+            progress.accept(end == begin ? 1 : (fraction - begin) / (end - begin));
+            report = fraction + (end - begin) / PROGRESS_STEPS;
+          }
+          event = logReader.readNext(event);
+          if (utimeEnd <= event.utime)
+            break;
+          if (!accept(event.channel, event.utime))
+            continue;
+          if (renumber) {
+            event.eventNumber = eventCount;
+            ++renumberCount;
+          }
+          log.write(event);
+          byteCount += MappedLogReader.HEADER_SIZE + event.channel.getBytes(Charset.defaultCharset()).length + event.getLength();
+          ++eventCount;
+        }
+      } catch (EOFException exception) {
+        // end of log
+      }
+    }
+  }
+
+  /** @return number of events exported so far */
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  /** @return number of bytes written so far */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /** @return number of events whose event number was rewritten */
+  public long getRenumberCount() {
+    return renumberCount;
+  }
+
+  /** @return number of runs of events copied with a single transfer */
+  public long getRunCount() {
+    return runCount;
+  }
+
+  private static void usage() {
+    System.err.println("usage: lcm.logging.LogExport [options] input output");
+    System.err.println("  -c, --channel REGEX   export channels that match the regular expression");
+    System.err.println("  -b, --begin SECONDS   begin of window relative to the first event");
+    System.err.println("  -e, --end SECONDS     end of window relative to the first event");
+    System.err.println("  -r, --renumber        number the exported events 0, 1, 2, ...");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws IOException {
+    String regex = null;
+    double beginSeconds = Double.NaN;
+    double endSeconds = Double.NaN;
+    boolean renumber = false;
+    String input = null;
+    String output = null;
+    for (int index = 0; index < args.length; ++index) {
+      String arg = args[index];
+      if ((arg.equals("-c") || arg.equals("--channel")) && index + 1 < args.length)
+        regex = args[++index];
+      else //
+      if ((arg.equals("-b") || arg.equals("--begin")) && index + 1 < args.length)
+        beginSeconds = Double.parseDouble(args[++index]);
+      else //
+      if ((arg.equals("-e") || arg.equals("--end")) && index + 1 < args.length)
+        endSeconds = Double.parseDouble(args[++index]);
+      else //
+      if (arg.equals("-r") || arg.equals("--renumber"))
+        renumber = true;
+      else //
+      if (arg.startsWith("-"))
+        usage();
+      else //
+      if (input == null)
+        input = arg;
+      else //
+      if (output == null)
+        output = arg;
+      else
+        usage();
+    }
+    if (input == null || output == null)
+      usage();
+    LogExport logExport = new LogExport(input, output).setRenumber(renumber);
+    if (regex != null) {
+      Pattern pattern = Pattern.compile(regex);
+      logExport.setChannelFilter(channel -> pattern.matcher(channel).matches());
+    }
+    if (!Double.isNaN(beginSeconds) || !Double.isNaN(endSeconds)) {
+      long utime;
+      try (LogReader logReader = LogReaders.open(input)) {
+        utime = logReader.readNext().utime;
+      }
+      logExport.setTimeWindow( //
+          Double.isNaN(beginSeconds) ? Long.MIN_VALUE : utime + (long) (beginSeconds * 1e6), //
+          Double.isNaN(endSeconds) ? Long.MAX_VALUE : utime + (long) (endSeconds * 1e6));
+    }
+    long tic = System.nanoTime();
+    long count = logExport.call();
+    System.out.printf("exported %d events, %d bytes in %.3f s\n", count, logExport.getByteCount(), (System.nanoTime() - tic) * 1e-9);
+  }
+}
@@ -0,0 +1,310 @@
+// code by jph
+package lcm.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/** index of a log file that allows to seek to a point in time, to an event
+ * number, or to the next event on a channel.
+ *
+ * The index consists of sparse checkpoints of (utime, event number, offset)
+ * for every {@link #INTERVAL}-th event, and of the offsets of all events per
+ * channel.
+ *
+ * The index is stored in a sidecar file next to the log with the extension
+ * ".idx". The sidecar records the length of the indexed part of the log and a
+ * checksum of the bytes preceding that length. When the log is opened again,
+ * the sidecar is reused if the log is unchanged, and extended if the log has
+ * grown. Otherwise, the index is rebuilt.
+ *
+ * Format of the sidecar, all numbers big-endian:
+ * <pre>
+ * int magic, int version, long indexed length, long checksum, long event count
+ * int number of checkpoints, {long utime, long event number, long offset}*
+ * int number of channels, {utf channel, int count, varint delta offset*}*
+ * </pre>
+ * The offsets of a channel are stored as differences to the previous offset
+ * in the variable length encoding of protobuf. */
+public class LogIndex {
+  static final int MAGIC = 0x4c434958; // ascii of "LCIX"
+  private static final int VERSION = 1;
+  /** number of events between checkpoints */
+  static final int INTERVAL = 1024;
+  /** number of bytes preceding the indexed length that are checksummed */
+  private static final int FINGERPRINT_SIZE = 4096;
+  private static final String EXTENSION = ".idx";
+
+  /** @param path of log file
+   * @return index of given log file, loaded from the sidecar file, extended,
+   * or rebuilt as required. An updated index is written to the sidecar file
+   * if possible.
+   * @throws IOException if the log file cannot be read */
+  public static LogIndex of(String path) throws IOException {
+    File file = new File(path + EXTENSION);
+    LogIndex logIndex = null;
+    if (file.isFile())
+      try {
+        logIndex = load(file);
+      } catch (IOException ex) {
+        System.err.println("LogIndex: discard " + file + " " + ex);
+      }
+    if (Objects.nonNull(logIndex) && !logIndex.isPrefixOf(path))
+      logIndex = null;
+    if (Objects.isNull(logIndex))
+      logIndex = new LogIndex();
+    if (logIndex.extend(path))
+      try {
+        logIndex.save(file);
+      } catch (IOException ex) {
+        System.err.println("LogIndex: cannot write " + file + " " + ex);
+      }
+    return logIndex;
+  }
+
+  /** offsets of the events on a channel */
+  private static class Offsets {
+    long[] array = new long[16];
+    int size = 0;
+
+    void add(long offset) {
+      if (size == array.length)
+        array = Arrays.copyOf(array, size * 2);
+      array[size++] = offset;
+    }
+
+    /** @param offset
+     * @return first offset greater or equal to given offset, or -1 */
+    long ceiling(long offset) {
+      int index = Arrays.binarySearch(array, 0, size, offset);
+      if (index < 0)
+        index = -index - 1;
+      return index < size ? array[index] : -1;
+    }
+  }
+
+  // ---
+  private long indexedLength = 0;
+  private long checksum = 0;
+  private long eventCount = 0;
+  // checkpoints
+  private long[] utimes = new long[16];
+  private long[] eventNumbers = new long[16];
+  private long[] offsets = new long[16];
+  private int checkpoints = 0;
+  private final Map<String, Offsets> channels = new LinkedHashMap<>();
+
+  private LogIndex() {
+  }
+
+  /** @param path of log file
+   * @return true if the indexed part of the log file is unchanged */
+  private boolean isPrefixOf(String path) throws IOException {
+    try (FileChannel fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      return indexedLength <= fileChannel.size() && checksum == checksum(fileChannel, indexedLength);
+    }
+  }
+
+  /** @param fileChannel
+   * @param length
+   * @return checksum of the bytes preceding given length */
+  private static long checksum(FileChannel fileChannel, long length) throws IOException {
+    int size = (int) Math.min(length, FINGERPRINT_SIZE);
+    ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+    while (byteBuffer.hasRemaining())
+      if (fileChannel.read(byteBuffer, length - size + byteBuffer.position()) < 0)
+        throw new IOException("unexpected end of file");
+    CRC32 crc32 = new CRC32();
+    crc32.update(byteBuffer.array(), 0, size);
+    return crc32.getValue();
+  }
+
+  /** indexes the events that follow the indexed part of the log file
+   *
+   * @param path
+   * @return true if events were added */
+  private boolean extend(String path) throws IOException {
+    long count = eventCount;
+    try (MappedLogReader mappedLogReader = new MappedLogReader(path)) {
+      if (mappedLogReader.length() == indexedLength)
+        return false;
+      mappedLogReader.seek(indexedLength);
+      while (mappedLogReader.advance()) {
+        long offset = mappedLogReader.getEventOffset();
+        if (eventCount % INTERVAL == 0)
+          addCheckpoint(mappedLogReader.getUtime(), mappedLogReader.getEventNumber(), offset);
+        channels.computeIfAbsent(mappedLogReader.getChannel(), key -> new Offsets()).add(offset);
+        ++eventCount;
+        indexedLength = mappedLogReader.getFilePointer();
+      }
+    }
+    try (FileChannel fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      checksum = checksum(fileChannel, indexedLength);
+    }
+    return count < eventCount;
+  }
+
+  private void addCheckpoint(long utime, long eventNumber, long offset) {
+    if (checkpoints == utimes.length) {
+      utimes = Arrays.copyOf(utimes, checkpoints * 2);
+      eventNumbers = Arrays.copyOf(eventNumbers, checkpoints * 2);
+      offsets = Arrays.copyOf(offsets, checkpoints * 2);
+    }
+    utimes[checkpoints] = utime;
+    eventNumbers[checkpoints] = eventNumber;
+    offsets[checkpoints] = offset;
+    ++checkpoints;
+  }
+
+  /** @param values sorted in the range [0, checkpoints)
+   * @param value
+   * @return offset of the last checkpoint with a value strictly less than
+   * given value, or 0 */
+  private long floor(long[] values, long value) {
+    int index = Arrays.binarySearch(values, 0, checkpoints, value);
+    if (index < 0)
+      index = -index - 1;
+    else // several checkpoints may have the same value
+      while (0 < index && values[index - 1] == value)
+        --index;
+    return 0 < index ? offsets[index - 1] : 0;
+  }
+
+  /** @param utime
+   * @return offset from which a forward scan finds the first event with a
+   * utime greater or equal to given utime */
+  public long offsetBeforeUtime(long utime) {
+    return floor(utimes, utime);
+  }
+
+  /** @param eventNumber
+   * @return offset from which a forward scan finds the event with given event
+   * number */
+  public long offsetBeforeEventNumber(long eventNumber) {
+    return floor(eventNumbers, eventNumber);
+  }
+
+  /** @param channel
+   * @param offset
+   * @return offset of the first event on given channel at or after given
+   * offset, or -1 if there is no such event in the indexed part */
+  public long nextOnChannel(String channel, long offset) {
+    Offsets list = channels.get(channel);
+    return Objects.isNull(list) ? -1 : list.ceiling(offset);
+  }
+
+  /** @return channels in the order of their first occurrence */
+  public Set<String> channels() {
+    return Collections.unmodifiableSet(channels.keySet());
+  }
+
+  /** @param channel
+   * @return number of events on given channel */
+  public int count(String channel) {
+    Offsets list = channels.get(channel);
+    return Objects.isNull(list) ? 0 : list.size;
+  }
+
+  /** @return number of events in the indexed part of the log */
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  /** @return number of bytes of the log that are indexed */
+  public long getIndexedLength() {
+    return indexedLength;
+  }
+
+  private void save(File file) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      dataOutputStream.writeInt(MAGIC);
+      dataOutputStream.writeInt(VERSION);
+      dataOutputStream.writeLong(indexedLength);
+      dataOutputStream.writeLong(checksum);
+      dataOutputStream.writeLong(eventCount);
+      dataOutputStream.writeInt(checkpoints);
+      for (int index = 0; index < checkpoints; ++index) {
+        dataOutputStream.writeLong(utimes[index]);
+        dataOutputStream.writeLong(eventNumbers[index]);
+        dataOutputStream.writeLong(offsets[index]);
+      }
+      dataOutputStream.writeInt(channels.size());
+      for (Map.Entry<String, Offsets> entry : channels.entrySet()) {
+        dataOutputStream.writeUTF(entry.getKey());
+        Offsets list = entry.getValue();
+        dataOutputStream.writeInt(list.size);
+        long previous = 0;
+        for (int index = 0; index < list.size; ++index) {
+          writeVarint(dataOutputStream, list.array[index] - previous);
+          previous = list.array[index];
+        }
+      }
+    }
+    // readers never observe a partially written index
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static LogIndex load(File file) throws IOException {
+    try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (dataInputStream.readInt() != MAGIC || dataInputStream.readInt() != VERSION)
+        throw new IOException("unknown format");
+      LogIndex logIndex = new LogIndex();
+      logIndex.indexedLength = dataInputStream.readLong();
+      logIndex.checksum = dataInputStream.readLong();
+      logIndex.eventCount = dataInputStream.readLong();
+      int checkpoints = dataInputStream.readInt();
+      for (int index = 0; index < checkpoints; ++index)
+        logIndex.addCheckpoint(dataInputStream.readLong(), dataInputStream.readLong(), dataInputStream.readLong());
+      int size = dataInputStream.readInt();
+      for (int count = 0; count < size; ++count) {
+        Offsets list = new Offsets();
+        logIndex.channels.put(dataInputStream.readUTF(), list);
+        int length = dataInputStream.readInt();
+        long offset = 0;
+        for (int index = 0; index < length; ++index) {
+          offset += readVarint(dataInputStream);
+          list.add(offset);
+        }
+      }
+      return logIndex;
+    }
+  }
+
+  private static void writeVarint(DataOutputStream dataOutputStream, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      dataOutputStream.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    dataOutputStream.writeByte((int) value);
+  }
+
+  private static long readVarint(DataInputStream dataInputStream) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = dataInputStream.readUnsignedByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("malformed varint");
+  }
+}
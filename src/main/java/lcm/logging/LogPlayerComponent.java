@@ -29,9 +29,11 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import javax.swing.Box;
 import javax.swing.ImageIcon;
@@ -43,7 +45,9 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 import lcm.lcm.LCM;
 
@@ -54,7 +58,7 @@ public class LogPlayerComponent extends JComponent {
     System.out.println("LC: Disabling IPV6 support");
   }
   // ---
-  private Log log;
+  private LogReader log;
   private final JButton playButton = new JButton("Play ");
   private final JButton stepButton = new JButton("Step");
   private final JButton fasterButton;
@@ -357,20 +361,31 @@ public class LogPlayerComponent extends JComponent {
       if (outpath == null)
         return;
       System.out.println("Exporting to " + outpath);
-      try (Log inlog = new Log(log.getPath(), "r")) {
-        try (Log outlog = new Log(outpath, "rw")) {
-          inlog.seekPositionFraction(p0);
-          while (inlog.getPositionFraction() < p1) {
-            Log.Event e = inlog.readNext();
-            Filter filter = filterMap.get(e.channel);
-            if (filter != null && filter.enabled)
-              outlog.write(e);
-          }
+      // the export runs on a background thread with a snapshot of the filters
+      Set<String> channels = filterMap.values().stream() //
+          .filter(filter -> filter.enabled) //
+          .map(filter -> filter.inchannel) //
+          .collect(Collectors.toSet());
+      LogExport logExport = new LogExport(log.getPath(), outpath) //
+          .setRegion(p0, p1) //
+          .setChannelFilter(channels::contains);
+      ProgressMonitor progressMonitor = new ProgressMonitor(LogPlayerComponent.this, "Exporting to " + outpath, null, 0, 1000);
+      logExport.setProgressListener(fraction -> SwingUtilities.invokeLater(() -> {
+        if (progressMonitor.isCanceled())
+          logExport.cancel();
+        else
+          progressMonitor.setProgress((int) (fraction * 1000));
+      }));
+      // not a daemon, so that the export is completed when the player exits
+      new Thread(() -> {
+        try {
+          long count = logExport.call();
+          System.out.printf("Done! %d events\n", count);
+        } catch (IOException ex) {
+          System.out.println("Exception: " + ex);
         }
-        System.out.printf("Done!\n");
-      } catch (IOException ex) {
-        System.out.println("Exception: " + ex);
-      }
+        SwingUtilities.invokeLater(progressMonitor::close);
+      }, "LCM-export").start();
     }
   }
 
@@ -562,7 +577,7 @@ public class LogPlayerComponent extends JComponent {
       // savePreferences();
     }
     currentLogPath = path;
-    log = new Log(path, "r");
+    log = LogReaders.open(path);
     logName.setText(new File(path).getName());
     try {
       Log.Event e = log.readNext();
@@ -688,12 +703,14 @@ public class LogPlayerComponent extends JComponent {
       long logOffset = 0;
       long last_e_utime = 0;
       BigFraction lastspeed = BigFraction.of(0, 1);
+      // reused for every event, the payload is copied by publish
+      Log.Event e = new Log.Event();
       synchronized (sync) {
         setPlaying(true);
       }
       try {
         while (!stopflag) {
-          Log.Event e = log.readNext();
+          e = log.readNext(e);
           if (!speed.equals(lastspeed)) {
             // System.out.printf("Speed changed. Old %12.6f new
             // %12.6f\n",
@@ -746,7 +763,7 @@ public class LogPlayerComponent extends JComponent {
             filter = addChannelFilter(e.channel, !invertFilteredPattern);
           }
           if (filter.enabled && filter.outchannel.length() > 0)
-            lcm.publish(filter.outchannel, e.data, 0, e.data.length);
+            lcm.publish(filter.outchannel, e.data, 0, e.getLength());
           js.set(log.getPositionFraction());
           // redraw labels no faster than 10 Hz
           long curTime = System.currentTimeMillis();
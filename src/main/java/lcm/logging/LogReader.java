@@ -0,0 +1,47 @@
+// code by jph
+package lcm.logging;
+
+import java.io.IOException;
+
+import lcm.logging.Log.Event;
+
+/** sequential and seekable read access to a log, implemented by a single log
+ * file {@link Log}, by a segmented log {@link SegmentedLog}, and by several
+ * logs merged in the order of time {@link MergedLog}
+ *
+ * @see LogReaders#open(String) */
+public interface LogReader extends AutoCloseable {
+  /** Reads the next event in the log
+   *
+   * @throws java.io.EOFException
+   * if the end of the log has been reached. */
+  Event readNext() throws IOException;
+
+  /** Reads the next event in the log into the given event, so that a scan
+   * over the log does not allocate an event per message. The default
+   * implementation returns a new event.
+   *
+   * @param event that may be overwritten
+   * @return event that was read, which is the given event if the reader
+   * supports the reuse of events
+   * @throws java.io.EOFException
+   * if the end of the log has been reached. */
+  default Event readNext(Event event) throws IOException {
+    return readNext();
+  }
+
+  /** @return position in the log as a fraction of the length of the log */
+  double getPositionFraction();
+
+  /** Seek to a position in the log, specified by a fraction.
+   *
+   * @param frac
+   * a number in the range [0, 1) */
+  void seekPositionFraction(double frac) throws IOException;
+
+  /** @return the path from which the log was opened */
+  String getPath();
+
+  @Override
+  void close() throws IOException;
+}
@@ -0,0 +1,44 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public enum LogReaders {
+  ;
+  /** @param path of a log file, of a block-compressed log file, of a zipped
+   * log file, or of the manifest of a segmented log. Several paths separated
+   * by {@link MergedLog#SEPARATOR} are merged in the order of time, unless a
+   * file exists at the given path, so that logs with the separator in the
+   * file name are opened as before.
+   * @return reader of the log at given path
+   * @throws IOException */
+  public static LogReader open(String path) throws IOException {
+    if (path.contains(MergedLog.SEPARATOR) && !new File(path).exists()) {
+      List<LogReader> list = new ArrayList<>();
+      try {
+        for (String single : path.split(MergedLog.SEPARATOR))
+          list.add(open(single));
+      } catch (IOException exception) {
+        for (LogReader logReader : list)
+          logReader.close();
+        throw exception;
+      }
+      return new MergedLog(list);
+    }
+    if (path.endsWith(".zip"))
+      return new ZipLogEventReader(path);
+    if (path.endsWith(SegmentedLogWriter.MANIFEST_EXTENSION))
+      return new SegmentedLog(path);
+    try (FileChannel fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      if (BlockLog.isBlockLog(fileChannel))
+        return new BlockLog(path);
+    }
+    return new Log(path, "r");
+  }
+}
@@ -0,0 +1,236 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import lcm.util.ChannelNameCache;
+
+/** read-only access to a log file via memory mapping
+ *
+ * In contrast to {@link Log#readNext()}, the reader does not copy the payload
+ * of an event: after {@link #advance()} the payload is available as a view
+ * into the mapped file. The headers are decoded with big-endian reads from the
+ * mapped buffer, and the channel names are interned.
+ *
+ * Files larger than 2 GB are mapped in chunks. Consecutive chunks overlap by
+ * more than the maximum size of an event, so that every event that starts in
+ * a chunk is entirely contained in the chunk.
+ *
+ * Corrupt data is skipped with the same resynchronization as
+ * {@link Log#readNext()}: the reader scans for the next magic number, and
+ * discards headers with invalid lengths.
+ *
+ * implementation is not thread-safe */
+public class MappedLogReader implements AutoCloseable {
+  /** magic, event number, utime, channel length, and data length */
+  static final int HEADER_SIZE = 28;
+  static final int MAX_CHANNEL_LENGTH = 256;
+  static final int MAX_DATA_LENGTH = 16 * 1024 * 1024;
+  private static final long DEFAULT_CHUNK_SIZE = 1L << 30;
+  private static final int OVERLAP = HEADER_SIZE + MAX_CHANNEL_LENGTH + MAX_DATA_LENGTH;
+
+  // ---
+  private final String path;
+  private final FileChannel fileChannel;
+  private final long length;
+  private final long chunkSize;
+  private final int overlap;
+  /** chunks are mapped on demand */
+  private final MappedByteBuffer[] chunks;
+  /** reused view of the payload per chunk */
+  private final ByteBuffer[] views;
+  private final ChannelNameCache channelNameCache = new ChannelNameCache(1024, Charset.defaultCharset());
+  private final byte[] channelBytes = new byte[MAX_CHANNEL_LENGTH];
+  /** read-only view of the channel bytes of the current event */
+  private final ByteBuffer channelView = ByteBuffer.wrap(channelBytes).asReadOnlyBuffer();
+  private long position = 0;
+  // current event
+  private long eventOffset;
+  private long eventNumber;
+  private long utime;
+  private String channel;
+  private ByteBuffer data;
+
+  /** @param path of log file
+   * @throws IOException */
+  public MappedLogReader(String path) throws IOException {
+    this(path, DEFAULT_CHUNK_SIZE, OVERLAP);
+  }
+
+  /** @param path
+   * @param chunkSize number of bytes at which a new chunk starts
+   * @param overlap number of bytes by which consecutive chunks overlap, must
+   * exceed the size of every event in the file
+   * @throws IOException */
+  MappedLogReader(String path, long chunkSize, int overlap) throws IOException {
+    if (chunkSize <= 0 || Integer.MAX_VALUE < chunkSize + overlap)
+      throw new IllegalArgumentException("chunkSize=" + chunkSize + " overlap=" + overlap);
+    this.path = path;
+    this.chunkSize = chunkSize;
+    this.overlap = overlap;
+    fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    length = fileChannel.size();
+    int count = (int) ((length + chunkSize - 1) / chunkSize);
+    chunks = new MappedByteBuffer[count];
+    views = new ByteBuffer[count];
+  }
+
+  /** @return the path to the log file */
+  public String getPath() {
+    return path;
+  }
+
+  /** @param index
+   * @return chunk that covers the file from index * chunkSize
+   * @throws IOException */
+  private MappedByteBuffer chunk(int index) throws IOException {
+    MappedByteBuffer mappedByteBuffer = chunks[index];
+    if (Objects.isNull(mappedByteBuffer)) {
+      long base = index * chunkSize;
+      long size = Math.min(length - base, chunkSize + overlap);
+      // byte order of a mapped buffer is big-endian, as in the log format
+      mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, base, size);
+      chunks[index] = mappedByteBuffer;
+      views[index] = mappedByteBuffer.asReadOnlyBuffer();
+    }
+    return mappedByteBuffer;
+  }
+
+  /** reads the next event
+   *
+   * @return true if an event was read, false if the end of the file has been
+   * reached
+   * @throws IOException */
+  public boolean advance() throws IOException {
+    while (position + HEADER_SIZE <= length) {
+      int index = (int) (position / chunkSize);
+      MappedByteBuffer mappedByteBuffer = chunk(index);
+      long base = index * chunkSize;
+      int offset = (int) (position - base);
+      // the scan for the magic number stays within the chunk, the header may
+      // extend into the overlap
+      int limit = (int) Math.min(chunkSize, length - HEADER_SIZE + 1 - base);
+      while (offset < limit && mappedByteBuffer.getInt(offset) != Log.LOG_MAGIC)
+        ++offset;
+      position = base + offset;
+      if (offset == limit)
+        continue;
+      eventNumber = mappedByteBuffer.getLong(offset + 4);
+      utime = mappedByteBuffer.getLong(offset + 12);
+      int channellen = mappedByteBuffer.getInt(offset + 20);
+      int datalen = mappedByteBuffer.getInt(offset + 24);
+      if (channellen <= 0 || datalen <= 0 || channellen >= MAX_CHANNEL_LENGTH || datalen >= MAX_DATA_LENGTH) {
+        System.out.printf("Bad log event eventnumber = 0x%08x utime = 0x%08x channellen = 0x%08x datalen=0x%08x\n", eventNumber, utime, channellen, datalen);
+        position += HEADER_SIZE;
+        continue;
+      }
+      int end = offset + HEADER_SIZE + channellen + datalen;
+      if (length < base + end) { // event is truncated at the end of the file
+        position = length;
+        return false;
+      }
+      int channel_start = offset + HEADER_SIZE;
+      for (int count = 0; count < channellen; ++count)
+        channelBytes[count] = mappedByteBuffer.get(channel_start + count);
+      channel = channelNameCache.get(channelBytes, 0, channellen);
+      channelView.limit(channellen).position(0);
+      data = views[index];
+      data.limit(end).position(channel_start + channellen);
+      eventOffset = position;
+      position = base + end;
+      return true;
+    }
+    position = length;
+    return false;
+  }
+
+  /** @return offset in the file of the magic number of the current event */
+  public long getEventOffset() {
+    return eventOffset;
+  }
+
+  /** @return event number of current event */
+  public long getEventNumber() {
+    return eventNumber;
+  }
+
+  /** @return time of message receipt of current event in microseconds since
+   * 00:00:00 UTC January 1, 1970 */
+  public long getUtime() {
+    return utime;
+  }
+
+  /** @return channel of current event */
+  public String getChannel() {
+    return channel;
+  }
+
+  /** @return read-only view of the bytes of the channel of the current event
+   * as stored in the file, the view is valid until the next invocation of
+   * {@link #advance()} */
+  public ByteBuffer getChannelBytes() {
+    return channelView;
+  }
+
+  /** @return read-only view of the payload of the current event, the view is
+   * valid until the next invocation of {@link #advance()} */
+  public ByteBuffer getData() {
+    return data;
+  }
+
+  /** Reads the next event into a new {@link Log.Event}, the payload is
+   * copied.
+   *
+   * @throws EOFException if the end of the file has been reached */
+  public Log.Event readNext() throws IOException {
+    if (!advance())
+      throw new EOFException();
+    Log.Event event = new Log.Event();
+    event.eventNumber = eventNumber;
+    event.utime = utime;
+    event.channel = channel;
+    event.data = new byte[data.remaining()];
+    data.duplicate().get(event.data);
+    return event;
+  }
+
+  public double getPositionFraction() {
+    return position / (double) length;
+  }
+
+  /** Seek to a position in the log file, specified by a fraction.
+   *
+   * @param frac
+   * a number in the range [0, 1) */
+  public void seekPositionFraction(double frac) {
+    position = (long) (length * frac);
+  }
+
+  /** @return offset in the file at which the next event is searched */
+  public long getFilePointer() {
+    return position;
+  }
+
+  /** @param position offset in the file at which the next event is searched */
+  public void seek(long position) {
+    this.position = position;
+  }
+
+  /** @return length of log file in bytes */
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    fileChannel.close();
+  }
+}
@@ -0,0 +1,150 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import lcm.logging.Log.Event;
+
+/** reads several logs as one log in the order of the time of the events
+ *
+ * The merge holds the next event of every log in a heap, so that the memory
+ * does not depend on the length of the logs. Events with equal time are
+ * ordered by the index of the log. The read-ahead of each log is provided by
+ * the reader of the log, for instance the buffer of {@link Log} or the
+ * inflater thread of {@link ZipLogEventReader}.
+ *
+ * The event numbers of the events are those of the original logs.
+ *
+ * @see LogReaders#open(String) */
+public class MergedLog implements LogReader {
+  /** separates the paths of the logs in the path of a merged log */
+  public static final String SEPARATOR = ",";
+
+  private static class Head {
+    final Event event;
+    final int index;
+
+    Head(Event event, int index) {
+      this.event = event;
+      this.index = index;
+    }
+  }
+
+  private static final Comparator<Head> COMPARATOR = //
+      Comparator.<Head>comparingLong(head -> head.event.utime).thenComparingInt(head -> head.index);
+  // ---
+  private final List<LogReader> logReaders;
+  private final PriorityQueue<Head> priorityQueue;
+  private boolean primed = false;
+  private int index = -1;
+
+  /** @param logReaders in the order in which events with equal time are
+   * returned, the readers are closed by {@link #close()} */
+  public MergedLog(List<LogReader> logReaders) {
+    this.logReaders = new ArrayList<>(logReaders);
+    priorityQueue = new PriorityQueue<>(Math.max(1, logReaders.size()), COMPARATOR);
+  }
+
+  /** @return readers of the logs that are merged */
+  public List<LogReader> getLogReaders() {
+    return Collections.unmodifiableList(logReaders);
+  }
+
+  /** @return index of the log of the event that was read last, or -1 */
+  public synchronized int getIndex() {
+    return index;
+  }
+
+  /** @param index of log
+   * @return next event of given log, or null at the end of the log */
+  private Head next(int index) throws IOException {
+    try {
+      return new Head(logReaders.get(index).readNext(), index);
+    } catch (EOFException exception) {
+      return null;
+    }
+  }
+
+  private void prime() throws IOException {
+    priorityQueue.clear();
+    for (int index = 0; index < logReaders.size(); ++index) {
+      Head head = next(index);
+      if (Objects.nonNull(head))
+        priorityQueue.add(head);
+    }
+    primed = true;
+  }
+
+  @Override
+  public synchronized Event readNext() throws IOException {
+    if (!primed)
+      prime();
+    Head head = priorityQueue.poll();
+    if (Objects.isNull(head))
+      throw new EOFException();
+    Head next = next(head.index);
+    if (Objects.nonNull(next))
+      priorityQueue.add(next);
+    index = head.index;
+    return head.event;
+  }
+
+  /** @return mean of the positions of the logs */
+  @Override
+  public synchronized double getPositionFraction() {
+    return logReaders.stream() //
+        .mapToDouble(LogReader::getPositionFraction) //
+        .average().orElse(0);
+  }
+
+  /** Every log is positioned at the given fraction. Unless the fraction is 0,
+   * the events that precede the latest of the first events of the logs are
+   * skipped thereafter, so that the logs continue at a common time.
+   *
+   * @param frac
+   * a number in the range [0, 1) */
+  @Override
+  public synchronized void seekPositionFraction(double frac) throws IOException {
+    for (LogReader logReader : logReaders)
+      logReader.seekPositionFraction(frac);
+    prime();
+    long utime = 0 < frac //
+        ? priorityQueue.stream().mapToLong(head -> head.event.utime).max().orElse(0)
+        : Long.MIN_VALUE;
+    while (!priorityQueue.isEmpty() && priorityQueue.peek().event.utime < utime) {
+      Head head = priorityQueue.poll();
+      Head next = next(head.index);
+      if (Objects.nonNull(next))
+        priorityQueue.add(next);
+    }
+    index = -1;
+  }
+
+  /** @return paths of the logs separated by {@link #SEPARATOR} */
+  @Override
+  public String getPath() {
+    return logReaders.stream().map(LogReader::getPath).collect(Collectors.joining(SEPARATOR));
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    IOException exception = null;
+    for (LogReader logReader : logReaders)
+      try {
+        logReader.close();
+      } catch (IOException ex) {
+        exception = ex;
+      }
+    priorityQueue.clear();
+    if (Objects.nonNull(exception))
+      throw exception;
+  }
+}
@@ -0,0 +1,238 @@
+// code by jph
+package lcm.logging;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** processes the events of a log file concurrently
+ *
+ * The file is split into partitions of about equal size in bytes. The
+ * boundary of a partition is the offset of the first event at or after the
+ * nominal offset. A magic number in the payload of an event could be mistaken
+ * for an event, in particular when the payload is itself a log event. The
+ * boundary is therefore not determined by a scan from the nominal offset,
+ * but by following the chain of events from two offsets before the nominal
+ * offset. The chains converge on the same event once both have left the
+ * payloads in which they started. The distance before the nominal offset
+ * doubles until the chains agree, or until the distance exceeds the maximum
+ * size of an event. Only the headers of the events are read.
+ *
+ * Every event belongs to the partition in which its magic number begins,
+ * and each partition is read by a separate {@link MappedLogReader}.
+ *
+ * Events of different partitions are processed in parallel on the threads of
+ * the common fork/join pool. The events of one partition are processed in
+ * the order of the file.
+ *
+ * Example that counts the events per channel:
+ * <pre>
+ * Map&lt;String, Long&gt; map = new ParallelLog(path).stream(false) //
+ * .collect(Collectors.groupingByConcurrent(event -&gt; event.channel, Collectors.counting()));
+ * </pre> */
+public class ParallelLog {
+  /** partitions are not smaller than 1 MB */
+  private static final long MIN_PARTITION_SIZE = 1 << 20;
+  /** initial distance before the nominal offset at which chains start */
+  private static final long LOOKBACK = 1 << 16;
+  private static final long MAX_LOOKBACK = 2L * (MappedLogReader.HEADER_SIZE + MappedLogReader.MAX_CHANNEL_LENGTH + MappedLogReader.MAX_DATA_LENGTH);
+
+  // ---
+  private final String path;
+  /** offsets of the first event of each partition, and the length of the file */
+  private final long[] boundaries;
+
+  /** @param path of log file
+   * @param partitions number of partitions, strictly positive
+   * @throws IOException */
+  public ParallelLog(String path, int partitions) throws IOException {
+    if (partitions <= 0)
+      throw new IllegalArgumentException("partitions=" + partitions);
+    this.path = path;
+    try (MappedLogReader mappedLogReader = new MappedLogReader(path)) {
+      long length = mappedLogReader.length();
+      boundaries = new long[partitions + 1];
+      boundaries[partitions] = length;
+      for (int index = 1; index < partitions; ++index)
+        boundaries[index] = Math.max(boundaries[index - 1], //
+            synchronize(mappedLogReader, length * index / partitions));
+    }
+  }
+
+  /** partitions the file into 4 partitions per processor, but not smaller than
+   * 1 MB
+   *
+   * @param path of log file
+   * @throws IOException */
+  public ParallelLog(String path) throws IOException {
+    this(path, partitions(path));
+  }
+
+  private static int partitions(String path) throws IOException {
+    try (MappedLogReader mappedLogReader = new MappedLogReader(path)) {
+      long limit = Math.max(1, mappedLogReader.length() / MIN_PARTITION_SIZE);
+      return (int) Math.min(4 * Runtime.getRuntime().availableProcessors(), limit);
+    }
+  }
+
+  /** @param mappedLogReader
+   * @param position nominal offset of boundary, strictly positive
+   * @return offset of the first event at or after position
+   * @throws IOException */
+  private static long synchronize(MappedLogReader mappedLogReader, long position) throws IOException {
+    long distance = LOOKBACK;
+    long offset = land(mappedLogReader, Math.max(0, position - distance), position);
+    while (distance < position && distance < MAX_LOOKBACK) {
+      distance *= 2;
+      long next = land(mappedLogReader, Math.max(0, position - distance), position);
+      if (next == offset)
+        break;
+      offset = next;
+    }
+    return offset;
+  }
+
+  /** @param mappedLogReader
+   * @param start offset from which the chain of events is followed
+   * @param position
+   * @return offset of the first event of the chain at or after position, or
+   * the length of the file
+   * @throws IOException */
+  private static long land(MappedLogReader mappedLogReader, long start, long position) throws IOException {
+    mappedLogReader.seek(start);
+    while (mappedLogReader.advance())
+      if (position <= mappedLogReader.getEventOffset())
+        return mappedLogReader.getEventOffset();
+    return mappedLogReader.length();
+  }
+
+  /** @return the path to the log file */
+  public String getPath() {
+    return path;
+  }
+
+  /** @return number of partitions */
+  public int getPartitionCount() {
+    return boundaries.length - 1;
+  }
+
+  /** @param index of partition
+   * @return offset in the file of the first event of the partition */
+  public long getPartitionOffset(int index) {
+    return boundaries[index];
+  }
+
+  /** visits the events of a partition in the order of the file
+   *
+   * @param index of partition
+   * @param filter of channels, the payload of other events is not accessed
+   * @param consumer is given the reader positioned at each event, see
+   * {@link MappedLogReader#getData()}
+   * @throws IOException */
+  public void forEach(int index, Predicate<String> filter, Consumer<MappedLogReader> consumer) throws IOException {
+    long end = boundaries[index + 1];
+    try (MappedLogReader mappedLogReader = new MappedLogReader(path)) {
+      mappedLogReader.seek(boundaries[index]);
+      while (mappedLogReader.getFilePointer() < end //
+          && mappedLogReader.advance() //
+          && mappedLogReader.getEventOffset() < end)
+        if (filter.test(mappedLogReader.getChannel()))
+          consumer.accept(mappedLogReader);
+    }
+  }
+
+  /** reduces each partition to a result, and combines the results of the
+   * partitions in the order of the file
+   *
+   * @param filter of channels
+   * @param supplier of the result of a partition
+   * @param accumulator updates the result of a partition with the event at
+   * which the reader is positioned
+   * @param combiner of the results of two consecutive partitions
+   * @return combined result of all partitions
+   * @throws UncheckedIOException */
+  public <R> R reduce( //
+      Predicate<String> filter, Supplier<R> supplier, BiConsumer<R, MappedLogReader> accumulator, BinaryOperator<R> combiner) {
+    return IntStream.range(0, getPartitionCount()).parallel().mapToObj(index -> {
+      R result = supplier.get();
+      try {
+        forEach(index, filter, mappedLogReader -> accumulator.accept(result, mappedLogReader));
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+      return result;
+    }).reduce(combiner).get();
+  }
+
+  /** @param index of partition
+   * @param filter of channels, the payload of other events is not copied
+   * @return sequential stream of the events of the partition, each with a copy
+   * of the payload */
+  public Stream<Log.Event> stream(int index, Predicate<String> filter) {
+    MappedLogReader mappedLogReader;
+    try {
+      mappedLogReader = new MappedLogReader(path);
+    } catch (IOException exception) {
+      throw new UncheckedIOException(exception);
+    }
+    mappedLogReader.seek(boundaries[index]);
+    long end = boundaries[index + 1];
+    Spliterator<Log.Event> spliterator = new Spliterators.AbstractSpliterator<Log.Event>( //
+        Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Log.Event> action) {
+        try {
+          while (mappedLogReader.getFilePointer() < end //
+              && mappedLogReader.advance() //
+              && mappedLogReader.getEventOffset() < end)
+            if (filter.test(mappedLogReader.getChannel())) {
+              Log.Event event = new Log.Event();
+              event.eventNumber = mappedLogReader.getEventNumber();
+              event.utime = mappedLogReader.getUtime();
+              event.channel = mappedLogReader.getChannel();
+              event.data = new byte[mappedLogReader.getData().remaining()];
+              mappedLogReader.getData().get(event.data);
+              action.accept(event);
+              return true;
+            }
+          return false;
+        } catch (IOException exception) {
+          throw new UncheckedIOException(exception);
+        }
+      }
+    };
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      try {
+        mappedLogReader.close();
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+    });
+  }
+
+  /** @param filter of channels, the payload of other events is not copied
+   * @param ordered whether the stream has the order of the file, for instance
+   * for {@link Stream#forEachOrdered(Consumer)}. An unordered stream avoids the
+   * buffering that is required to restore the order.
+   * @return parallel stream of the events of all partitions */
+  public Stream<Log.Event> stream(Predicate<String> filter, boolean ordered) {
+    Stream<Log.Event> stream = IntStream.range(0, getPartitionCount()).parallel() //
+        .boxed().flatMap(index -> stream(index, filter));
+    return ordered ? stream : stream.unordered();
+  }
+
+  /** @param ordered see {@link #stream(Predicate, boolean)}
+   * @return parallel stream of all events */
+  public Stream<Log.Event> stream(boolean ordered) {
+    return stream(channel -> true, ordered);
+  }
+}
@@ -0,0 +1,169 @@
+// code by jph
+package lcm.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/** paces the replay of a log so that every event is dispatched at the
+ * absolute deadline that corresponds to the time of the event
+ *
+ * The deadline of an event is derived from an anchor, that is a pair of
+ * log time and {@link System#nanoTime()}, and the speed. Deadlines are not
+ * accumulated from the differences between events, so that errors in the
+ * wake-up of one event do not carry over to the next events.
+ *
+ * The thread parks until shortly before the deadline, and spins for the
+ * remaining stretch, because a park typically overshoots by tens of
+ * microseconds.
+ *
+ * When the speed changes, the anchor is moved to the current log time, so
+ * that the mapping from log time to clock time remains continuous and the
+ * replay neither jumps nor drifts.
+ *
+ * The lateness of every dispatch, that is the difference between the actual
+ * time and the deadline, is recorded in a histogram with a resolution of one
+ * microsecond. */
+public class ReplayScheduler {
+  /** duration before the deadline in which the thread spins instead of parks */
+  public static final long DEFAULT_SPIN_NANOS = 200_000;
+  /** lateness of 10 ms and more is counted in the last bucket */
+  private static final int BUCKETS = 10_000;
+
+  // ---
+  private final long spinNanos;
+  private double speed;
+  /** log time and clock time that correspond to each other */
+  private boolean anchored = false;
+  private long anchorUtime;
+  private long anchorNanos;
+  /** incremented when the anchor changes while a thread waits */
+  private volatile int epoch = 0;
+  private volatile Thread waiter = null;
+  // statistics
+  private final long[] histogram = new long[BUCKETS];
+  private long count = 0;
+  private long maxLateness_ns = 0;
+
+  /** @param speed factor of replay, or 0 for as fast as possible
+   * @param spinNanos duration before the deadline in which the thread spins */
+  public ReplayScheduler(double speed, long spinNanos) {
+    if (spinNanos < 0)
+      throw new IllegalArgumentException("spin=" + spinNanos);
+    this.speed = Math.max(0, speed);
+    this.spinNanos = spinNanos;
+  }
+
+  /** @param speed factor of replay, or 0 for as fast as possible */
+  public ReplayScheduler(double speed) {
+    this(speed, DEFAULT_SPIN_NANOS);
+  }
+
+  /** changes the speed without a jump of the replay, may be called from any
+   * thread, also while a thread waits for a deadline
+   *
+   * @param speed factor of replay, or 0 for as fast as possible */
+  public synchronized void setSpeed(double speed) {
+    speed = Math.max(0, speed);
+    if (anchored) {
+      long nanos = System.nanoTime();
+      // log time that corresponds to now at the previous speed
+      anchorUtime += (long) ((nanos - anchorNanos) * this.speed / 1000);
+      anchorNanos = nanos;
+    }
+    this.speed = speed;
+    ++epoch;
+    LockSupport.unpark(waiter);
+  }
+
+  public synchronized double getSpeed() {
+    return speed;
+  }
+
+  /** the next event is dispatched immediately and becomes the anchor, for
+   * instance after a seek in the log */
+  public synchronized void reset() {
+    anchored = false;
+    ++epoch;
+    LockSupport.unpark(waiter);
+  }
+
+  /** @param utime of event
+   * @return deadline of event in terms of {@link System#nanoTime()}, or
+   * {@link Long#MIN_VALUE} to dispatch immediately */
+  private synchronized long deadline(long utime) {
+    if (!anchored || speed == 0) {
+      anchored = true;
+      anchorUtime = utime;
+      anchorNanos = System.nanoTime();
+      return Long.MIN_VALUE;
+    }
+    return anchorNanos + (long) ((utime - anchorUtime) * 1000 / speed);
+  }
+
+  /** blocks until the deadline of the event with the given time
+   *
+   * @param utime of event in microseconds
+   * @throws InterruptedException if the thread is interrupted while waiting */
+  public void await(long utime) throws InterruptedException {
+    waiter = Thread.currentThread();
+    try {
+      long deadline;
+      while (true) {
+        int epoch = this.epoch;
+        deadline = deadline(utime);
+        if (deadline == Long.MIN_VALUE)
+          return;
+        long remaining;
+        while (epoch == this.epoch && spinNanos < (remaining = deadline - System.nanoTime())) {
+          LockSupport.parkNanos(this, remaining - spinNanos);
+          if (Thread.interrupted())
+            throw new InterruptedException();
+        }
+        while (epoch == this.epoch && deadline - System.nanoTime() > 0) {
+          // spin for the last stretch
+        }
+        if (epoch == this.epoch)
+          break;
+      }
+      record(System.nanoTime() - deadline);
+    } finally {
+      waiter = null;
+    }
+  }
+
+  private synchronized void record(long lateness_ns) {
+    histogram[(int) Math.min(lateness_ns / 1000, BUCKETS - 1)]++;
+    ++count;
+    maxLateness_ns = Math.max(maxLateness_ns, lateness_ns);
+  }
+
+  /** @return number of events that were dispatched at a deadline */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /** @param quantile in the interval [0, 1], for instance 0.99
+   * @return lateness of dispatch in microseconds that is not exceeded by the
+   * given fraction of events, or 0 if no event was recorded */
+  public synchronized long getLatenessQuantile_us(double quantile) {
+    long rank = (long) Math.ceil(quantile * count);
+    long sum = 0;
+    for (int index = 0; index < BUCKETS; ++index) {
+      sum += histogram[index];
+      if (rank <= sum && 0 < sum)
+        return index;
+    }
+    return 0;
+  }
+
+  /** @return maximum lateness of dispatch in microseconds */
+  public synchronized long getMaxLateness_us() {
+    return maxLateness_ns / 1000;
+  }
+
+  public synchronized void resetStatistics() {
+    Arrays.fill(histogram, 0);
+    count = 0;
+    maxLateness_ns = 0;
+  }
+}
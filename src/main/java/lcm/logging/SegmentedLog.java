@@ -0,0 +1,160 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import lcm.logging.Log.Event;
+
+/** reads the segments written by {@link SegmentedLogWriter} as one log
+ *
+ * The position in the log is the sum of the lengths of the preceding
+ * segments and the position in the current segment. The lengths of the
+ * segments are determined when the log is opened. Only the current segment is
+ * open at a time. */
+public class SegmentedLog implements LogReader {
+  static final String HEADER = "# lcm segmented log 1";
+
+  /** segment as listed in the manifest */
+  public static class Segment {
+    private final String path;
+    private final long firstEventNumber;
+    private final long firstUtime;
+    /** offset of segment in the log */
+    private final long offset;
+    private final long length;
+
+    private Segment(String path, long firstEventNumber, long firstUtime, long offset, long length) {
+      this.path = path;
+      this.firstEventNumber = firstEventNumber;
+      this.firstUtime = firstUtime;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** @return path of the segment file */
+    public String getPath() {
+      return path;
+    }
+
+    /** @return event number of first event in segment */
+    public long getFirstEventNumber() {
+      return firstEventNumber;
+    }
+
+    /** @return time of first event in segment */
+    public long getFirstUtime() {
+      return firstUtime;
+    }
+
+    /** @return length of segment in bytes */
+    public long getLength() {
+      return length;
+    }
+  }
+
+  // ---
+  private final String path;
+  private final List<Segment> segments = new ArrayList<>();
+  private final long length;
+  /** index of current segment */
+  private int index = -1;
+  private Log log = null;
+
+  /** @param path of manifest
+   * @throws IOException if the manifest or a segment listed in the manifest
+   * cannot be read */
+  public SegmentedLog(String path) throws IOException {
+    this.path = path;
+    File manifest = new File(path);
+    List<String> lines = Files.readAllLines(manifest.toPath());
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER))
+      throw new IOException("not a manifest: " + path);
+    long offset = 0;
+    for (String line : lines.subList(1, lines.size())) {
+      String[] tokens = line.split("\t");
+      File file = new File(manifest.getParentFile(), tokens[0]);
+      if (!file.isFile())
+        throw new IOException("segment missing: " + file);
+      long length = file.length();
+      segments.add(new Segment(file.getPath(), Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), offset, length));
+      offset += length;
+    }
+    length = offset;
+  }
+
+  /** @return segments in the order of the manifest */
+  public List<Segment> getSegments() {
+    return Collections.unmodifiableList(segments);
+  }
+
+  private void open(int index) throws IOException {
+    if (this.index == index)
+      return;
+    if (Objects.nonNull(log))
+      log.close();
+    log = null;
+    this.index = index;
+    log = new Log(segments.get(index).path, "r");
+  }
+
+  @Override
+  public synchronized Event readNext() throws IOException {
+    return readNext(new Event());
+  }
+
+  @Override
+  public synchronized Event readNext(Event event) throws IOException {
+    if (segments.isEmpty())
+      throw new EOFException();
+    if (Objects.isNull(log))
+      open(0);
+    while (true)
+      try {
+        return log.readNext(event);
+      } catch (EOFException exception) {
+        if (index + 1 == segments.size())
+          throw exception;
+        open(index + 1);
+      }
+  }
+
+  @Override
+  public synchronized double getPositionFraction() {
+    if (Objects.isNull(log))
+      return 0;
+    Segment segment = segments.get(index);
+    return (segment.offset + Math.min(log.getFilePointer(), segment.length)) / (double) length;
+  }
+
+  @Override
+  public synchronized void seekPositionFraction(double frac) throws IOException {
+    if (segments.isEmpty())
+      return;
+    long position = (long) (length * frac);
+    int next = 0;
+    while (next + 1 < segments.size() && segments.get(next + 1).offset <= position)
+      ++next;
+    open(next);
+    log.seek(position - segments.get(next).offset);
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (Objects.nonNull(log))
+      log.close();
+    log = null;
+    index = -1;
+  }
+}
@@ -0,0 +1,97 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** writes events to a sequence of log files, the segments, that are rolled
+ * over when a segment reaches a size or a duration
+ *
+ * The segments of the path /data/shift.lcm are /data/shift.lcm.0000,
+ * /data/shift.lcm.0001, ... and the manifest /data/shift.lcm.manifest lists
+ * the segments together with the number and the time of their first event.
+ * The manifest is replaced atomically whenever a segment begins, so that a
+ * crash leaves a consistent manifest.
+ *
+ * Segments are rolled over by the writer thread between two events, so that
+ * publishers are neither blocked nor events dropped during the switch, and
+ * the event numbers continue across segments.
+ *
+ * @see SegmentedLog */
+public class SegmentedLogWriter extends AsyncLogWriter {
+  public static final String MANIFEST_EXTENSION = ".manifest";
+
+  /** @param path
+   * @param index
+   * @return path of segment with given index */
+  static String segment(String path, int index) {
+    return String.format("%s.%04d", path, index);
+  }
+
+  // ---
+  private final long segmentSize;
+  private final long segmentDuration_us;
+  private final File manifest;
+  /** lines of the manifest, only accessed by the writer thread */
+  private final List<String> entries = new ArrayList<>();
+  private long size;
+  private long firstUtime;
+
+  /** @param path of the log, prefix of the segments and the manifest
+   * @param segmentSize maximum number of bytes of a segment, or 0 for no
+   * limit. A segment exceeds the limit only when a single event is larger.
+   * @param segmentDuration_s maximum duration of a segment in seconds measured
+   * by the time of the events, or 0 for no limit
+   * @param capacity see {@link AsyncLogWriter}
+   * @param commitInterval_ms see {@link AsyncLogWriter}
+   * @throws IOException if the manifest cannot be written */
+  public SegmentedLogWriter(String path, long segmentSize, int segmentDuration_s, long capacity, int commitInterval_ms) throws IOException {
+    super(path, capacity, commitInterval_ms, null);
+    if (segmentSize < 0 || segmentDuration_s < 0)
+      throw new IllegalArgumentException("size=" + segmentSize + " duration=" + segmentDuration_s);
+    this.segmentSize = segmentSize;
+    segmentDuration_us = segmentDuration_s * 1_000_000L;
+    manifest = new File(path + MANIFEST_EXTENSION);
+    writeManifest();
+    start();
+  }
+
+  /** @return path of the manifest, which is read by {@link SegmentedLog} */
+  public String getManifestPath() {
+    return manifest.getPath();
+  }
+
+  @Override
+  /* package */ FileChannel rollover(long eventNumber, long utime, int size) throws IOException {
+    boolean next = entries.isEmpty() //
+        || 0 < segmentSize && segmentSize < this.size + size && 0 < this.size //
+        || 0 < segmentDuration_us && segmentDuration_us <= utime - firstUtime;
+    if (!next) {
+      this.size += size;
+      return null;
+    }
+    String segment = segment(getPath(), entries.size());
+    FileChannel fileChannel = open(segment);
+    entries.add(new File(segment).getName() + "\t" + eventNumber + "\t" + utime);
+    writeManifest();
+    this.size = size;
+    firstUtime = utime;
+    return fileChannel;
+  }
+
+  private void writeManifest() throws IOException {
+    File temp = new File(manifest.getPath() + ".tmp");
+    try (PrintWriter printWriter = new PrintWriter(temp)) {
+      printWriter.println(SegmentedLog.HEADER);
+      for (String entry : entries)
+        printWriter.println(entry);
+    }
+    Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
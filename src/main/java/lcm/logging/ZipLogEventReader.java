@@ -1,30 +1,62 @@
 package lcm.logging;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.function.Predicate;
 
 import lcm.logging.Log.Event;
+import lcm.util.ChannelNameCache;
 
 /** Class for reading compressed LCM log files. Use similar to {@link Log}.
+ * 
+ * The compressed stream can only be read forward. A seek to an earlier
+ * position reopens the file.
  * 
  * @author anritter */
-public class ZipLogEventReader {
+public class ZipLogEventReader implements LogReader {
   static final int LOG_MAGIC = 0xEDA1DA01;
   // ---
-  private final BufferedZipInputStream bufferedZipInputStream;
+  private BufferedZipInputStream bufferedZipInputStream;
   private final String path;
+  private final int bufferSize;
+  private final int depth;
+  /** channel of events read by {@link #readNext(Predicate)} */
+  private final byte[] channelBytes = new byte[256];
+  private final ChannelNameCache channelNameCache = new ChannelNameCache(1024, Charset.defaultCharset());
 
   /** Opens a compressed log file for reading.
    *
    * @param path
    * the filename to open */
   public ZipLogEventReader(String path) throws IOException {
+    this(path, BufferedZipInputStream.DEFAULT_BUFFER_SIZE, BufferedZipInputStream.DEFAULT_DEPTH);
+  }
+
+  /** Opens a compressed log file for reading.
+   *
+   * @param path
+   * the filename to open
+   * @param bufferSize
+   * number of bytes of each buffer of the read-ahead
+   * @param depth
+   * number of buffers that are inflated ahead of the reader */
+  public ZipLogEventReader(String path, int bufferSize, int depth) throws IOException {
     this.path = path;
-    bufferedZipInputStream = new BufferedZipInputStream(path);
+    this.bufferSize = bufferSize;
+    this.depth = depth;
+    bufferedZipInputStream = new BufferedZipInputStream(path, bufferSize, depth);
+  }
+
+  /** @return stream that provides the metrics of the read-ahead */
+  public synchronized BufferedZipInputStream getBufferedZipInputStream() {
+    return bufferedZipInputStream;
   }
 
   /** Retrieves the path to the log file.
    * 
    * @return the path to the log file */
+  @Override
   public String getPath() {
     return path;
   }
@@ -33,16 +65,28 @@ public class ZipLogEventReader {
    *
    * @throws java.io.EOFException
    * if the end of the file has been reached. */
+  @Override
   public synchronized Event readNext() throws IOException {
-    int magic = 0;
-    Event event = new Event();
+    return readNext(new Event());
+  }
+
+  /** Reads the next event in the log file into the given event. The payload
+   * array of the event is only replaced when it is too small.
+   *
+   * @param event that is overwritten
+   * @return given event
+   * @throws java.io.EOFException
+   * if the end of the file has been reached. */
+  @Override
+  public synchronized Event readNext(Event event) throws IOException {
+    // typically the cause of an exception at EOF
+    int magic = bufferedZipInputStream.readInt();
     int channellen = 0, datalen = 0;
     while (true) {
-      // typically the cause of an exception at EOF
-      int v = bufferedZipInputStream.read() & 0xff;
-      magic = (magic << 8) | v;
-      if (magic != LOG_MAGIC)
+      if (magic != LOG_MAGIC) {
+        magic = (magic << 8) | bufferedZipInputStream.read();
         continue;
+      }
       event.eventNumber = bufferedZipInputStream.readLong();
       event.utime = bufferedZipInputStream.readLong();
       channellen = bufferedZipInputStream.readInt();
@@ -50,19 +94,84 @@ public class ZipLogEventReader {
       if (channellen <= 0 || datalen <= 0 || channellen >= 256 || datalen >= 16 * 1024 * 1024) {
         System.out.printf("Bad log event eventnumber = 0x%08x utime = 0x%08x channellen = 0x%08x datalen=0x%08x\n", event.eventNumber, event.utime, channellen,
             datalen);
+        magic = bufferedZipInputStream.readInt();
         continue;
       }
       break;
     }
-    byte bchannel[] = new byte[channellen];
-    event.data = new byte[datalen];
-    bufferedZipInputStream.readFully(bchannel);
-    event.channel = new String(bchannel);
-    bufferedZipInputStream.readFully(event.data);
+    bufferedZipInputStream.readFully(channelBytes, 0, channellen);
+    event.channel = channelNameCache.get(channelBytes, 0, channellen);
+    bufferedZipInputStream.readFully(event.reserve(datalen), 0, datalen);
     return event;
   }
 
+  /** Reads the next event on a channel that satisfies the given predicate.
+   * The payload of the other events is skipped without being copied.
+   *
+   * @param predicate for instance channels::contains
+   * @return next event with a channel accepted by given predicate
+   * @throws java.io.EOFException
+   * if the end of the file has been reached. */
+  public synchronized Event readNext(Predicate<String> predicate) throws IOException {
+    // typically the cause of an exception at EOF
+    int magic = bufferedZipInputStream.readInt();
+    while (true) {
+      if (magic != LOG_MAGIC) {
+        magic = (magic << 8) | bufferedZipInputStream.read();
+        continue;
+      }
+      long eventNumber = bufferedZipInputStream.readLong();
+      long utime = bufferedZipInputStream.readLong();
+      int channellen = bufferedZipInputStream.readInt();
+      int datalen = bufferedZipInputStream.readInt();
+      if (channellen <= 0 || datalen <= 0 || channellen >= 256 || datalen >= 16 * 1024 * 1024) {
+        System.out.printf("Bad log event eventnumber = 0x%08x utime = 0x%08x channellen = 0x%08x datalen=0x%08x\n", eventNumber, utime, channellen, datalen);
+        magic = bufferedZipInputStream.readInt();
+        continue;
+      }
+      bufferedZipInputStream.readFully(channelBytes, 0, channellen);
+      String channel = channelNameCache.get(channelBytes, 0, channellen);
+      if (predicate.test(channel)) {
+        Event event = new Event();
+        event.eventNumber = eventNumber;
+        event.utime = utime;
+        event.channel = channel;
+        bufferedZipInputStream.readFully(event.reserve(datalen), 0, datalen);
+        return event;
+      }
+      bufferedZipInputStream.skipFully(datalen);
+      magic = bufferedZipInputStream.readInt();
+    }
+  }
+
+  /** @return fraction of the compressed file that has been read */
+  @Override
+  public synchronized double getPositionFraction() {
+    return bufferedZipInputStream.getPositionFraction();
+  }
+
+  /** Seek to a position in the log file, specified by a fraction of the
+   * compressed file. The data before the position is decompressed and
+   * skipped.
+   *
+   * @param frac
+   * a number in the range [0, 1) */
+  @Override
+  public synchronized void seekPositionFraction(double frac) throws IOException {
+    if (frac < bufferedZipInputStream.getPositionFraction()) {
+      bufferedZipInputStream.close();
+      bufferedZipInputStream = new BufferedZipInputStream(path, bufferSize, depth);
+    }
+    try {
+      while (bufferedZipInputStream.getPositionFraction() < frac)
+        bufferedZipInputStream.skipFully(bufferSize);
+    } catch (EOFException exception) {
+      // position at end of file
+    }
+  }
+
   /** Closes the log file and releases and system resources used by it. */
+  @Override
   public synchronized void close() throws IOException {
     bufferedZipInputStream.close();
   }
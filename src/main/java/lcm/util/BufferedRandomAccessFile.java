@@ -6,19 +6,25 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
-/** implementation is standalone */
+/** implementation is standalone
+ *
+ * Arrays and multi-byte primitives are copied to and from the buffer in bulk,
+ * the per-byte path is only taken at the boundary of the buffer. */
 public class BufferedRandomAccessFile {
-  private static final int BUFFER_SIZE = 32768; // must be power of two!
+  public static final int DEFAULT_BUFFER_SIZE = 32768;
   // ---
   private final RandomAccessFile randomAccessFile;
   /** buffer needs to be written back to disk? (If true, reads MUST use buffer.) */
   private boolean bufferDirty = false;
-  private byte[] buffer = new byte[BUFFER_SIZE];
+  /** size of buffer is a power of two */
+  private final byte[] buffer;
+  /** encoding of primitives that straddle the end of the buffer */
+  private final byte[] scratch = new byte[8];
   /** what file offset does this buffer start at? */
   private long bufferOffset = -1;
-  /** how many bytes of the buffer are valid? ( < BUFFER_SIZE near end of file) */
+  /** how many bytes of the buffer are valid? ( < buffer.length near end of file) */
   private int bufferLength = -1;
-  /** current file position in the buffer [0, BUFFER_SIZE-1] */
+  /** current file position in the buffer [0, buffer.length - 1] */
   private int bufferPosition = -1;
   /** length of the file */
   private long fileLength;
@@ -28,6 +34,17 @@ public class BufferedRandomAccessFile {
    * byte after the current buffer (in which case the next read will re-fill
    * the buffer. */
   public BufferedRandomAccessFile(String path, String mode) throws IOException {
+    this(path, mode, DEFAULT_BUFFER_SIZE);
+  }
+
+  /** @param path
+   * @param mode see {@link RandomAccessFile#RandomAccessFile(String, String)}
+   * @param bufferSize in bytes, must be a power of two
+   * @throws IOException */
+  public BufferedRandomAccessFile(String path, String mode, int bufferSize) throws IOException {
+    if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1)
+      throw new IllegalArgumentException("bufferSize=" + bufferSize);
+    buffer = new byte[bufferSize];
     randomAccessFile = new RandomAccessFile(path, mode);
     fileLength = randomAccessFile.length();
     bufferSeek(0);
@@ -70,13 +87,13 @@ public class BufferedRandomAccessFile {
   /** Performs a seek and fills the buffer accordingly. **/
   void bufferSeek(long seekOffset) throws IOException {
     flushBuffer();
-    long newOffset = seekOffset - (seekOffset & (BUFFER_SIZE - 1L));
+    long newOffset = seekOffset - (seekOffset & (buffer.length - 1L));
     if (newOffset == bufferOffset) {
       bufferPosition = (int) (seekOffset - bufferOffset);
       return;
     }
     bufferOffset = newOffset;
-    bufferLength = (int) min(BUFFER_SIZE, fileLength - bufferOffset);
+    bufferLength = (int) min(buffer.length, fileLength - bufferOffset);
     if (bufferLength < 0)
       bufferLength = 0;
     bufferPosition = (int) (seekOffset - bufferOffset);
@@ -128,10 +145,15 @@ public class BufferedRandomAccessFile {
   }
 
   public short readShort() throws IOException {
-    short v = 0;
-    v |= (read() << 8);
-    v |= (read());
-    return v;
+    if (bufferLength - bufferPosition < 2) {
+      short v = 0;
+      v |= (read() << 8);
+      v |= (read());
+      return v;
+    }
+    int p = bufferPosition;
+    bufferPosition += 2;
+    return (short) ((buffer[p] << 8) | (buffer[p + 1] & 0xff));
   }
 
   public void readFully(byte[] b, int offset, int length) throws IOException {
@@ -157,43 +179,82 @@ public class BufferedRandomAccessFile {
   }
 
   public void writeInt(long v) throws IOException {
-    write((byte) (v >> 24));
-    write((byte) (v >> 16));
-    write((byte) (v >> 8));
-    write((byte) (v & 0xff));
+    byte[] array = buffer;
+    int p = bufferPosition;
+    if (array.length - p < 4) {
+      array = scratch;
+      p = 0;
+    }
+    array[p] = (byte) (v >> 24);
+    array[p + 1] = (byte) (v >> 16);
+    array[p + 2] = (byte) (v >> 8);
+    array[p + 3] = (byte) v;
+    if (array == buffer)
+      advance(4);
+    else
+      write(scratch, 0, 4);
   }
 
   public int readInt() throws IOException {
-    int v = 0;
-    v |= (read() << 24);
-    v |= (read() << 16);
-    v |= (read() << 8);
-    v |= (read());
-    return v;
+    if (bufferLength - bufferPosition < 4) {
+      int v = 0;
+      v |= (read() << 24);
+      v |= (read() << 16);
+      v |= (read() << 8);
+      v |= (read());
+      return v;
+    }
+    int p = bufferPosition;
+    bufferPosition += 4;
+    return decodeInt(p);
   }
 
   public void writeLong(long v) throws IOException {
-    write((byte) (v >> 56));
-    write((byte) (v >> 48));
-    write((byte) (v >> 40));
-    write((byte) (v >> 32));
-    write((byte) (v >> 24));
-    write((byte) (v >> 16));
-    write((byte) (v >> 8));
-    write((byte) (v & 0xff));
+    byte[] array = buffer;
+    int p = bufferPosition;
+    if (array.length - p < 8) {
+      array = scratch;
+      p = 0;
+    }
+    array[p] = (byte) (v >> 56);
+    array[p + 1] = (byte) (v >> 48);
+    array[p + 2] = (byte) (v >> 40);
+    array[p + 3] = (byte) (v >> 32);
+    array[p + 4] = (byte) (v >> 24);
+    array[p + 5] = (byte) (v >> 16);
+    array[p + 6] = (byte) (v >> 8);
+    array[p + 7] = (byte) v;
+    if (array == buffer)
+      advance(8);
+    else
+      write(scratch, 0, 8);
   }
 
   public long readLong() throws IOException {
-    long v = 0;
-    v |= (((long) read()) << 56);
-    v |= (((long) read()) << 48);
-    v |= (((long) read()) << 40);
-    v |= (((long) read()) << 32);
-    v |= (((long) read()) << 24);
-    v |= (((long) read()) << 16);
-    v |= (((long) read()) << 8);
-    v |= read();
-    return v;
+    if (bufferLength - bufferPosition < 8) {
+      long v = 0;
+      v |= (((long) read()) << 56);
+      v |= (((long) read()) << 48);
+      v |= (((long) read()) << 40);
+      v |= (((long) read()) << 32);
+      v |= (((long) read()) << 24);
+      v |= (((long) read()) << 16);
+      v |= (((long) read()) << 8);
+      v |= read();
+      return v;
+    }
+    int p = bufferPosition;
+    bufferPosition += 8;
+    return ((long) decodeInt(p) << 32) | (decodeInt(p + 4) & 0xffffffffL);
+  }
+
+  /** @param p position in buffer
+   * @return big-endian int decoded from buffer */
+  private int decodeInt(int p) {
+    return (buffer[p] << 24) //
+        | ((buffer[p + 1] & 0xff) << 16) //
+        | ((buffer[p + 2] & 0xff) << 8) //
+        | (buffer[p + 3] & 0xff);
   }
 
   public void writeFloat(float f) throws IOException {
@@ -213,8 +274,32 @@ public class BufferedRandomAccessFile {
   }
 
   public void write(byte src[], int offset, int writelen) throws IOException {
-    for (int i = offset; i < offset + writelen; ++i)
-      write(src[i]);
+    while (0 < writelen) {
+      if (bufferPosition == buffer.length) {
+        // they're doing a write, but we're out of buffer.
+        flushBuffer();
+        bufferSeek(bufferOffset + bufferPosition);
+      }
+      int thiscopy = Math.min(buffer.length - bufferPosition, writelen);
+      System.arraycopy(src, offset, buffer, bufferPosition, thiscopy);
+      advance(thiscopy);
+      offset += thiscopy;
+      writelen -= thiscopy;
+    }
+  }
+
+  /** marks the given number of bytes after the current position in the buffer
+   * as written, and moves the position past them
+   *
+   * @param length */
+  private void advance(int length) {
+    bufferDirty = true;
+    bufferPosition += length;
+    if (bufferLength < bufferPosition) {
+      // they're increasing the size of the file
+      fileLength += bufferPosition - bufferLength;
+      bufferLength = bufferPosition;
+    }
   }
 
   public void write(byte v) throws IOException {
@@ -225,7 +310,7 @@ public class BufferedRandomAccessFile {
       return;
     }
     // they're increasing the size of the file, but it still fits inside our buffer
-    if (bufferLength < BUFFER_SIZE) {
+    if (bufferLength < buffer.length) {
       buffer[bufferPosition++] = v;
       bufferLength++;
       fileLength++;
@@ -0,0 +1,87 @@
+// code by jph
+package lcm.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** maps the encoded bytes of a channel name to a {@link String} without
+ * allocating memory for channels that have been seen before.
+ * 
+ * The cache uses open addressing with linear probing in a table of fixed
+ * size. Once the table is filled to the load limit, names of further channels
+ * are decoded on every invocation.
+ * 
+ * implementation is not thread-safe */
+public class ChannelNameCache {
+  private static final int DEFAULT_CAPACITY = 1024;
+  // ---
+  private final Charset charset;
+  private final byte[][] keys;
+  private final String[] values;
+  private final int[] hashes;
+  private final int mask;
+  private final int limit;
+  private int size = 0;
+
+  /** @param capacity power of two
+   * @param charset of channel names */
+  public ChannelNameCache(int capacity, Charset charset) {
+    if (Integer.bitCount(capacity) != 1)
+      throw new IllegalArgumentException("capacity=" + capacity);
+    this.charset = charset;
+    keys = new byte[capacity][];
+    values = new String[capacity];
+    hashes = new int[capacity];
+    mask = capacity - 1;
+    limit = capacity * 3 / 4;
+  }
+
+  /** cache for channel names encoded as US-ASCII */
+  public ChannelNameCache() {
+    this(DEFAULT_CAPACITY, StandardCharsets.US_ASCII);
+  }
+
+  /** @param buffer
+   * @param offset of first byte of channel name
+   * @param length number of bytes of channel name
+   * @return channel name */
+  public String get(byte[] buffer, int offset, int length) {
+    int hash = hash(buffer, offset, length);
+    int index = hash & mask;
+    while (keys[index] != null) {
+      if (hashes[index] == hash && equals(keys[index], buffer, offset, length))
+        return values[index];
+      index = (index + 1) & mask;
+    }
+    String string = new String(buffer, offset, length, charset);
+    if (size < limit) {
+      keys[index] = Arrays.copyOfRange(buffer, offset, offset + length);
+      values[index] = string;
+      hashes[index] = hash;
+      ++size;
+    }
+    return string;
+  }
+
+  /** @return number of cached channel names */
+  public int size() {
+    return size;
+  }
+
+  private static int hash(byte[] buffer, int offset, int length) {
+    int hash = 1;
+    for (int index = offset; index < offset + length; ++index)
+      hash = 31 * hash + buffer[index];
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equals(byte[] key, byte[] buffer, int offset, int length) {
+    if (key.length != length)
+      return false;
+    for (int index = 0; index < length; ++index)
+      if (key[index] != buffer[offset + index])
+        return false;
+    return true;
+  }
+}
@@ -0,0 +1,268 @@
+// code by jph
+package lcm.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** index of subscriptions that finds the values subscribed to a channel
+ * without evaluating every regex.
+ *
+ * Each regex is classified as
+ * <ul>
+ * <li>exact name, for instance "POSE" or "CAMERA\.LEFT", looked up in a hash
+ * map,
+ * <li>literal prefix followed by ".*", for instance "CAMERA.*", looked up in a
+ * prefix trie,
+ * <li>general regex, for instance "CAMERA[0-9]", that is evaluated.
+ * </ul>
+ *
+ * The values that match a channel are returned in the order in which they
+ * were added. The index is intended to be queried once per channel not seen
+ * before, and the result to be cached by the caller.
+ *
+ * implementation is not thread-safe */
+public class SubscriptionIndex<T> {
+  private static final String METACHARS = "\\^$.|?*+()[]{}";
+  private static final String SUFFIX_ANY = ".*";
+
+  /** @param regex
+   * @return literal string that is the only match of given regex, or null if
+   * the regex contains unescaped meta characters */
+  /* package */ static String literal(String regex) {
+    StringBuilder stringBuilder = new StringBuilder(regex.length());
+    for (int index = 0; index < regex.length(); ++index) {
+      char chr = regex.charAt(index);
+      if (chr == '\\') {
+        // escaped meta character is a literal, for instance "\."
+        if (++index == regex.length())
+          return null;
+        chr = regex.charAt(index);
+        if (METACHARS.indexOf(chr) < 0)
+          return null;
+      } else //
+      if (0 <= METACHARS.indexOf(chr))
+        return null;
+      stringBuilder.append(chr);
+    }
+    return stringBuilder.toString();
+  }
+
+  /** @param regex
+   * @return literal prefix of a regex of the form prefix + ".*", or null */
+  /* package */ static String prefix(String regex) {
+    return regex.endsWith(SUFFIX_ANY) //
+        ? literal(regex.substring(0, regex.length() - SUFFIX_ANY.length()))
+        : null;
+  }
+
+  /** @param regex
+   * @return predicate equivalent to matching the entire channel name against
+   * given regex, where exact names and literal prefixes are tested without
+   * the regex engine */
+  public static Predicate<String> predicate(String regex) {
+    String literal = literal(regex);
+    if (Objects.nonNull(literal))
+      return literal::equals;
+    String prefix = prefix(regex);
+    if (Objects.nonNull(prefix))
+      return channel -> channel.startsWith(prefix);
+    Pattern pattern = Pattern.compile(regex);
+    return channel -> pattern.matcher(channel).matches();
+  }
+
+  private static class Entry<T> {
+    final String regex;
+    final T value;
+    /** order of insertion */
+    final long sequence;
+
+    Entry(String regex, T value, long sequence) {
+      this.regex = regex;
+      this.value = value;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class RegexEntry<T> extends Entry<T> {
+    final Pattern pattern;
+
+    RegexEntry(String regex, T value, long sequence) {
+      super(regex, value, sequence);
+      pattern = Pattern.compile(regex);
+    }
+  }
+
+  private static class Node<T> {
+    final Map<Character, Node<T>> children = new HashMap<>();
+    final List<Entry<T>> entries = new ArrayList<>();
+
+    boolean isEmpty() {
+      return children.isEmpty() && entries.isEmpty();
+    }
+  }
+
+  private static final Comparator<Entry<?>> SEQUENCE = //
+      (entry1, entry2) -> Long.compare(entry1.sequence, entry2.sequence);
+  // ---
+  private final Map<String, List<Entry<T>>> exact = new HashMap<>();
+  private final Node<T> root = new Node<>();
+  private final List<RegexEntry<T>> regexes = new ArrayList<>();
+  private long sequence = 0;
+  private int size = 0;
+
+  /** @param regex
+   * @param value
+   * @throws PatternSyntaxException if regex is not a valid regular expression */
+  public void add(String regex, T value) {
+    String literal = literal(regex);
+    if (Objects.nonNull(literal)) {
+      exact.computeIfAbsent(literal, key -> new ArrayList<>()).add(new Entry<>(regex, value, sequence));
+    } else {
+      String prefix = prefix(regex);
+      if (Objects.nonNull(prefix)) {
+        Node<T> node = root;
+        for (int index = 0; index < prefix.length(); ++index)
+          node = node.children.computeIfAbsent(prefix.charAt(index), key -> new Node<>());
+        node.entries.add(new Entry<>(regex, value, sequence));
+      } else
+        regexes.add(new RegexEntry<>(regex, value, sequence));
+    }
+    ++sequence;
+    ++size;
+  }
+
+  /** removes a single occurrence of given regex with given value
+   *
+   * @param regex
+   * @param value
+   * @return true if the index contained the subscription */
+  public boolean remove(String regex, T value) {
+    Predicate<Entry<T>> predicate = entry -> entry.regex.equals(regex) && entry.value.equals(value);
+    boolean removed;
+    String literal = literal(regex);
+    if (Objects.nonNull(literal)) {
+      List<Entry<T>> list = exact.get(literal);
+      removed = Objects.nonNull(list) && removeFirst(list, predicate);
+      if (removed && list.isEmpty())
+        exact.remove(literal);
+    } else {
+      String prefix = prefix(regex);
+      removed = Objects.nonNull(prefix) //
+          ? remove(root, prefix, 0, list -> removeFirst(list, predicate))
+          : removeFirst(regexes, predicate);
+    }
+    if (removed)
+      --size;
+    return removed;
+  }
+
+  /** removes all subscriptions of given value
+   *
+   * @param value
+   * @return number of subscriptions removed */
+  public int removeAll(T value) {
+    Predicate<Entry<T>> predicate = entry -> entry.value.equals(value);
+    int count = size;
+    Iterator<List<Entry<T>>> iterator = exact.values().iterator();
+    while (iterator.hasNext()) {
+      List<Entry<T>> list = iterator.next();
+      list.removeIf(predicate);
+      if (list.isEmpty())
+        iterator.remove();
+    }
+    removeAll(root, predicate);
+    regexes.removeIf(predicate);
+    size = count(root) + regexes.size();
+    for (List<Entry<T>> list : exact.values())
+      size += list.size();
+    return count - size;
+  }
+
+  /** @param channel
+   * @return values of subscriptions that match given channel in the order of
+   * insertion, a value is listed once for every matching subscription */
+  public List<T> match(String channel) {
+    List<Entry<T>> list = new ArrayList<>();
+    List<Entry<T>> entries = exact.get(channel);
+    if (Objects.nonNull(entries))
+      list.addAll(entries);
+    Node<T> node = root;
+    for (int index = 0; Objects.nonNull(node); ++index) {
+      list.addAll(node.entries);
+      node = index < channel.length() //
+          ? node.children.get(channel.charAt(index))
+          : null;
+    }
+    for (RegexEntry<T> regexEntry : regexes)
+      if (regexEntry.pattern.matcher(channel).matches())
+        list.add(regexEntry);
+    list.sort(SEQUENCE);
+    List<T> values = new ArrayList<>(list.size());
+    for (Entry<T> entry : list)
+      values.add(entry.value);
+    return values;
+  }
+
+  /** removes all subscriptions */
+  public void clear() {
+    exact.clear();
+    root.children.clear();
+    root.entries.clear();
+    regexes.clear();
+    size = 0;
+  }
+
+  /** @return number of subscriptions */
+  public int size() {
+    return size;
+  }
+
+  private static <T> boolean removeFirst(List<? extends Entry<T>> list, Predicate<Entry<T>> predicate) {
+    Iterator<? extends Entry<T>> iterator = list.iterator();
+    while (iterator.hasNext())
+      if (predicate.test(iterator.next())) {
+        iterator.remove();
+        return true;
+      }
+    return false;
+  }
+
+  /** @return true if removal was successful, empty nodes are pruned */
+  private static <T> boolean remove(Node<T> node, String prefix, int index, Predicate<List<Entry<T>>> removal) {
+    if (index == prefix.length())
+      return removal.test(node.entries);
+    Character key = prefix.charAt(index);
+    Node<T> child = node.children.get(key);
+    if (Objects.isNull(child) || !remove(child, prefix, index + 1, removal))
+      return false;
+    if (child.isEmpty())
+      node.children.remove(key);
+    return true;
+  }
+
+  private static <T> void removeAll(Node<T> node, Predicate<Entry<T>> predicate) {
+    node.entries.removeIf(predicate);
+    Iterator<Node<T>> iterator = node.children.values().iterator();
+    while (iterator.hasNext()) {
+      Node<T> child = iterator.next();
+      removeAll(child, predicate);
+      if (child.isEmpty())
+        iterator.remove();
+    }
+  }
+
+  private static <T> int count(Node<T> node) {
+    int count = node.entries.size();
+    for (Node<T> child : node.children.values())
+      count += count(child);
+    return count;
+  }
+}
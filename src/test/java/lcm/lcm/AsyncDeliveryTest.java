@@ -0,0 +1,115 @@
+// code by jph
+package lcm.lcm;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class AsyncDeliveryTest extends TestCase {
+  private static final byte[] DATA = new byte[] { 1, 2, 3, 4 };
+
+  private static SubscriptionRecord blocked( //
+      LCM lcm, DeliveryPolicy deliveryPolicy, List<String> received, CountDownLatch entered, CountDownLatch release) {
+    return lcm.subscribe(".*", (l, channel, ins) -> {
+      received.add(channel + ins.available());
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException exception) {
+        // ---
+      }
+    }, 2, deliveryPolicy);
+  }
+
+  private static void await(SubscriptionRecord srec) throws InterruptedException {
+    for (int count = 0; count < 100 && 0 < srec.getQueueDepth(); ++count)
+      Thread.sleep(10);
+  }
+
+  public void testDropNewest() throws Exception {
+    LCM lcm = new LCM("memq://");
+    List<String> received = new CopyOnWriteArrayList<>();
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SubscriptionRecord srec = blocked(lcm, DeliveryPolicy.DROP_NEWEST, received, entered, release);
+    lcm.receiveMessage("A", DATA, 0, 1);
+    assertTrue(entered.await(1, TimeUnit.SECONDS));
+    lcm.receiveMessage("B", DATA, 0, 2);
+    lcm.receiveMessage("C", DATA, 0, 3);
+    lcm.receiveMessage("D", DATA, 0, 4);
+    assertEquals(srec.getQueueDepth(), 2);
+    assertEquals(srec.getDropCount(), 1);
+    release.countDown();
+    await(srec);
+    Thread.sleep(50);
+    assertEquals(received.toString(), "[A1, B2, C3]");
+    lcm.close();
+  }
+
+  public void testDropOldest() throws Exception {
+    LCM lcm = new LCM("memq://");
+    List<String> received = new CopyOnWriteArrayList<>();
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SubscriptionRecord srec = blocked(lcm, DeliveryPolicy.DROP_OLDEST, received, entered, release);
+    lcm.receiveMessage("A", DATA, 0, 1);
+    assertTrue(entered.await(1, TimeUnit.SECONDS));
+    lcm.receiveMessage("B", DATA, 0, 2);
+    lcm.receiveMessage("C", DATA, 0, 3);
+    lcm.receiveMessage("D", DATA, 0, 4);
+    assertEquals(srec.getDropCount(), 1);
+    release.countDown();
+    await(srec);
+    Thread.sleep(50);
+    assertEquals(received.toString(), "[A1, C3, D4]");
+    lcm.close();
+  }
+
+  public void testKeepLatest() throws Exception {
+    LCM lcm = new LCM("memq://");
+    List<String> received = new CopyOnWriteArrayList<>();
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SubscriptionRecord srec = blocked(lcm, DeliveryPolicy.KEEP_LATEST, received, entered, release);
+    lcm.receiveMessage("A", DATA, 0, 1);
+    assertTrue(entered.await(1, TimeUnit.SECONDS));
+    lcm.receiveMessage("B", DATA, 0, 1);
+    lcm.receiveMessage("C", DATA, 0, 1);
+    lcm.receiveMessage("B", DATA, 0, 2);
+    lcm.receiveMessage("C", DATA, 0, 3);
+    assertEquals(srec.getQueueDepth(), 2);
+    assertEquals(srec.getDropCount(), 2);
+    release.countDown();
+    await(srec);
+    Thread.sleep(50);
+    assertEquals(received.toString(), "[A1, B2, C3]");
+    lcm.close();
+  }
+
+  public void testBlock() throws Exception {
+    LCM lcm = new LCM("memq://");
+    List<String> received = new CopyOnWriteArrayList<>();
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SubscriptionRecord srec = blocked(lcm, DeliveryPolicy.BLOCK, received, entered, release);
+    lcm.receiveMessage("A", DATA, 0, 1);
+    assertTrue(entered.await(1, TimeUnit.SECONDS));
+    lcm.receiveMessage("B", DATA, 0, 2);
+    lcm.receiveMessage("C", DATA, 0, 3);
+    Thread thread = new Thread(() -> lcm.receiveMessage("D", DATA, 0, 4));
+    thread.start();
+    thread.join(100);
+    assertTrue(thread.isAlive());
+    release.countDown();
+    thread.join(1000);
+    assertFalse(thread.isAlive());
+    await(srec);
+    Thread.sleep(50);
+    assertEquals(received.toString(), "[A1, B2, C3, D4]");
+    assertEquals(srec.getDropCount(), 0);
+    lcm.close();
+  }
+}
@@ -0,0 +1,111 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class BatchWriterTest extends TestCase {
+  /** stream that is slower than the publisher */
+  private static class SlowOutputStream extends ByteArrayOutputStream {
+    int writes = 0;
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+      ++writes;
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException exception) {
+        // ---
+      }
+      super.write(bytes, offset, length);
+    }
+  }
+
+  public void testLossless() throws Exception {
+    BatchWriter batchWriter = new BatchWriter(10_000, 4096, 0);
+    SlowOutputStream slowOutputStream = new SlowOutputStream();
+    assertFalse(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC", new byte[10], 0, 10));
+    batchWriter.connect(slowOutputStream);
+    assertTrue(batchWriter.append(TCPProvider.MESSAGE_TYPE_SUBSCRIBE, "ABC.*", null, 0, 0));
+    int count = 2000;
+    int expected = 8 + 5;
+    for (int index = 0; index < count; ++index) {
+      byte[] data = new byte[index % 300];
+      if (0 < data.length)
+        data[data.length - 1] = (byte) index;
+      expected += 12 + 4 + data.length;
+      assertTrue(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC" + (index % 10), data, 0, data.length));
+    }
+    // one frame larger than the buffer
+    assertTrue(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "BIG", new byte[50_000], 0, 50_000));
+    expected += 12 + 3 + 50_000;
+    while (batchWriter.getByteCount() < expected)
+      Thread.sleep(10);
+    batchWriter.close();
+    assertEquals(slowOutputStream.size(), expected);
+    assertEquals(batchWriter.getFrameCount(), count + 2);
+    assertTrue(batchWriter.getWriteCount() < count / 4);
+    assertEquals(batchWriter.getWriteCount(), slowOutputStream.writes);
+    DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(slowOutputStream.toByteArray()));
+    assertEquals(dataInputStream.readInt(), TCPProvider.MESSAGE_TYPE_SUBSCRIBE);
+    assertEquals(dataInputStream.readInt(), 5);
+    dataInputStream.skipBytes(5);
+    for (int index = 0; index < count; ++index) {
+      assertEquals(dataInputStream.readInt(), TCPProvider.MESSAGE_TYPE_PUBLISH);
+      String channel = "ABC" + (index % 10);
+      assertEquals(dataInputStream.readInt(), channel.length());
+      dataInputStream.skipBytes(channel.length());
+      int length = dataInputStream.readInt();
+      assertEquals(length, index % 300);
+      byte[] data = new byte[length];
+      dataInputStream.readFully(data);
+      if (0 < length)
+        assertEquals(data[length - 1], (byte) index);
+    }
+    assertEquals(dataInputStream.readInt(), TCPProvider.MESSAGE_TYPE_PUBLISH);
+    assertEquals(dataInputStream.readInt(), 3);
+    dataInputStream.skipBytes(3);
+    assertEquals(dataInputStream.readInt(), 50_000);
+    assertEquals(dataInputStream.available(), 50_000);
+  }
+
+  public void testLatency() throws Exception {
+    BatchWriter batchWriter = new BatchWriter(10_000, 4096, 50_000);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    batchWriter.connect(byteArrayOutputStream);
+    batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC", new byte[10], 0, 10);
+    Thread.sleep(10);
+    // the batch is not full and the latency has not elapsed
+    assertEquals(byteArrayOutputStream.size(), 0);
+    Thread.sleep(100);
+    assertEquals(byteArrayOutputStream.size(), 8 + 3 + 4 + 10);
+    batchWriter.close();
+  }
+
+  public void testDisconnect() throws Exception {
+    BatchWriter batchWriter = new BatchWriter(10_000, 4096, 0);
+    batchWriter.connect(new ByteArrayOutputStream());
+    batchWriter.disconnect();
+    assertFalse(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC", new byte[10], 0, 10));
+    batchWriter.close();
+  }
+
+  public void testFailure() throws Exception {
+    BatchWriter batchWriter = new BatchWriter(10_000, 4096, 0);
+    batchWriter.connect(new java.io.OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException();
+      }
+    });
+    assertTrue(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC", new byte[10], 0, 10));
+    Thread.sleep(100);
+    // the failed write disconnects the writer
+    assertFalse(batchWriter.append(TCPProvider.MESSAGE_TYPE_PUBLISH, "ABC", new byte[10], 0, 10));
+    batchWriter.close();
+  }
+}
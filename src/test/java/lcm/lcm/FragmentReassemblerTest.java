@@ -0,0 +1,181 @@
+// code by jph
+package lcm.lcm;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+import lcm.util.ChannelNameCache;
+
+public class FragmentReassemblerTest extends TestCase {
+  private static final int FRAGMENT = 1000;
+
+  /** @return fragments in the format of the udpm protocol */
+  private static List<byte[]> fragments(String channel, int msgSeqNumber, byte[] data) {
+    List<byte[]> list = new ArrayList<>();
+    int nfragments = (channel.length() + 1 + data.length + FRAGMENT - 1) / FRAGMENT;
+    int fragment_offset = 0;
+    for (int frag_no = 0; frag_no < nfragments; ++frag_no) {
+      LCMDataOutputStream outs = new LCMDataOutputStream();
+      outs.writeInt(UDPMulticastProvider.MAGIC_LONG);
+      outs.writeInt(msgSeqNumber);
+      outs.writeInt(data.length);
+      outs.writeInt(fragment_offset);
+      outs.writeShort(frag_no);
+      outs.writeShort(nfragments);
+      int fraglen = Math.min(FRAGMENT, data.length - fragment_offset);
+      if (frag_no == 0) {
+        outs.writeStringZ(channel);
+        fraglen = FRAGMENT - channel.length() - 1;
+      }
+      outs.write(data, fragment_offset, fraglen);
+      fragment_offset += fraglen;
+      list.add(outs.toByteArray());
+    }
+    return list;
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int index = 0; index < length; ++index)
+      data[index] = (byte) (index * seed);
+    return data;
+  }
+
+  private final Map<String, byte[]> received = new ConcurrentHashMap<>();
+
+  private FragmentReassembler create(int maxInFlight, int timeout_ms, long maxMemory) throws Exception {
+    LCM lcm = new LCM("memq://");
+    lcm.subscribe(".*", (l, channel, ins) -> {
+      byte[] bytes = new byte[ins.available()];
+      try {
+        ins.readFully(bytes);
+      } catch (Exception exception) {
+        throw new RuntimeException(exception);
+      }
+      received.put(channel, bytes);
+    });
+    return new FragmentReassembler(lcm, new ChannelNameCache(), maxInFlight, timeout_ms, maxMemory);
+  }
+
+  private static void feed(FragmentReassembler fragmentReassembler, SocketAddress socketAddress, byte[] fragment) {
+    fragmentReassembler.handleFragment(socketAddress, fragment, 0, fragment.length);
+  }
+
+  public void testInterleavedReversed() throws Exception {
+    FragmentReassembler fragmentReassembler = create(4, 1000, 1 << 20);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    byte[] image = data(5500, 3);
+    byte[] cloud = data(3200, 7);
+    List<byte[]> list1 = fragments("IMAGE", 10, image);
+    List<byte[]> list2 = fragments("CLOUD", 11, cloud);
+    for (int index = Math.max(list1.size(), list2.size()) - 1; 0 <= index; --index) {
+      if (index < list1.size())
+        feed(fragmentReassembler, socketAddress, list1.get(index));
+      if (index < list2.size())
+        feed(fragmentReassembler, socketAddress, list2.get(index));
+    }
+    assertEquals(fragmentReassembler.getCompletedCount(), 2);
+    assertEquals(fragmentReassembler.getDroppedCount(), 0);
+    assertTrue(Arrays.equals(received.get("IMAGE"), image));
+    assertTrue(Arrays.equals(received.get("CLOUD"), cloud));
+  }
+
+  public void testInFlightLimit() throws Exception {
+    FragmentReassembler fragmentReassembler = create(1, 1000, 1 << 20);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    List<byte[]> list1 = fragments("A", 1, data(2500, 1));
+    List<byte[]> list2 = fragments("B", 2, data(2500, 2));
+    feed(fragmentReassembler, socketAddress, list1.get(0));
+    list2.forEach(fragment -> feed(fragmentReassembler, socketAddress, fragment));
+    assertEquals(fragmentReassembler.getCompletedCount(), 1);
+    assertEquals(fragmentReassembler.getDroppedCount(), 1);
+    assertTrue(received.containsKey("B"));
+  }
+
+  public void testSenders() throws Exception {
+    FragmentReassembler fragmentReassembler = create(1, 1000, 1 << 20);
+    SocketAddress socketAddress1 = new InetSocketAddress("127.0.0.1", 7667);
+    SocketAddress socketAddress2 = new InetSocketAddress("127.0.0.2", 7667);
+    List<byte[]> list1 = fragments("A", 1, data(2500, 1));
+    List<byte[]> list2 = fragments("B", 1, data(2500, 2));
+    for (int index = 0; index < list1.size(); ++index) {
+      feed(fragmentReassembler, socketAddress1, list1.get(index));
+      feed(fragmentReassembler, socketAddress2, list2.get(index));
+    }
+    assertEquals(fragmentReassembler.getCompletedCount(), 2);
+  }
+
+  public void testMemory() throws Exception {
+    FragmentReassembler fragmentReassembler = create(4, 1000, 4000);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    List<byte[]> list1 = fragments("A", 1, data(2500, 1));
+    List<byte[]> list2 = fragments("B", 2, data(2500, 2));
+    feed(fragmentReassembler, socketAddress, list1.get(0));
+    list2.forEach(fragment -> feed(fragmentReassembler, socketAddress, fragment));
+    assertEquals(fragmentReassembler.getCompletedCount(), 1);
+    assertEquals(fragmentReassembler.getDroppedCount(), 1);
+    fragments("C", 3, data(4500, 2)).forEach(fragment -> feed(fragmentReassembler, socketAddress, fragment));
+    assertEquals(fragmentReassembler.getDroppedCount(), 2);
+  }
+
+  public void testExpired() throws Exception {
+    FragmentReassembler fragmentReassembler = create(4, 1, 1 << 20);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    List<byte[]> list1 = fragments("A", 1, data(2500, 1));
+    feed(fragmentReassembler, socketAddress, list1.get(0));
+    Thread.sleep(10);
+    fragments("B", 2, data(2500, 2)).forEach(fragment -> feed(fragmentReassembler, socketAddress, fragment));
+    feed(fragmentReassembler, socketAddress, list1.get(1));
+    feed(fragmentReassembler, socketAddress, list1.get(2));
+    assertEquals(fragmentReassembler.getExpiredCount(), 1);
+    assertEquals(fragmentReassembler.getCompletedCount(), 1);
+    assertFalse(received.containsKey("A"));
+  }
+
+  /** fragments that arrive steadily keep a message alive beyond the timeout */
+  public void testPaced() throws Exception {
+    FragmentReassembler fragmentReassembler = create(4, 50, 1 << 20);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    byte[] image = data(30000, 3);
+    List<byte[]> list1 = fragments("IMAGE", 1, image);
+    List<byte[]> list2 = fragments("STALLED", 2, data(2500, 2));
+    feed(fragmentReassembler, socketAddress, list1.get(0));
+    // created after the paced message, but never continued
+    feed(fragmentReassembler, socketAddress, list2.get(0));
+    long tic = System.nanoTime();
+    for (int index = 1; index < list1.size(); ++index) {
+      Thread.sleep(5);
+      feed(fragmentReassembler, socketAddress, list1.get(index));
+    }
+    assertTrue(100_000_000L < System.nanoTime() - tic);
+    assertEquals(fragmentReassembler.getCompletedCount(), 1);
+    assertEquals(fragmentReassembler.getExpiredCount(), 1);
+    assertTrue(Arrays.equals(received.get("IMAGE"), image));
+    assertFalse(received.containsKey("STALLED"));
+  }
+
+  public void testOffsetOverflow() throws Exception {
+    FragmentReassembler fragmentReassembler = create(4, 1000, 1 << 20);
+    SocketAddress socketAddress = new InetSocketAddress("127.0.0.1", 7667);
+    byte[] image = data(2500, 3);
+    List<byte[]> list = fragments("IMAGE", 1, image);
+    feed(fragmentReassembler, socketAddress, list.get(0));
+    // fragment with an offset close to Integer.MAX_VALUE
+    byte[] fragment = list.get(1).clone();
+    fragment[12] = 0x7f;
+    fragment[13] = (byte) 0xff;
+    fragment[14] = (byte) 0xff;
+    fragment[15] = 0x00;
+    feed(fragmentReassembler, socketAddress, fragment);
+    assertEquals(fragmentReassembler.getDroppedCount(), 1);
+    list.forEach(datagram -> feed(fragmentReassembler, socketAddress, datagram));
+    assertEquals(fragmentReassembler.getCompletedCount(), 1);
+    assertTrue(Arrays.equals(received.get("IMAGE"), image));
+  }
+}
@@ -0,0 +1,53 @@
+// code by jph
+package lcm.lcm;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class LCMTest extends TestCase {
+  public void testSubscribeUnsubscribe() throws Exception {
+    LCM lcm = new LCM("memq://");
+    AtomicInteger count = new AtomicInteger();
+    CountDownLatch countDownLatch = new CountDownLatch(2);
+    SubscriptionRecord srec = lcm.subscribe("ABC.*", (l, channel, ins) -> {
+      count.incrementAndGet();
+      countDownLatch.countDown();
+    });
+    assertEquals(lcm.getNumSubscriptions(), 1);
+    lcm.publish("ABC1", new byte[] { 1, 2, 3 }, 0, 3);
+    lcm.publish("XYZ", new byte[] { 1, 2, 3 }, 0, 3);
+    lcm.publish("ABC2", new byte[] { 1, 2, 3 }, 0, 3);
+    assertTrue(countDownLatch.await(1, TimeUnit.SECONDS));
+    lcm.unsubscribe(srec);
+    assertEquals(lcm.getNumSubscriptions(), 0);
+    lcm.receiveMessage("ABC1", new byte[] { 1 }, 0, 1);
+    assertEquals(count.get(), 2);
+    lcm.close();
+  }
+
+  public void testConcurrentDelivery() throws Exception {
+    // two providers deliver the same message on two different threads
+    LCM lcm = new LCM("memq://", "memq://");
+    CountDownLatch countDownLatch = new CountDownLatch(2);
+    CountDownLatch done = new CountDownLatch(2);
+    AtomicInteger met = new AtomicInteger();
+    lcm.subscribe(".*", (l, channel, ins) -> {
+      countDownLatch.countDown();
+      try {
+        // only succeeds if the other provider thread is not blocked
+        if (countDownLatch.await(1, TimeUnit.SECONDS))
+          met.incrementAndGet();
+      } catch (InterruptedException exception) {
+        // ---
+      }
+      done.countDown();
+    });
+    lcm.publish("CHANNEL", new byte[] { 1 }, 0, 1);
+    assertTrue(done.await(3, TimeUnit.SECONDS));
+    assertEquals(met.get(), 2);
+    lcm.close();
+  }
+}
@@ -0,0 +1,84 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import lcm.logging.Log;
+import lcm.logging.Log.Event;
+
+public class LogFileProviderTest extends TestCase {
+  private static final int EVENTS = 200;
+  private static final long UTIME = 1_500_000_000_000_000L;
+
+  /** @return log with one event per second, that takes minutes in real time */
+  private static File log() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try (Log log = new Log(file.getPath(), "rw")) {
+      for (int index = 0; index < EVENTS; ++index) {
+        Event event = new Event();
+        event.eventNumber = index;
+        event.utime = UTIME + index * 1_000_000L;
+        event.channel = index % 2 == 0 ? "A" : "B";
+        event.data = new byte[] { (byte) index };
+        log.write(event);
+      }
+    }
+    return file;
+  }
+
+  public void testLockstep() throws Exception {
+    File file = log();
+    try {
+      LCM lcm = new LCM("file://" + file.getPath() + "?replay=lockstep&delay=0");
+      AtomicInteger count = new AtomicInteger();
+      AtomicInteger mismatch = new AtomicInteger();
+      CountDownLatch countDownLatch = new CountDownLatch(EVENTS);
+      lcm.subscribe(".*", (l, channel, ins) -> {
+        int index = count.getAndIncrement();
+        try {
+          // the clock does not advance while the subscriber is busy
+          Thread.sleep(1);
+          if (l.getUtime() != UTIME + index * 1_000_000L || (ins.readByte() & 0xff) != (index & 0xff))
+            mismatch.incrementAndGet();
+        } catch (Exception exception) {
+          mismatch.incrementAndGet();
+        }
+        countDownLatch.countDown();
+      }, 1, DeliveryPolicy.DROP_NEWEST);
+      assertTrue(countDownLatch.await(10, TimeUnit.SECONDS));
+      assertEquals(mismatch.get(), 0);
+      assertEquals(lcm.getUtime(), UTIME + (EVENTS - 1) * 1_000_000L);
+      lcm.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testFlow() throws Exception {
+    File file = log();
+    try {
+      LCM lcm = new LCM("file://" + file.getPath() + "?replay=flow&delay=0");
+      AtomicInteger count = new AtomicInteger();
+      CountDownLatch countDownLatch = new CountDownLatch(EVENTS / 2);
+      SubscriptionRecord srec = lcm.subscribe("A", (l, channel, ins) -> {
+        count.incrementAndGet();
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException exception) {
+          // ---
+        }
+        countDownLatch.countDown();
+      }, 1, DeliveryPolicy.KEEP_LATEST);
+      assertTrue(countDownLatch.await(10, TimeUnit.SECONDS));
+      assertEquals(count.get(), EVENTS / 2);
+      assertEquals(srec.getDropCount(), 0);
+      lcm.close();
+    } finally {
+      file.delete();
+    }
+  }
+}
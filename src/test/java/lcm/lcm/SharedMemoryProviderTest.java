@@ -0,0 +1,123 @@
+// code by jph
+package lcm.lcm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class SharedMemoryProviderTest extends TestCase {
+  public void testWrap() throws Exception {
+    String name = "test-" + System.nanoTime();
+    String url = "shm://" + name + "?size=64K&parkmax=100";
+    LCM publisher = new LCM(url);
+    LCM subscriber = new LCM("memq://");
+    SharedMemoryProvider sharedMemoryProvider = new SharedMemoryProvider(subscriber, new URLParser(url));
+    int count = 1000;
+    List<Integer> list = new ArrayList<>();
+    CountDownLatch countDownLatch = new CountDownLatch(1);
+    // failures in the reader thread are reported on the thread of the test
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    subscriber.subscribe("CHANNEL.*", (lcm, channel, ins) -> {
+      try {
+        int length = ins.available();
+        assertEquals(channel, "CHANNEL" + (length % 3));
+        int value = ins.readInt();
+        for (int index = 4; index < length; ++index)
+          assertEquals(ins.readByte(), (byte) value);
+        list.add(value);
+        if (value == count - 1)
+          countDownLatch.countDown();
+      } catch (Throwable throwable) {
+        failure.compareAndSet(null, throwable);
+      }
+    });
+    sharedMemoryProvider.subscribe("CHANNEL.*");
+    for (int value = 0; value < count; ++value) {
+      LCMDataOutputStream lcmDataOutputStream = new LCMDataOutputStream();
+      lcmDataOutputStream.writeInt(value);
+      int length = 100 + value % 1000;
+      for (int index = 4; index < length; ++index)
+        lcmDataOutputStream.writeByte(value);
+      publisher.publish("CHANNEL" + (length % 3), lcmDataOutputStream.getBuffer(), 0, length);
+      Thread.sleep(0, 100_000);
+    }
+    assertTrue(countDownLatch.await(2, TimeUnit.SECONDS));
+    assertNull(failure.get());
+    // messages are received in order, and are only lost due to overruns
+    for (int index = 1; index < list.size(); ++index)
+      assertTrue(list.get(index - 1) < list.get(index));
+    assertTrue(list.size() == count || 0 < sharedMemoryProvider.getOverrunCount());
+    sharedMemoryProvider.close();
+    publisher.close();
+    subscriber.close();
+    new File("/dev/shm", "lcm-" + name).delete();
+    new File(System.getProperty("java.io.tmpdir"), "lcm-" + name).delete();
+  }
+
+  /** publishers of different LCM instances in the same process share the
+   * file */
+  public void testPublishers() throws Exception {
+    String name = "test-" + System.nanoTime();
+    String url = "shm://" + name + "?size=4M&parkmax=100";
+    int publishers = 4;
+    int count = 2000;
+    List<LCM> list = new ArrayList<>();
+    for (int index = 0; index < publishers; ++index)
+      list.add(new LCM(url));
+    LCM subscriber = new LCM("memq://");
+    SharedMemoryProvider sharedMemoryProvider = new SharedMemoryProvider(subscriber, new URLParser(url));
+    int[] next = new int[publishers];
+    CountDownLatch countDownLatch = new CountDownLatch(publishers * count);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    subscriber.subscribe("PUBLISHER.*", (lcm, channel, ins) -> {
+      try {
+        int publisher = ins.readInt();
+        assertEquals(channel, "PUBLISHER" + publisher);
+        // messages of each publisher are received in order and without loss
+        assertEquals(ins.readInt(), next[publisher]);
+        ++next[publisher];
+        countDownLatch.countDown();
+      } catch (Throwable throwable) {
+        failure.compareAndSet(null, throwable);
+      }
+    });
+    sharedMemoryProvider.subscribe("PUBLISHER.*");
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int index = 0; index < publishers; ++index) {
+      int publisher = index;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          for (int value = 0; value < count; ++value) {
+            LCMDataOutputStream lcmDataOutputStream = new LCMDataOutputStream();
+            lcmDataOutputStream.writeInt(publisher);
+            lcmDataOutputStream.writeInt(value);
+            list.get(publisher).publish("PUBLISHER" + publisher, lcmDataOutputStream.getBuffer(), 0, 8);
+          }
+        } catch (Throwable throwable) {
+          failure.compareAndSet(null, throwable);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+    assertTrue(countDownLatch.await(2, TimeUnit.SECONDS));
+    assertNull(failure.get());
+    assertEquals(sharedMemoryProvider.getOverrunCount(), 0);
+    sharedMemoryProvider.close();
+    for (LCM lcm : list)
+      lcm.close();
+    subscriber.close();
+    new File("/dev/shm", "lcm-" + name).delete();
+    new File(System.getProperty("java.io.tmpdir"), "lcm-" + name).delete();
+  }
+}
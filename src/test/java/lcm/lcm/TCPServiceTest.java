@@ -1,21 +1,159 @@
 // code by jph
 package lcm.lcm;
 
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestCase;
 
 public class TCPServiceTest extends TestCase {
   public void testSimple() throws Exception {
-    // String[] args = new String[] { "12393" };
-    // try {
-    // int port = TCPProvider.DEFAULT_PORT;
-    // if (args.length > 0)
-    // port = Integer.parseInt(args[0]);
-    // TCPService tcpService = new TCPService(port);
-    // Thread.sleep(1000);
-    // Thread.currentThread().interrupt();
-    // // tcpService.
-    // } catch (IOException ex) {
-    // System.out.println("Ex: " + ex);
-    // }
+    TCPService tcpService = new TCPService(0);
+    String url = "tcpq://127.0.0.1:" + tcpService.getPort();
+    LCM publisher = new LCM(url);
+    LCM subscriber = new LCM(url);
+    int count = 1000;
+    AtomicInteger received = new AtomicInteger();
+    CountDownLatch countDownLatch = new CountDownLatch(count);
+    subscriber.subscribe("CAM.*", (lcm, channel, ins) -> {
+      received.incrementAndGet();
+      countDownLatch.countDown();
+    });
+    subscriber.subscribe("CAMERA", (lcm, channel, ins) -> countDownLatch.countDown());
+    // wait until both clients are connected and the subscriptions are known
+    Thread.sleep(500);
+    assertEquals(tcpService.getClientCount(), 2);
+    for (int index = 0; index < count / 2; ++index) {
+      publisher.publish("CAMERA", new byte[100], 0, 100);
+      publisher.publish("POSE", new byte[100], 0, 100);
+    }
+    assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(received.get(), count / 2);
+    publisher.close();
+    subscriber.close();
+    tcpService.close();
+  }
+
+  public void testSlowClient() throws Exception {
+    TCPService tcpService = new TCPService(0, 2, 2_000_000, SlowClientPolicy.DROP);
+    String url = "tcpq://127.0.0.1:" + tcpService.getPort();
+    // client that subscribes but never reads
+    try (Socket socket = new Socket("127.0.0.1", tcpService.getPort())) {
+      socket.setReceiveBufferSize(4096);
+      DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+      dataOutputStream.writeInt(TCPProvider.MAGIC_CLIENT);
+      dataOutputStream.writeInt(TCPProvider.VERSION);
+      dataOutputStream.writeInt(TCPProvider.MESSAGE_TYPE_SUBSCRIBE);
+      dataOutputStream.writeInt(2);
+      dataOutputStream.writeBytes(".*");
+      dataOutputStream.flush();
+      LCM publisher = new LCM(url);
+      LCM subscriber = new LCM(url);
+      int count = 2000;
+      CountDownLatch countDownLatch = new CountDownLatch(count);
+      subscriber.subscribe("DATA", (lcm, channel, ins) -> countDownLatch.countDown());
+      Thread.sleep(500);
+      for (int index = 0; index < count; ++index) {
+        publisher.publish("DATA", new byte[10_000], 0, 10_000);
+        if (index % 10 == 0) // the subscriber has to be able to keep up
+          Thread.sleep(1);
+      }
+      // the client that keeps up receives all messages
+      assertTrue(countDownLatch.await(10, TimeUnit.SECONDS));
+      assertTrue(0 < tcpService.getDropCount());
+      publisher.close();
+      subscriber.close();
+    }
+    tcpService.close();
+  }
+
+  public void testDisconnect() throws Exception {
+    TCPService tcpService = new TCPService(0, 1, 100_000, SlowClientPolicy.DISCONNECT);
+    try (Socket socket = new Socket("127.0.0.1", tcpService.getPort())) {
+      socket.setReceiveBufferSize(4096);
+      DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+      dataOutputStream.writeInt(TCPProvider.MAGIC_CLIENT);
+      dataOutputStream.writeInt(TCPProvider.VERSION);
+      dataOutputStream.writeInt(TCPProvider.MESSAGE_TYPE_SUBSCRIBE);
+      dataOutputStream.writeInt(2);
+      dataOutputStream.writeBytes(".*");
+      dataOutputStream.flush();
+      Thread.sleep(200);
+      assertEquals(tcpService.getClientCount(), 1);
+      for (int index = 0; index < 500; ++index)
+        tcpService.relay("DATA".getBytes(), new byte[10_000]);
+      Thread.sleep(200);
+      assertEquals(tcpService.getDisconnectCount(), 1);
+      assertEquals(tcpService.getClientCount(), 0);
+    }
+    tcpService.close();
+  }
+
+  /** a message larger than the capacity of the queue is relayed */
+  public void testLarge() throws Exception {
+    TCPService tcpService = new TCPService(0, 1, 100_000, SlowClientPolicy.DISCONNECT);
+    String url = "tcpq://127.0.0.1:" + tcpService.getPort();
+    LCM publisher = new LCM(url);
+    LCM subscriber = new LCM(url);
+    CountDownLatch countDownLatch = new CountDownLatch(3);
+    subscriber.subscribe("LARGE", (lcm, channel, ins) -> countDownLatch.countDown());
+    Thread.sleep(500);
+    for (int index = 0; index < 3; ++index) {
+      publisher.publish("LARGE", new byte[1_000_000], 0, 1_000_000);
+      Thread.sleep(100);
+    }
+    assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(tcpService.getDisconnectCount(), 0);
+    publisher.close();
+    subscriber.close();
+    tcpService.close();
+  }
+
+  /** a client with an invalid message is disconnected, the other clients of
+   * the loop continue to be served */
+  public void testInvalid() throws Exception {
+    TCPService tcpService = new TCPService(0, 1, TCPService.DEFAULT_QUEUE_CAPACITY, SlowClientPolicy.DISCONNECT);
+    String url = "tcpq://127.0.0.1:" + tcpService.getPort();
+    LCM publisher = new LCM(url);
+    LCM subscriber = new LCM(url);
+    AtomicInteger received = new AtomicInteger();
+    subscriber.subscribe("DATA", (lcm, channel, ins) -> received.incrementAndGet());
+    Thread.sleep(500);
+    for (int channellen : new int[] { 0x7ffffff0, 1 << 30, 256 })
+      try (Socket socket = new Socket("127.0.0.1", tcpService.getPort())) {
+        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+        dataOutputStream.writeInt(TCPProvider.MAGIC_CLIENT);
+        dataOutputStream.writeInt(TCPProvider.VERSION);
+        dataOutputStream.writeInt(TCPProvider.MESSAGE_TYPE_PUBLISH);
+        dataOutputStream.writeInt(channellen);
+        dataOutputStream.flush();
+        // the service closes the connection
+        socket.setSoTimeout(2000);
+        assertEquals(socket.getInputStream().skip(8), 8);
+        assertEquals(socket.getInputStream().read(), -1);
+      }
+    try (Socket socket = new Socket("127.0.0.1", tcpService.getPort())) {
+      DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+      dataOutputStream.writeInt(TCPProvider.MAGIC_CLIENT);
+      dataOutputStream.writeInt(TCPProvider.VERSION);
+      dataOutputStream.writeInt(TCPProvider.MESSAGE_TYPE_PUBLISH);
+      dataOutputStream.writeInt(4);
+      dataOutputStream.writeBytes("DATA");
+      dataOutputStream.writeInt(0x7ffffff0);
+      dataOutputStream.flush();
+      socket.setSoTimeout(2000);
+      assertEquals(socket.getInputStream().skip(8), 8);
+      assertEquals(socket.getInputStream().read(), -1);
+    }
+    publisher.publish("DATA", new byte[100], 0, 100);
+    Thread.sleep(200);
+    assertEquals(received.get(), 1);
+    assertEquals(tcpService.getClientCount(), 2);
+    publisher.close();
+    subscriber.close();
+    tcpService.close();
   }
 }
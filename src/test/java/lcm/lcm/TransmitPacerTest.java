@@ -0,0 +1,62 @@
+// code by jph
+package lcm.lcm;
+
+import junit.framework.TestCase;
+
+public class TransmitPacerTest extends TestCase {
+  public void testRate() {
+    TransmitPacer transmitPacer = new TransmitPacer(1_000_000, 0, 0, null);
+    assertTrue(transmitPacer.isPacing());
+    long tic = System.nanoTime();
+    for (int count = 0; count < 11; ++count) {
+      transmitPacer.acquire(10_000, false, 0);
+      transmitPacer.sent(10_000);
+    }
+    long nanos = System.nanoTime() - tic;
+    // 10 reservations of 10 ms each precede the last datagram
+    assertTrue(100_000_000 <= nanos);
+    assertTrue(0 < transmitPacer.getThrottledNanos());
+    assertEquals(transmitPacer.getDatagramCount(), 11);
+    assertEquals(transmitPacer.getByteCount(), 110_000);
+  }
+
+  public void testPriority() {
+    TransmitPacer transmitPacer = new TransmitPacer(1_000_000, 0, 0, "CONTROL.*");
+    assertTrue(transmitPacer.isPriority("CONTROL1"));
+    assertFalse(transmitPacer.isPriority("IMAGE"));
+    long tic = System.nanoTime();
+    for (int count = 0; count < 10; ++count)
+      transmitPacer.acquire(100_000, true, 0);
+    assertTrue(System.nanoTime() - tic < 500_000_000);
+    assertEquals(transmitPacer.getThrottledNanos(), 0);
+    // bulk datagram waits for the tokens consumed by the priority datagrams
+    tic = System.nanoTime();
+    transmitPacer.acquire(1, false, 0);
+    assertTrue(500_000_000 <= System.nanoTime() - tic);
+  }
+
+  public void testGap() {
+    TransmitPacer transmitPacer = new TransmitPacer(0, 20_000, 0, null);
+    assertTrue(transmitPacer.isPacing());
+    long tic = System.nanoTime();
+    long previous = 0;
+    for (int count = 0; count < 4; ++count)
+      previous = transmitPacer.acquire(64000, false, previous);
+    assertTrue(60_000_000 <= System.nanoTime() - tic);
+  }
+
+  public void testUnlimited() {
+    TransmitPacer transmitPacer = new TransmitPacer(0, 0, TransmitPacer.DEFAULT_BURST, null);
+    assertFalse(transmitPacer.isPacing());
+    assertFalse(transmitPacer.isPriority("ABC"));
+  }
+
+  public void testFail() {
+    try {
+      new TransmitPacer(-1, 0, 0, null);
+      fail();
+    } catch (Exception exception) {
+      // ---
+    }
+  }
+}
@@ -21,4 +21,13 @@ public class URLParserTest extends TestCase {
     assertEquals(u.get("protocol"), "http");
     assertEquals(u.get("network"), "blub.html");
   }
+
+  public void testSize() {
+    URLParser urlParser = new URLParser("file:///tmp/log?backlog=512K&segsize=64m&block=65536");
+    assertEquals(urlParser.getSize("backlog", 0), 512 << 10);
+    assertEquals(urlParser.getSize("segsize", 0), 64 << 20);
+    assertEquals(urlParser.getSize("block", 0), 65536);
+    assertEquals(urlParser.getSize("size", 1L << 30), 1L << 30);
+    assertEquals(URLParser.parseSize("2G"), 2L << 30);
+  }
 }
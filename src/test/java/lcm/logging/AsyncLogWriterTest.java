@@ -0,0 +1,99 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+
+import junit.framework.TestCase;
+import lcm.lcm.LCM;
+import lcm.logging.Log.Event;
+
+public class AsyncLogWriterTest extends TestCase {
+  public void testConcurrent() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try {
+      AsyncLogWriter asyncLogWriter = new AsyncLogWriter(file.getPath(), 1L << 30, 5);
+      Thread[] threads = new Thread[4];
+      for (int index = 0; index < threads.length; ++index) {
+        String channel = "CHANNEL" + index;
+        threads[index] = new Thread(() -> {
+          byte[] data = new byte[1000];
+          for (int count = 0; count < 2000; ++count) {
+            data[0] = (byte) count;
+            assertTrue(asyncLogWriter.write(count, channel, data, 0, 10 + count % 500));
+          }
+        });
+        threads[index].start();
+      }
+      for (Thread thread : threads)
+        thread.join();
+      asyncLogWriter.close();
+      assertEquals(asyncLogWriter.getEventCount(), 8000);
+      assertEquals(asyncLogWriter.getBacklog(), 0);
+      assertEquals(asyncLogWriter.getBacklogBytes(), 0);
+      assertEquals(asyncLogWriter.getDropCount(), 0);
+      assertEquals(asyncLogWriter.getByteCount(), file.length());
+      assertTrue(0 < asyncLogWriter.getSyncCount());
+      assertFalse(asyncLogWriter.write(0, "CLOSED", new byte[1], 0, 1));
+      assertEquals(asyncLogWriter.getBacklogBytes(), 0);
+      long[] next = new long[threads.length];
+      int count = 0;
+      try (Log log = new Log(file.getPath(), "r")) {
+        while (true) {
+          Event event = log.readNext();
+          assertEquals(event.eventNumber, count);
+          int index = event.channel.charAt(7) - '0';
+          // the events of each publisher are in order
+          assertEquals(event.utime, next[index]);
+          assertEquals(event.data.length, 10 + next[index] % 500);
+          assertEquals(event.data[0], (byte) next[index]);
+          ++next[index];
+          ++count;
+        }
+      } catch (EOFException exception) {
+        // ---
+      }
+      assertEquals(count, 8000);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testDrop() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try {
+      AsyncLogWriter asyncLogWriter = new AsyncLogWriter(file.getPath(), 10000, 0);
+      byte[] data = new byte[1000];
+      int accepted = 0;
+      for (int count = 0; count < 1000; ++count)
+        if (asyncLogWriter.write(count, "CHANNEL", data, 0, data.length))
+          ++accepted;
+      assertTrue(asyncLogWriter.getBacklogBytes() <= 10000);
+      asyncLogWriter.close();
+      assertEquals(asyncLogWriter.getEventCount(), accepted);
+      assertEquals(accepted + asyncLogWriter.getDropCount(), 1000);
+      assertEquals(asyncLogWriter.getSyncCount(), 0);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testLogFileProvider() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try {
+      LCM lcm = new LCM("file://" + file.getPath() + "?mode=w&fsync=0&backlog=16M");
+      for (int count = 0; count < 100; ++count)
+        lcm.publish("CHANNEL", new byte[] { (byte) count }, 0, 1);
+      lcm.close();
+      try (Log log = new Log(file.getPath(), "r")) {
+        for (int count = 0; count < 100; ++count) {
+          Event event = log.readNext();
+          assertEquals(event.eventNumber, count);
+          assertEquals(event.data[0], (byte) count);
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
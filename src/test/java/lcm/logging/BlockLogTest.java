@@ -0,0 +1,118 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+import lcm.lcm.LCM;
+import lcm.logging.Log.Event;
+
+public class BlockLogTest extends TestCase {
+  private static final int EVENTS = 5000;
+
+  private static File write() throws Exception {
+    File file = File.createTempFile("lcmlog", ".lcmz");
+    BlockLogWriter blockLogWriter = new BlockLogWriter(file.getPath(), 8192, 1, 1 << 24, 0);
+    byte[] data = new byte[200];
+    for (int count = 0; count < EVENTS; ++count) {
+      data[count % data.length] = (byte) count;
+      assertTrue(blockLogWriter.write(1000 + 10 * count, "CHANNEL" + count % 3, data, 0, 50 + count % 150));
+    }
+    blockLogWriter.close();
+    try (BlockLog blockLog = new BlockLog(file.getPath(), 0)) {
+      // file header, blocks, index, and trailer
+      assertEquals(file.length(), 8 + blockLogWriter.getCompressedByteCount() + 8 + 28 * blockLog.getBlockCount() + 12);
+    }
+    // compression reduces the size
+    assertTrue(5 * file.length() < blockLogWriter.getByteCount());
+    return file;
+  }
+
+  private static void checkAll(LogReader logReader, int expected) throws Exception {
+    int count = 0;
+    try {
+      while (true) {
+        Event event = logReader.readNext();
+        assertEquals(event.eventNumber, count);
+        assertEquals(event.utime, 1000 + 10 * count);
+        assertEquals(event.channel, "CHANNEL" + count % 3);
+        assertEquals(event.data.length, 50 + count % 150);
+        ++count;
+      }
+    } catch (EOFException exception) {
+      // ---
+    }
+    assertEquals(count, expected);
+    assertEquals(logReader.getPositionFraction(), 1.0);
+  }
+
+  public void testReadSeek() throws Exception {
+    File file = write();
+    try {
+      for (int threads : new int[] { 0, 1, 4 })
+        try (BlockLog blockLog = new BlockLog(file.getPath(), threads)) {
+          assertTrue(10 < blockLog.getBlockCount());
+          assertEquals(blockLog.getEventCount(), EVENTS);
+          checkAll(blockLog, EVENTS);
+          assertTrue(blockLog.seekToEventNumber(2500));
+          assertEquals(blockLog.readNext().eventNumber, 2500);
+          assertEquals(blockLog.readNext().eventNumber, 2501);
+          assertTrue(blockLog.seekToUtime(1000 + 10 * 4000 - 5));
+          assertEquals(blockLog.readNext().eventNumber, 4000);
+          assertTrue(blockLog.seekToUtime(0));
+          assertEquals(blockLog.readNext().eventNumber, 0);
+          assertFalse(blockLog.seekToEventNumber(EVENTS));
+          blockLog.seekPositionFraction(0.5);
+          assertTrue(Math.abs(blockLog.getPositionFraction() - 0.5) < 0.01);
+          long eventNumber = blockLog.readNext().eventNumber;
+          assertTrue(Math.abs(eventNumber - EVENTS / 2) < EVENTS / 50);
+          for (long count = eventNumber + 1; count < EVENTS; ++count)
+            assertEquals(blockLog.readNext().eventNumber, count);
+          blockLog.seekPositionFraction(0);
+          checkAll(blockLog, EVENTS);
+        }
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testWithoutIndex() throws Exception {
+    File file = write();
+    try {
+      long length;
+      try (BlockLog blockLog = new BlockLog(file.getPath(), 0)) {
+        length = file.length() - 12 - 8 - 28 * blockLog.getBlockCount();
+      }
+      // remove index and truncate the last block
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        randomAccessFile.setLength(length - 1);
+      }
+      try (LogReader logReader = LogReaders.open(file.getPath())) {
+        BlockLog blockLog = (BlockLog) logReader;
+        checkAll(blockLog, (int) blockLog.getEventCount());
+        assertTrue(EVENTS - 200 < blockLog.getEventCount());
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testLogFileProvider() throws Exception {
+    File file = File.createTempFile("lcmlog", ".lcmz");
+    try {
+      LCM lcm = new LCM("file://" + file.getPath() + "?mode=w&compress=deflate&block=4K&level=6");
+      for (int count = 0; count < 1000; ++count)
+        lcm.publish("CHANNEL", new byte[100], 0, 100);
+      lcm.close();
+      try (LogReader logReader = LogReaders.open(file.getPath())) {
+        assertTrue(logReader instanceof BlockLog);
+        for (int count = 0; count < 1000; ++count)
+          assertEquals(logReader.readNext().eventNumber, count);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BufferedZipInputStreamTest extends TestCase {
+  public void testMixedReads() throws Exception {
+    Random random = new Random(3);
+    byte[] data = new byte[3_000_003];
+    random.nextBytes(data);
+    ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+    File file = File.createTempFile("lcmlog", "");
+    File zip = TestLogs.zip(file, data);
+    // buffer size that is not a multiple of the sizes of the primitives
+    BufferedZipInputStream bufferedZipInputStream = new BufferedZipInputStream(zip.getPath(), 4093, 3);
+    try {
+      byte[] array = new byte[10_000];
+      while (15 < byteBuffer.remaining()) {
+        switch (random.nextInt(6)) {
+        case 0:
+          assertEquals(bufferedZipInputStream.read(), byteBuffer.get() & 0xff);
+          break;
+        case 1:
+          assertEquals(bufferedZipInputStream.readShort(), byteBuffer.getShort());
+          break;
+        case 2:
+          assertEquals(bufferedZipInputStream.readInt(), byteBuffer.getInt());
+          break;
+        case 3:
+          assertEquals(bufferedZipInputStream.readLong(), byteBuffer.getLong());
+          break;
+        case 4: {
+          int length = Math.min(random.nextInt(array.length), byteBuffer.remaining());
+          bufferedZipInputStream.readFully(array, 0, length);
+          for (int index = 0; index < length; ++index)
+            assertEquals(array[index], byteBuffer.get());
+          break;
+        }
+        default: {
+          int length = Math.min(random.nextInt(array.length), byteBuffer.remaining());
+          bufferedZipInputStream.skipFully(length);
+          byteBuffer.position(byteBuffer.position() + length);
+          break;
+        }
+        }
+      }
+      bufferedZipInputStream.skipFully(byteBuffer.remaining());
+      try {
+        bufferedZipInputStream.read();
+        fail();
+      } catch (EOFException exception) {
+        // ---
+      }
+      // subsequent reads also fail
+      try {
+        bufferedZipInputStream.readInt();
+        fail();
+      } catch (EOFException exception) {
+        // ---
+      }
+      assertEquals(bufferedZipInputStream.getByteCount(), data.length);
+      assertTrue(0 < bufferedZipInputStream.getInflateRate());
+    } finally {
+      bufferedZipInputStream.close();
+      file.delete();
+      zip.delete();
+    }
+  }
+
+  public void testClose() throws Exception {
+    byte[] data = new byte[1_000_000];
+    File file = File.createTempFile("lcmlog", "");
+    File zip = TestLogs.zip(file, data);
+    try {
+      BufferedZipInputStream bufferedZipInputStream = new BufferedZipInputStream(zip.getPath(), 1024, 2);
+      assertEquals(bufferedZipInputStream.readLong(), 0);
+      // inflater is blocked on the full ring
+      bufferedZipInputStream.close();
+    } finally {
+      file.delete();
+      zip.delete();
+    }
+  }
+}
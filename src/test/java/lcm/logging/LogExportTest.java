@@ -0,0 +1,167 @@
+// code by jph
+package lcm.logging;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class LogExportTest extends TestCase {
+  private static File log() throws Exception {
+    return TestLogs.log(1000, index -> {
+      // runs of 3 events on channel A and 2 events on channel B
+      byte[] data = new byte[1 + index % 50];
+      data[0] = (byte) index;
+      return TestLogs.event(index, 1_000_000L * index, index % 5 < 3 ? "A" : "B", data);
+    });
+  }
+
+  public void testIdentity() throws Exception {
+    File file = log();
+    File export = File.createTempFile("lcmlog", ".log");
+    try {
+      List<Double> progress = new ArrayList<>();
+      LogExport logExport = new LogExport(file.getPath(), export.getPath()) //
+          .setRenumber(true) //
+          .setProgressListener(progress::add);
+      assertEquals((long) logExport.call(), 1000);
+      assertEquals(logExport.getRenumberCount(), 0);
+      assertEquals(logExport.getRunCount(), 1);
+      assertTrue(Arrays.equals(Files.readAllBytes(export.toPath()), Files.readAllBytes(file.toPath())));
+      assertEquals(progress.get(progress.size() - 1), 1.0);
+      assertTrue(10 < progress.size());
+    } finally {
+      file.delete();
+      export.delete();
+    }
+  }
+
+  public void testFilter() throws Exception {
+    File file = log();
+    File export = File.createTempFile("lcmlog", ".log");
+    try {
+      LogExport logExport = new LogExport(file.getPath(), export.getPath()) //
+          .setChannelFilter("A"::equals);
+      assertEquals((long) logExport.call(), 600);
+      assertEquals(logExport.getRunCount(), 200);
+      assertEquals(logExport.getByteCount(), export.length());
+      List<Event> list = TestLogs.readAll(export.getPath());
+      assertEquals(list.size(), 600);
+      for (Event event : list) {
+        assertEquals(event.channel, "A");
+        assertEquals(event.data[0], (byte) event.eventNumber);
+      }
+      // renumbered
+      logExport = new LogExport(file.getPath(), export.getPath()) //
+          .setChannelFilter("B"::equals) //
+          .setRenumber(true);
+      assertEquals((long) logExport.call(), 400);
+      assertEquals(logExport.getRenumberCount(), 400);
+      list = TestLogs.readAll(export.getPath());
+      assertEquals(list.size(), 400);
+      for (int index = 0; index < list.size(); ++index) {
+        assertEquals(list.get(index).eventNumber, index);
+        assertEquals(list.get(index).channel, "B");
+        int source = index / 2 * 5 + 3 + index % 2;
+        assertEquals(list.get(index).data[0], (byte) source);
+        assertEquals(list.get(index).data.length, 1 + source % 50);
+      }
+    } finally {
+      file.delete();
+      export.delete();
+    }
+  }
+
+  public void testTimeWindowAndRegion() throws Exception {
+    File file = log();
+    File export = File.createTempFile("lcmlog", ".log");
+    try {
+      LogExport logExport = new LogExport(file.getPath(), export.getPath()) //
+          .setTimeWindow(100_000_000L, 200_000_000L);
+      assertEquals((long) logExport.call(), 100);
+      List<Event> list = TestLogs.readAll(export.getPath());
+      assertEquals(list.get(0).eventNumber, 100);
+      assertEquals(list.get(99).eventNumber, 199);
+      logExport = new LogExport(file.getPath(), export.getPath()) //
+          .setRegion(0.5, 1);
+      long count = logExport.call();
+      assertTrue(400 < count && count < 600);
+      assertEquals(TestLogs.readAll(export.getPath()).get((int) count - 1).eventNumber, 999);
+    } finally {
+      file.delete();
+      export.delete();
+    }
+  }
+
+  public void testZip() throws Exception {
+    File file = log();
+    File zip = TestLogs.zip(file);
+    File export = File.createTempFile("lcmlog", ".log");
+    File reference = File.createTempFile("lcmlog", ".log");
+    try {
+      LogExport logExport = new LogExport(zip.getPath(), export.getPath()) //
+          .setChannelFilter("B"::equals) //
+          .setRenumber(true);
+      assertEquals((long) logExport.call(), 400);
+      assertEquals(logExport.getByteCount(), export.length());
+      new LogExport(file.getPath(), reference.getPath()) //
+          .setChannelFilter("B"::equals) //
+          .setRenumber(true) //
+          .call();
+      assertTrue(Arrays.equals(Files.readAllBytes(export.toPath()), Files.readAllBytes(reference.toPath())));
+    } finally {
+      file.delete();
+      zip.delete();
+      export.delete();
+      reference.delete();
+    }
+  }
+
+  /** @return log file with channel bytes that are not valid in any common
+   * charset, and event numbers starting at given number */
+  private static File raw(long eventNumber) throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    byte[] channel = { 'A', (byte) 0xe2, (byte) 0x82, (byte) 0xff, (byte) 0xc0 };
+    try (DataOutputStream dataOutputStream = new DataOutputStream(new FileOutputStream(file))) {
+      for (int index = 0; index < 10; ++index) {
+        dataOutputStream.writeInt(Log.LOG_MAGIC);
+        dataOutputStream.writeLong(eventNumber + index);
+        dataOutputStream.writeLong(index);
+        dataOutputStream.writeInt(channel.length);
+        dataOutputStream.writeInt(3);
+        dataOutputStream.write(channel);
+        dataOutputStream.write(new byte[] { 1, 2, (byte) index });
+      }
+    }
+    return file;
+  }
+
+  /** the channel of a renumbered event is copied as stored in the source */
+  public void testRenumberChannelBytes() throws Exception {
+    File file = raw(5);
+    File reference = raw(0);
+    File export = File.createTempFile("lcmlog", ".log");
+    try (MappedLogReader mappedLogReader = new MappedLogReader(file.getPath())) {
+      assertTrue(mappedLogReader.advance());
+      ByteBuffer channel = mappedLogReader.getChannelBytes();
+      assertEquals(channel.remaining(), 5);
+      assertEquals(channel.get(channel.position() + 3), (byte) 0xff);
+      LogExport logExport = new LogExport(file.getPath(), export.getPath()).setRenumber(true);
+      assertEquals((long) logExport.call(), 10);
+      assertEquals(logExport.getRenumberCount(), 10);
+      assertEquals(logExport.getByteCount(), export.length());
+      assertTrue(Arrays.equals(Files.readAllBytes(export.toPath()), Files.readAllBytes(reference.toPath())));
+    } finally {
+      file.delete();
+      reference.delete();
+      export.delete();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class LogIndexTest extends TestCase {
+  private static void write(Log log, int begin, int end) throws Exception {
+    for (int index = begin; index < end; ++index) {
+      Event event = new Event();
+      event.eventNumber = index;
+      event.utime = 1000 + 10 * index;
+      event.channel = "CHANNEL" + (index % 3);
+      event.data = new byte[10 + index % 7];
+      log.write(event);
+    }
+  }
+
+  public void testSeek() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    File sidecar = new File(file.getPath() + ".idx");
+    try {
+      try (Log log = new Log(file.getPath(), "rw")) {
+        write(log, 0, 3000);
+      }
+      try (Log log = new Log(file.getPath(), "r")) {
+        assertTrue(log.seekToUtime(1000 + 10 * 2500 - 5));
+        assertEquals(log.readNext().eventNumber, 2500);
+        assertTrue(log.seekToUtime(0));
+        assertEquals(log.readNext().eventNumber, 0);
+        assertFalse(log.seekToUtime(1000 + 10 * 3000));
+        assertTrue(log.seekToEventNumber(1024));
+        assertEquals(log.readNext().eventNumber, 1024);
+        assertTrue(log.seekToEventNumber(2999));
+        assertEquals(log.readNext().eventNumber, 2999);
+        assertFalse(log.seekToEventNumber(3000));
+        assertTrue(log.seekToEventNumber(100));
+        assertEquals(log.nextOnChannel("CHANNEL2").eventNumber, 101);
+        assertEquals(log.nextOnChannel("CHANNEL2").eventNumber, 104);
+        assertEquals(log.readNext().eventNumber, 105);
+        assertNull(log.nextOnChannel("UNKNOWN"));
+        LogIndex logIndex = log.getIndex();
+        assertEquals(logIndex.getEventCount(), 3000);
+        assertEquals(logIndex.getIndexedLength(), file.length());
+        assertEquals(logIndex.count("CHANNEL0"), 1000);
+        assertEquals(logIndex.channels().size(), 3);
+      }
+      assertTrue(sidecar.isFile());
+      long modified = sidecar.lastModified();
+      long length = sidecar.length();
+      // delta encoded offsets take less than 8 bytes per event
+      assertTrue(length < 3000 * 2 + 1000);
+      // unchanged log reuses the sidecar
+      assertEquals(LogIndex.of(file.getPath()).getEventCount(), 3000);
+      assertEquals(sidecar.lastModified(), modified);
+      // appended events extend the index
+      try (Log log = new Log(file.getPath(), "rw")) {
+        log.seekPositionFraction(1.0);
+        write(log, 3000, 3100);
+      }
+      LogIndex logIndex = LogIndex.of(file.getPath());
+      assertEquals(logIndex.getEventCount(), 3100);
+      assertEquals(logIndex.getIndexedLength(), file.length());
+      try (Log log = new Log(file.getPath(), "r")) {
+        assertTrue(log.seekToEventNumber(3050));
+        assertEquals(log.readNext().utime, 1000 + 10 * 3050);
+      }
+      // replaced log rebuilds the index
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        randomAccessFile.setLength(0);
+      }
+      try (Log log = new Log(file.getPath(), "rw")) {
+        write(log, 0, 10);
+      }
+      assertEquals(LogIndex.of(file.getPath()).getEventCount(), 10);
+    } finally {
+      file.delete();
+      sidecar.delete();
+    }
+  }
+}
@@ -1,10 +1,16 @@
 // code by jph
 package lcm.logging;
 
+import java.io.EOFException;
+import java.io.File;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
@@ -38,4 +44,132 @@ public class LogTest extends TestCase {
     assertEquals(range, LongStream.range(0, range.size()).boxed().collect(Collectors.toList()));
     assertEquals(count, 34);
   }
+
+  public void testReuse() throws Exception {
+    URL url = Log.class.getResource("/log/lcmlog-2017-08-24.04");
+    String filename = url.getFile();
+    int count = 0;
+    try (Log log = new Log(filename, "r"); Log reuse = new Log(filename, "r")) {
+      Event event = new Event();
+      Map<String, String> channels = new HashMap<>();
+      int capacity = 0;
+      while (true) {
+        Event expected;
+        try {
+          expected = log.readNext();
+        } catch (EOFException exception) {
+          break;
+        }
+        byte[] data = event.data;
+        assertTrue(event == reuse.readNext(event));
+        // array is only allocated for a larger payload
+        if (expected.data.length <= capacity)
+          assertTrue(data == event.data);
+        capacity = Math.max(capacity, expected.data.length);
+        assertEquals(event.data.length, capacity);
+        assertEquals(event.eventNumber, expected.eventNumber);
+        assertEquals(event.utime, expected.utime);
+        assertEquals(event.channel, expected.channel);
+        // channel names are interned
+        assertTrue(event.channel == channels.computeIfAbsent(event.channel, Function.identity()));
+        assertEquals(event.getLength(), expected.getLength());
+        assertEquals(expected.getLength(), expected.data.length);
+        assertTrue(Arrays.equals(Arrays.copyOf(event.data, event.getLength()), expected.data));
+        ++count;
+      }
+    }
+    assertTrue(10 < count);
+  }
+
+  public void testEventWriter() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    File copy = File.createTempFile("lcmlog", ".log");
+    try {
+      try (Log log = new Log(file.getPath(), "rw")) {
+        for (int index = 0; index < 100; ++index) {
+          Event event = new Event();
+          event.eventNumber = index;
+          event.utime = index;
+          event.channel = "CHANNEL";
+          // payloads shrink so that a reused event keeps a larger array
+          event.data = new byte[1000 - 7 * index];
+          Arrays.fill(event.data, (byte) index);
+          log.write(event);
+        }
+      }
+      LogEventWriter logEventWriter = new LogEventWriter(copy);
+      try (Log log = new Log(file.getPath(), "r")) {
+        Event event = new Event();
+        while (true)
+          logEventWriter.write(log.readNext(event));
+      } catch (EOFException exception) {
+        // ---
+      }
+      logEventWriter.close();
+      assertEquals(copy.length(), file.length());
+      try (Log log = new Log(copy.getPath(), "r")) {
+        for (int index = 0; index < 100; ++index) {
+          Event event = log.readNext();
+          assertEquals(event.eventNumber, index);
+          assertEquals(event.data.length, 1000 - 7 * index);
+          assertEquals(event.data[event.data.length - 1], (byte) index);
+        }
+      }
+    } finally {
+      file.delete();
+      copy.delete();
+    }
+  }
+
+  public void testAssignData() throws Exception {
+    URL url = Log.class.getResource("/log/lcmlog-2017-08-24.04");
+    try (Log log = new Log(url.getFile(), "r")) {
+      Event event = new Event();
+      log.readNext(event);
+      log.readNext(event);
+      // an array assigned after reuse is valid in its entirety
+      event.data = new byte[event.data.length + 10];
+      assertEquals(event.getLength(), event.data.length);
+      event.setData(event.data, 3);
+      assertEquals(event.getLength(), 3);
+      try {
+        event.setData(new byte[2], 3);
+        fail();
+      } catch (IllegalArgumentException exception) {
+        // ---
+      }
+    }
+  }
+
+  public void testFiltered() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try {
+      try (Log log = new Log(file.getPath(), "rw")) {
+        for (int index = 0; index < 100; ++index) {
+          Event event = new Event();
+          event.eventNumber = index;
+          event.utime = index;
+          event.channel = index % 10 == 0 ? "SPARSE" : "DENSE";
+          event.data = new byte[1000 + index];
+          event.data[0] = (byte) index;
+          log.write(event);
+        }
+      }
+      List<Long> list = new LinkedList<>();
+      try (Log log = new Log(file.getPath(), "r")) {
+        while (true) {
+          Event event = log.readNext(Collections.singleton("SPARSE")::contains);
+          assertEquals(event.channel, "SPARSE");
+          assertEquals(event.data.length, 1000 + event.eventNumber);
+          assertEquals(event.data[0], (byte) event.eventNumber);
+          list.add(event.eventNumber);
+        }
+      } catch (EOFException exception) {
+        // ---
+      }
+      assertEquals(list, Arrays.asList(0L, 10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L));
+    } finally {
+      file.delete();
+    }
+  }
 }
@@ -0,0 +1,97 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class MappedLogReaderTest extends TestCase {
+  private static void assertEquals(Event event1, Event event2) {
+    assertEquals(event1.eventNumber, event2.eventNumber);
+    assertEquals(event1.utime, event2.utime);
+    assertEquals(event1.channel, event2.channel);
+    assertTrue(Arrays.equals(event1.data, event2.data));
+  }
+
+  public void testEvents() throws Exception {
+    URL url = Log.class.getResource("/log/lcmlog-2017-08-24.04");
+    String filename = url.getFile();
+    List<Event> list = TestLogs.readAll(filename);
+    assertEquals(list.size(), 34);
+    try (MappedLogReader mappedLogReader = new MappedLogReader(filename)) {
+      for (Event event : list)
+        assertEquals(mappedLogReader.readNext(), event);
+      assertFalse(mappedLogReader.advance());
+      assertEquals(mappedLogReader.getPositionFraction(), 1.0);
+    }
+  }
+
+  public void testChunks() throws Exception {
+    URL url = Log.class.getResource("/log/lcmlog-2017-08-24.04");
+    String filename = url.getFile();
+    List<Event> list = TestLogs.readAll(filename);
+    for (int chunkSize : new int[] { 1, 7, 1000, 1301, 4096 })
+      try (MappedLogReader mappedLogReader = new MappedLogReader(filename, chunkSize, 2000)) {
+        String channel = null;
+        for (Event event : list) {
+          assertTrue(mappedLogReader.advance());
+          assertEquals(mappedLogReader.getEventNumber(), event.eventNumber);
+          assertEquals(mappedLogReader.getData().remaining(), event.data.length);
+          assertEquals(mappedLogReader.getData().get(mappedLogReader.getData().limit() - 1), event.data[event.data.length - 1]);
+          if (event.channel.equals(channel)) // channel names are interned
+            assertTrue(channel == mappedLogReader.getChannel());
+          channel = mappedLogReader.getChannel();
+        }
+        assertFalse(mappedLogReader.advance());
+      }
+  }
+
+  public void testResync() throws Exception {
+    File file = File.createTempFile("lcmlog", ".log");
+    try {
+      try (Log log = new Log(file.getPath(), "rw")) {
+        for (int index = 0; index < 10; ++index) {
+          Event event = new Event();
+          event.eventNumber = index;
+          event.utime = 1000 + index;
+          event.channel = "CHANNEL" + (index % 2);
+          event.data = new byte[100 + index];
+          log.write(event);
+        }
+      }
+      // corrupt the header of the event with number 3, and insert garbage
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        long offset = 3 * (28 + 8) + 100 + 101 + 102;
+        randomAccessFile.seek(offset + 20);
+        randomAccessFile.writeInt(-1);
+      }
+      List<Event> list = TestLogs.readAll(file.getPath());
+      assertEquals(list.size(), 9);
+      try (MappedLogReader mappedLogReader = new MappedLogReader(file.getPath())) {
+        for (Event event : list)
+          assertEquals(mappedLogReader.readNext(), event);
+        assertFalse(mappedLogReader.advance());
+        mappedLogReader.seekPositionFraction(0.5);
+        assertTrue(mappedLogReader.advance());
+        assertTrue(4 <= mappedLogReader.getEventNumber());
+      }
+      // truncated event at the end of the file
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        randomAccessFile.setLength(randomAccessFile.length() - 1);
+      }
+      try (MappedLogReader mappedLogReader = new MappedLogReader(file.getPath())) {
+        int count = 0;
+        while (mappedLogReader.advance())
+          ++count;
+        assertEquals(count, 8);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class MergedLogTest extends TestCase {
+  private static File log(String channel, int phase) throws Exception {
+    return TestLogs.log(1000, index -> TestLogs.event(index, 3 * index + phase, channel, new byte[] { (byte) index }));
+  }
+
+  public void testMerge() throws Exception {
+    File a = log("A", 0);
+    File b = log("B", 1);
+    File c = log("C", 2);
+    File zip = TestLogs.zip(c);
+    // duplicate times are ordered by the index of the log
+    File d = log("D", 1);
+    try {
+      try (LogReader logReader = LogReaders.open(String.join(",", a.getPath(), b.getPath(), zip.getPath(), d.getPath()))) {
+        assertTrue(logReader instanceof MergedLog);
+        List<Event> list = TestLogs.readAll(logReader);
+        assertEquals(list.size(), 4000);
+        for (int index = 1; index < list.size(); ++index)
+          assertTrue(list.get(index - 1).utime <= list.get(index).utime);
+        assertEquals(list.get(0).channel, "A");
+        assertEquals(list.get(1).channel, "B");
+        assertEquals(list.get(2).channel, "D");
+        assertEquals(list.get(3).channel, "C");
+        assertEquals(list.get(3).data[0], 0);
+        assertEquals(list.get(3999).channel, "C");
+        assertEquals(((MergedLog) logReader).getIndex(), 2);
+      }
+    } finally {
+      a.delete();
+      b.delete();
+      c.delete();
+      zip.delete();
+      d.delete();
+    }
+  }
+
+  /** a file with the separator in its name is opened as a single log */
+  public void testSeparatorInName() throws Exception {
+    File a = log("A", 0);
+    File file = new File(a.getParentFile(), "run" + MergedLog.SEPARATOR + a.getName());
+    try {
+      assertTrue(a.renameTo(file));
+      try (LogReader logReader = LogReaders.open(file.getPath())) {
+        assertTrue(logReader instanceof Log);
+        assertEquals(TestLogs.readAll(logReader).size(), 1000);
+      }
+    } finally {
+      a.delete();
+      file.delete();
+    }
+  }
+
+  public void testSeek() throws Exception {
+    File a = log("A", 0);
+    File b = log("B", 1);
+    try {
+      try (LogReader logReader = LogReaders.open(a.getPath() + MergedLog.SEPARATOR + b.getPath())) {
+        assertEquals(logReader.getPath(), a.getPath() + MergedLog.SEPARATOR + b.getPath());
+        logReader.seekPositionFraction(0.5);
+        List<Event> list = TestLogs.readAll(logReader);
+        assertTrue(500 < list.size());
+        assertTrue(list.size() < 1500);
+        for (int index = 1; index < list.size(); ++index)
+          assertTrue(list.get(index - 1).utime <= list.get(index).utime);
+        logReader.seekPositionFraction(0);
+        assertEquals(TestLogs.readAll(logReader).size(), 2000);
+      }
+    } finally {
+      a.delete();
+      b.delete();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+// code by jph
+package lcm.logging;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class ParallelLogTest extends TestCase {
+  /** @return log with payloads that contain the magic number followed by a
+   * valid header */
+  private static File log() throws Exception {
+    Random random = new Random(5);
+    return TestLogs.log(5000, index -> {
+      // fake event of 40 bytes that may be followed by the next event
+      ByteBuffer byteBuffer = ByteBuffer.allocate(index % 2 == 0 ? 40 : 40 + random.nextInt(200));
+      if (index % 3 == 0) {
+        byteBuffer.putInt(Log.LOG_MAGIC);
+        byteBuffer.putLong(index);
+        byteBuffer.putLong(0);
+        byteBuffer.putInt(4);
+        byteBuffer.putInt(8);
+      }
+      return TestLogs.event(index, 1000L * index, "CHANNEL" + random.nextInt(7), byteBuffer.array());
+    });
+  }
+
+  public void testOrdered() throws Exception {
+    File file = log();
+    try {
+      List<Event> expected = TestLogs.readAll(file.getPath());
+      for (int partitions : new int[] { 1, 2, 17, 100, 1000 }) {
+        ParallelLog parallelLog = new ParallelLog(file.getPath(), partitions);
+        assertEquals(parallelLog.getPartitionCount(), partitions);
+        List<Event> list = parallelLog.stream(true).collect(Collectors.toList());
+        assertEquals(list.size(), expected.size());
+        for (int index = 0; index < list.size(); ++index) {
+          assertEquals(list.get(index).eventNumber, expected.get(index).eventNumber);
+          assertEquals(list.get(index).channel, expected.get(index).channel);
+          assertTrue(Arrays.equals(list.get(index).data, expected.get(index).data));
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testReduce() throws Exception {
+    File file = log();
+    try {
+      Map<String, Long> expected = new HashMap<>();
+      for (Event event : TestLogs.readAll(file.getPath()))
+        if (!event.channel.equals("CHANNEL0"))
+          expected.merge(event.channel, (long) event.data.length, Long::sum);
+      ParallelLog parallelLog = new ParallelLog(file.getPath(), 13);
+      Map<String, Long> map = parallelLog.reduce( //
+          channel -> !channel.equals("CHANNEL0"), //
+          HashMap<String, Long>::new, //
+          (result, mappedLogReader) -> result.merge(mappedLogReader.getChannel(), (long) mappedLogReader.getData().remaining(), Long::sum), //
+          (map1, map2) -> {
+            map2.forEach((key, value) -> map1.merge(key, value, Long::sum));
+            return map1;
+          });
+      assertEquals(map, expected);
+      long count = parallelLog.stream("CHANNEL0"::equals, false).count();
+      assertEquals(count, TestLogs.readAll(file.getPath()).stream().filter(event -> event.channel.equals("CHANNEL0")).count());
+    } finally {
+      file.delete();
+    }
+  }
+}
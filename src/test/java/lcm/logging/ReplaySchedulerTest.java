@@ -0,0 +1,65 @@
+// code by jph
+package lcm.logging;
+
+import junit.framework.TestCase;
+
+public class ReplaySchedulerTest extends TestCase {
+  public void testAbsoluteDeadlines() throws InterruptedException {
+    ReplayScheduler replayScheduler = new ReplayScheduler(1);
+    long tic = System.nanoTime();
+    // 1 kHz for 200 ms
+    for (int index = 0; index <= 200; ++index)
+      replayScheduler.await(1_000_000 + index * 1000);
+    long duration = System.nanoTime() - tic;
+    assertTrue(duration > 199_000_000L);
+    assertTrue(duration < 300_000_000L);
+    // the first event is the anchor
+    assertEquals(replayScheduler.getCount(), 200);
+    assertTrue(replayScheduler.getLatenessQuantile_us(0.5) <= replayScheduler.getLatenessQuantile_us(0.99));
+    assertTrue(replayScheduler.getLatenessQuantile_us(0.99) <= replayScheduler.getMaxLateness_us());
+    replayScheduler.resetStatistics();
+    assertEquals(replayScheduler.getCount(), 0);
+    assertEquals(replayScheduler.getLatenessQuantile_us(0.99), 0);
+  }
+
+  public void testSpeedChange() throws InterruptedException {
+    ReplayScheduler replayScheduler = new ReplayScheduler(1);
+    long tic = System.nanoTime();
+    for (int index = 0; index <= 100; ++index)
+      replayScheduler.await(index * 1000);
+    replayScheduler.setSpeed(4);
+    // 400 ms of the log at 4x take 100 ms
+    for (int index = 101; index <= 500; ++index)
+      replayScheduler.await(index * 1000);
+    long duration = System.nanoTime() - tic;
+    assertTrue(duration > 190_000_000L);
+    assertTrue(duration < 300_000_000L);
+    assertEquals(replayScheduler.getSpeed(), 4.0);
+  }
+
+  public void testSpeedChangeWhileWaiting() throws InterruptedException {
+    ReplayScheduler replayScheduler = new ReplayScheduler(1);
+    replayScheduler.await(0);
+    new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException exception) {
+        // ---
+      }
+      replayScheduler.setSpeed(0);
+    }).start();
+    long tic = System.nanoTime();
+    // deadline of 10 s is abandoned when the speed changes
+    replayScheduler.await(10_000_000);
+    assertTrue(System.nanoTime() - tic < 5_000_000_000L);
+  }
+
+  public void testFastAsPossible() throws InterruptedException {
+    ReplayScheduler replayScheduler = new ReplayScheduler(0);
+    long tic = System.nanoTime();
+    for (int index = 0; index < 100; ++index)
+      replayScheduler.await(index * 1_000_000L);
+    assertTrue(System.nanoTime() - tic < 1_000_000_000L);
+    assertEquals(replayScheduler.getCount(), 0);
+  }
+}
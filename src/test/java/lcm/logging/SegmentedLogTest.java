@@ -0,0 +1,101 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class SegmentedLogTest extends TestCase {
+  private static void delete(String path) {
+    File manifest = new File(path + SegmentedLogWriter.MANIFEST_EXTENSION);
+    for (int index = 0; new File(SegmentedLogWriter.segment(path, index)).delete(); ++index)
+      ;
+    manifest.delete();
+    new File(path).delete();
+  }
+
+  public void testSize() throws Exception {
+    String path = File.createTempFile("lcmlog", "").getPath();
+    try {
+      SegmentedLogWriter segmentedLogWriter = new SegmentedLogWriter(path, 10000, 0, 1 << 20, 0);
+      byte[] data = new byte[100];
+      for (int count = 0; count < 1000; ++count) {
+        data[0] = (byte) count;
+        assertTrue(segmentedLogWriter.write(count, "CHANNEL", data, 0, data.length));
+      }
+      segmentedLogWriter.close();
+      try (SegmentedLog segmentedLog = (SegmentedLog) LogReaders.open(segmentedLogWriter.getManifestPath())) {
+        List<SegmentedLog.Segment> segments = segmentedLog.getSegments();
+        // 28 + 7 + 100 bytes per event, 74 events per segment
+        assertEquals(segments.size(), 14);
+        long total = 0;
+        for (int index = 0; index < segments.size(); ++index) {
+          SegmentedLog.Segment segment = segments.get(index);
+          assertTrue(segment.getLength() <= 10000);
+          assertEquals(segment.getFirstEventNumber(), 74 * index);
+          assertEquals(segment.getFirstUtime(), 74 * index);
+          total += segment.getLength();
+        }
+        assertEquals(total, segmentedLogWriter.getByteCount());
+        for (int count = 0; count < 1000; ++count) {
+          Event event = segmentedLog.readNext();
+          assertEquals(event.eventNumber, count);
+          assertEquals(event.data[0], (byte) count);
+        }
+        assertEquals(segmentedLog.getPositionFraction(), 1.0);
+        try {
+          segmentedLog.readNext();
+          fail();
+        } catch (EOFException exception) {
+          // ---
+        }
+        segmentedLog.seekPositionFraction(0.5);
+        Event event = segmentedLog.readNext();
+        assertTrue(Math.abs(event.eventNumber - 500) < 2);
+        assertTrue(Math.abs(segmentedLog.getPositionFraction() - 0.5) < 0.01);
+        segmentedLog.seekPositionFraction(0);
+        assertEquals(segmentedLog.readNext().eventNumber, 0);
+      }
+    } finally {
+      delete(path);
+    }
+  }
+
+  public void testDuration() throws Exception {
+    String path = File.createTempFile("lcmlog", "").getPath();
+    try {
+      SegmentedLogWriter segmentedLogWriter = new SegmentedLogWriter(path, 0, 10, 1 << 20, 0);
+      for (int count = 0; count < 100; ++count)
+        segmentedLogWriter.write(count * 1_000_000L, "CHANNEL", new byte[10], 0, 10);
+      segmentedLogWriter.close();
+      try (SegmentedLog segmentedLog = new SegmentedLog(segmentedLogWriter.getManifestPath())) {
+        assertEquals(segmentedLog.getSegments().size(), 10);
+        assertEquals(segmentedLog.getSegments().get(3).getFirstUtime(), 30_000_000L);
+      }
+    } finally {
+      delete(path);
+    }
+  }
+
+  public void testEmpty() throws Exception {
+    String path = File.createTempFile("lcmlog", "").getPath();
+    try {
+      new SegmentedLogWriter(path, 1000, 0, 1 << 20, 0).close();
+      try (LogReader logReader = LogReaders.open(path + SegmentedLogWriter.MANIFEST_EXTENSION)) {
+        logReader.seekPositionFraction(0.5);
+        assertEquals(logReader.getPositionFraction(), 0.0);
+        try {
+          logReader.readNext();
+          fail();
+        } catch (EOFException exception) {
+          // ---
+        }
+      }
+    } finally {
+      delete(path);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import lcm.logging.Log.Event;
+
+/** temporary log files and readout of logs shared by the tests */
+/* package */ enum TestLogs {
+  ;
+  /** @param eventNumber
+   * @param utime
+   * @param channel
+   * @param data
+   * @return new event */
+  static Event event(long eventNumber, long utime, String channel, byte[] data) {
+    Event event = new Event();
+    event.eventNumber = eventNumber;
+    event.utime = utime;
+    event.channel = channel;
+    event.data = data;
+    return event;
+  }
+
+  /** @param count number of events
+   * @param function gives the event with given index
+   * @return temporary log file with the events in the order of the index */
+  static File log(int count, IntFunction<Event> function) throws IOException {
+    File file = File.createTempFile("lcmlog", ".log");
+    try (Log log = new Log(file.getPath(), "rw")) {
+      for (int index = 0; index < count; ++index)
+        log.write(function.apply(index));
+    }
+    return file;
+  }
+
+  /** @param file determines the name of the zip file and of its entry, as
+   * expected by {@link ZipLogEventReader}
+   * @param data content of entry
+   * @return zip file next to given file */
+  static File zip(File file, byte[] data) throws IOException {
+    File zip = new File(file.getPath() + ".zip");
+    try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+      zipOutputStream.putNextEntry(new ZipEntry(file.getName()));
+      zipOutputStream.write(data);
+      zipOutputStream.closeEntry();
+    }
+    return zip;
+  }
+
+  /** @param file
+   * @return zip file next to given file with the content of the file */
+  static File zip(File file) throws IOException {
+    return zip(file, Files.readAllBytes(file.toPath()));
+  }
+
+  /** @param logReader
+   * @return events until the end of the log */
+  static List<Event> readAll(LogReader logReader) throws IOException {
+    List<Event> list = new ArrayList<>();
+    try {
+      while (true)
+        list.add(logReader.readNext());
+    } catch (EOFException exception) {
+      // ---
+    }
+    return list;
+  }
+
+  /** @param path of log file
+   * @return events of the log file */
+  static List<Event> readAll(String path) throws IOException {
+    try (Log log = new Log(path, "r")) {
+      return readAll(log);
+    }
+  }
+}
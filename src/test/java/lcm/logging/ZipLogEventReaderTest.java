@@ -0,0 +1,59 @@
+// code by jph
+package lcm.logging;
+
+import java.io.EOFException;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import lcm.logging.Log.Event;
+
+public class ZipLogEventReaderTest extends TestCase {
+  public void testFiltered() throws Exception {
+    URL url = Log.class.getResource("/log/lcmlog-2017-08-24.04");
+    String filename = url.getFile();
+    List<Event> expected = new ArrayList<>();
+    try (Log log = new Log(filename, "r")) {
+      while (true) {
+        Event event = log.readNext();
+        if (event.eventNumber % 3 == 0)
+          event.channel = "SELECTED";
+        expected.add(event);
+      }
+    } catch (EOFException exception) {
+      // ---
+    }
+    File file = File.createTempFile("lcmlog", "");
+    File zip = new File(file.getPath() + ".zip");
+    try {
+      try (Log log = new Log(file.getPath(), "rw")) {
+        for (Event event : expected)
+          log.write(event);
+      }
+      TestLogs.zip(file);
+      ZipLogEventReader zipLogEventReader = new ZipLogEventReader(zip.getPath());
+      int count = 0;
+      try {
+        while (true) {
+          Event event = zipLogEventReader.readNext("SELECTED"::equals);
+          Event reference = expected.get((int) event.eventNumber);
+          assertEquals(event.channel, reference.channel);
+          assertEquals(event.utime, reference.utime);
+          assertEquals(event.data.length, reference.data.length);
+          assertEquals(event.data[event.data.length - 1], reference.data[reference.data.length - 1]);
+          ++count;
+        }
+      } catch (EOFException exception) {
+        // ---
+      } finally {
+        zipLogEventReader.close();
+      }
+      assertEquals(count, 12);
+    } finally {
+      file.delete();
+      zip.delete();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// code by jph
+package lcm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** compares {@link BufferedRandomAccessFile} with the implementation before
+ * the bulk fast paths by writing and reading events in the format of a log
+ * file
+ *
+ * run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=lcm.util.BufferedRandomAccessFileBenchmark */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferedRandomAccessFileBenchmark {
+  private static final int EVENTS = 10000;
+  private static final byte[] CHANNEL = "POSE_ESTIMATE".getBytes();
+
+  @Param({ "100", "4000" })
+  public int dataLength;
+  private byte[] data;
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    data = new byte[dataLength];
+    file = File.createTempFile("braf", ".lcm");
+    BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(file.getPath(), "rw");
+    for (int count = 0; count < EVENTS; ++count)
+      writeEvent(bufferedRandomAccessFile, count);
+    bufferedRandomAccessFile.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  private void writeEvent(BufferedRandomAccessFile bufferedRandomAccessFile, long count) throws IOException {
+    bufferedRandomAccessFile.writeInt(0xEDA1DA01);
+    bufferedRandomAccessFile.writeLong(count);
+    bufferedRandomAccessFile.writeLong(count);
+    bufferedRandomAccessFile.writeInt(CHANNEL.length);
+    bufferedRandomAccessFile.writeInt(data.length);
+    bufferedRandomAccessFile.write(CHANNEL, 0, CHANNEL.length);
+    bufferedRandomAccessFile.write(data, 0, data.length);
+  }
+
+  @Benchmark
+  public long writeCurrent() throws IOException {
+    BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(file.getPath(), "rw");
+    for (int count = 0; count < EVENTS; ++count)
+      writeEvent(bufferedRandomAccessFile, count);
+    bufferedRandomAccessFile.close();
+    return bufferedRandomAccessFile.length();
+  }
+
+  @Benchmark
+  public long writeBaseline() throws IOException {
+    BufferedRandomAccessFileBaseline bufferedRandomAccessFile = new BufferedRandomAccessFileBaseline(file.getPath(), "rw");
+    for (int count = 0; count < EVENTS; ++count) {
+      bufferedRandomAccessFile.writeInt(0xEDA1DA01);
+      bufferedRandomAccessFile.writeLong(count);
+      bufferedRandomAccessFile.writeLong(count);
+      bufferedRandomAccessFile.writeInt(CHANNEL.length);
+      bufferedRandomAccessFile.writeInt(data.length);
+      bufferedRandomAccessFile.write(CHANNEL, 0, CHANNEL.length);
+      bufferedRandomAccessFile.write(data, 0, data.length);
+    }
+    bufferedRandomAccessFile.close();
+    return bufferedRandomAccessFile.length();
+  }
+
+  @Benchmark
+  public long readCurrent() throws IOException {
+    BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(file.getPath(), "r");
+    long sum = 0;
+    byte[] channel = new byte[CHANNEL.length];
+    byte[] payload = new byte[dataLength];
+    for (int count = 0; count < EVENTS; ++count) {
+      sum += bufferedRandomAccessFile.readInt();
+      sum += bufferedRandomAccessFile.readLong();
+      sum += bufferedRandomAccessFile.readLong();
+      sum += bufferedRandomAccessFile.readInt();
+      sum += bufferedRandomAccessFile.readInt();
+      bufferedRandomAccessFile.readFully(channel);
+      bufferedRandomAccessFile.readFully(payload);
+    }
+    bufferedRandomAccessFile.close();
+    return sum;
+  }
+
+  @Benchmark
+  public long readBaseline() throws IOException {
+    BufferedRandomAccessFileBaseline bufferedRandomAccessFile = new BufferedRandomAccessFileBaseline(file.getPath(), "r");
+    long sum = 0;
+    byte[] channel = new byte[CHANNEL.length];
+    byte[] payload = new byte[dataLength];
+    for (int count = 0; count < EVENTS; ++count) {
+      sum += bufferedRandomAccessFile.readInt();
+      sum += bufferedRandomAccessFile.readLong();
+      sum += bufferedRandomAccessFile.readLong();
+      sum += bufferedRandomAccessFile.readInt();
+      sum += bufferedRandomAccessFile.readInt();
+      bufferedRandomAccessFile.readFully(channel);
+      bufferedRandomAccessFile.readFully(payload);
+    }
+    bufferedRandomAccessFile.close();
+    return sum;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(BufferedRandomAccessFileBenchmark.class.getSimpleName()).build()).run();
+  }
+}
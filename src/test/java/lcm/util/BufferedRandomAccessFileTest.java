@@ -0,0 +1,118 @@
+// code by jph
+package lcm.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BufferedRandomAccessFileTest extends TestCase {
+  /** performs the same random sequence of writes on a buffered and an
+   * unbuffered file, and compares the files */
+  private static void check(int bufferSize, long seed) throws Exception {
+    File file1 = File.createTempFile("braf", ".bin");
+    File file2 = File.createTempFile("raf", ".bin");
+    try {
+      Random random = new Random(seed);
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file2, "rw")) {
+        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(file1.getPath(), "rw", bufferSize);
+        for (int count = 0; count < 2000; ++count) {
+          switch (random.nextInt(6)) {
+          case 0: {
+            long value = random.nextLong();
+            bufferedRandomAccessFile.writeLong(value);
+            randomAccessFile.writeLong(value);
+            break;
+          }
+          case 1: {
+            int value = random.nextInt();
+            bufferedRandomAccessFile.writeInt(value);
+            randomAccessFile.writeInt(value);
+            break;
+          }
+          case 2: {
+            short value = (short) random.nextInt();
+            bufferedRandomAccessFile.writeShort(value);
+            randomAccessFile.writeShort(value);
+            break;
+          }
+          case 3: {
+            byte[] bytes = new byte[random.nextInt(3 * bufferSize)];
+            random.nextBytes(bytes);
+            int offset = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+            bufferedRandomAccessFile.write(bytes, offset, bytes.length - offset);
+            randomAccessFile.write(bytes, offset, bytes.length - offset);
+            break;
+          }
+          case 4: {
+            byte value = (byte) random.nextInt();
+            bufferedRandomAccessFile.write(value);
+            randomAccessFile.write(value);
+            break;
+          }
+          default: {
+            long position = (long) (random.nextDouble() * randomAccessFile.length());
+            bufferedRandomAccessFile.seek(position);
+            randomAccessFile.seek(position);
+            break;
+          }
+          }
+          assertEquals(bufferedRandomAccessFile.getFilePointer(), randomAccessFile.getFilePointer());
+          assertEquals(bufferedRandomAccessFile.length(), randomAccessFile.length());
+        }
+        bufferedRandomAccessFile.close();
+      }
+      assertTrue(Arrays.equals(Files.readAllBytes(file1.toPath()), Files.readAllBytes(file2.toPath())));
+      // random reads
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file2, "r")) {
+        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(file1.getPath(), "r", bufferSize);
+        for (int count = 0; count < 2000; ++count) {
+          long position = (long) (random.nextDouble() * randomAccessFile.length());
+          bufferedRandomAccessFile.seek(position);
+          randomAccessFile.seek(position);
+          try {
+            switch (random.nextInt(3)) {
+            case 0:
+              assertEquals(bufferedRandomAccessFile.readLong(), randomAccessFile.readLong());
+              break;
+            case 1:
+              assertEquals(bufferedRandomAccessFile.readInt(), randomAccessFile.readInt());
+              break;
+            default:
+              assertEquals(bufferedRandomAccessFile.readShort(), randomAccessFile.readShort());
+              break;
+            }
+          } catch (EOFException exception) {
+            assertTrue(randomAccessFile.length() - 8 < position);
+          }
+        }
+        bufferedRandomAccessFile.close();
+      }
+    } finally {
+      file1.delete();
+      file2.delete();
+    }
+  }
+
+  public void testSmallBuffer() throws Exception {
+    check(8, 1);
+    check(16, 2);
+  }
+
+  public void testLargeBuffer() throws Exception {
+    check(4096, 3);
+  }
+
+  public void testBufferSize() throws Exception {
+    try {
+      new BufferedRandomAccessFile("unused", "r", 1000);
+      fail();
+    } catch (IllegalArgumentException exception) {
+      // ---
+    }
+  }
+}
@@ -0,0 +1,36 @@
+// code by jph
+package lcm.util;
+
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+public class ChannelNameCacheTest extends TestCase {
+  public void testSimple() {
+    ChannelNameCache channelNameCache = new ChannelNameCache();
+    byte[] buffer = "xxPOSE\0yyPOSE\0".getBytes(StandardCharsets.US_ASCII);
+    String string = channelNameCache.get(buffer, 2, 4);
+    assertEquals(string, "POSE");
+    assertSame(channelNameCache.get(buffer, 9, 4), string);
+    assertEquals(channelNameCache.get(buffer, 2, 3), "POS");
+    assertEquals(channelNameCache.size(), 2);
+  }
+
+  public void testLimit() {
+    ChannelNameCache channelNameCache = new ChannelNameCache(4, StandardCharsets.US_ASCII);
+    for (int count = 0; count < 10; ++count) {
+      byte[] buffer = ("CH" + count).getBytes(StandardCharsets.US_ASCII);
+      assertEquals(channelNameCache.get(buffer, 0, buffer.length), "CH" + count);
+    }
+    assertEquals(channelNameCache.size(), 3);
+  }
+
+  public void testFail() {
+    try {
+      new ChannelNameCache(3, StandardCharsets.US_ASCII);
+      fail();
+    } catch (Exception exception) {
+      // ---
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// code by jph
+package lcm.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+
+import junit.framework.TestCase;
+
+public class SubscriptionIndexTest extends TestCase {
+  public void testClassify() {
+    assertEquals(SubscriptionIndex.literal("POSE"), "POSE");
+    assertEquals(SubscriptionIndex.literal("CAMERA\\.LEFT"), "CAMERA.LEFT");
+    assertNull(SubscriptionIndex.literal("CAMERA.LEFT"));
+    assertNull(SubscriptionIndex.literal("A\\d"));
+    assertNull(SubscriptionIndex.literal("A\\"));
+    assertEquals(SubscriptionIndex.prefix("CAMERA.*"), "CAMERA");
+    assertEquals(SubscriptionIndex.prefix(".*"), "");
+    assertNull(SubscriptionIndex.prefix("CAM[0-9].*"));
+    assertNull(SubscriptionIndex.prefix("POSE"));
+  }
+
+  public void testPredicate() {
+    Predicate<String> predicate = SubscriptionIndex.predicate("CAMERA.*");
+    assertTrue(predicate.test("CAMERA"));
+    assertTrue(predicate.test("CAMERA_LEFT"));
+    assertFalse(predicate.test("CAM"));
+    assertTrue(SubscriptionIndex.predicate("A.C").test("ABC"));
+    assertFalse(SubscriptionIndex.predicate("A\\.C").test("ABC"));
+  }
+
+  public void testMatch() {
+    SubscriptionIndex<String> subscriptionIndex = new SubscriptionIndex<>();
+    subscriptionIndex.add(".*", "all");
+    subscriptionIndex.add("CAMERA_LEFT", "exact");
+    subscriptionIndex.add("CAMERA.*", "prefix");
+    subscriptionIndex.add("CAMERA_[A-Z]+", "regex");
+    subscriptionIndex.add("CAM.*", "short");
+    assertEquals(subscriptionIndex.size(), 5);
+    assertEquals(subscriptionIndex.match("CAMERA_LEFT"), Arrays.asList("all", "exact", "prefix", "regex", "short"));
+    assertEquals(subscriptionIndex.match("CAMERA"), Arrays.asList("all", "prefix", "short"));
+    assertEquals(subscriptionIndex.match("POSE"), Arrays.asList("all"));
+    assertEquals(subscriptionIndex.match(""), Arrays.asList("all"));
+  }
+
+  public void testRemove() {
+    SubscriptionIndex<String> subscriptionIndex = new SubscriptionIndex<>();
+    subscriptionIndex.add("CAMERA.*", "a");
+    subscriptionIndex.add("CAMERA.*", "a");
+    subscriptionIndex.add("CAMERA.*", "b");
+    subscriptionIndex.add("POSE", "a");
+    subscriptionIndex.add("P[O]SE", "b");
+    assertEquals(subscriptionIndex.match("CAMERA"), Arrays.asList("a", "a", "b"));
+    assertTrue(subscriptionIndex.remove("CAMERA.*", "a"));
+    assertEquals(subscriptionIndex.match("CAMERA"), Arrays.asList("a", "b"));
+    assertFalse(subscriptionIndex.remove("CAM.*", "a"));
+    assertFalse(subscriptionIndex.remove("POSE", "b"));
+    assertEquals(subscriptionIndex.size(), 4);
+    assertEquals(subscriptionIndex.removeAll("a"), 2);
+    assertEquals(subscriptionIndex.match("CAMERA"), Arrays.asList("b"));
+    assertEquals(subscriptionIndex.match("POSE"), Arrays.asList("b"));
+    assertEquals(subscriptionIndex.size(), 2);
+    assertTrue(subscriptionIndex.remove("P[O]SE", "b"));
+    assertTrue(subscriptionIndex.remove("CAMERA.*", "b"));
+    assertEquals(subscriptionIndex.size(), 0);
+    assertEquals(subscriptionIndex.match("CAMERA"), Collections.emptyList());
+  }
+}